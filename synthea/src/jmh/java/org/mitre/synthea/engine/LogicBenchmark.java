@@ -0,0 +1,126 @@
+package org.mitre.synthea.engine;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.mitre.synthea.helpers.Utilities;
+import org.mitre.synthea.world.agents.Person;
+import org.mitre.synthea.world.concepts.HealthRecord;
+import org.mitre.synthea.world.concepts.HealthRecord.CarePlan;
+import org.mitre.synthea.world.concepts.VitalSign;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of testing the conditions in the LogicTest corpus (src/test/resources/generic/logic.json)
+ * against a patient that has everything those conditions look at: demographics, an attribute,
+ * symptoms, vital signs, observations, conditions, care plans and a module history.
+ * Run with: gradle jmh -Pbenchmarks=LogicBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@org.openjdk.jmh.annotations.State(Scope.Benchmark)
+public class LogicBenchmark {
+
+  /** 2019-06-15T00:00:00Z, a fixed time so the Date conditions don't drift. */
+  private static final long TIME = 1560556800000L;
+
+  /** Condition types to benchmark on their own, or "all" for the whole corpus. */
+  @Param({ "all", "Age", "Date", "And", "Or", "AtLeast", "AtMost", "PriorState" })
+  public String conditionType;
+
+  private Person person;
+  private long time;
+  private Logic[] conditions;
+
+  /**
+   * Load the corpus and build the patient. Conditions that throw for this patient (the tests
+   * for missing observations and vital signs) are left out.
+   */
+  @Setup
+  public void setup() throws Exception {
+    time = TIME;
+    person = new Person(0L);
+    person.attributes.put(Person.GENDER, "M");
+    person.attributes.put(Person.BIRTHDATE, time - Utilities.convertTime("years", 40));
+    person.attributes.put(Person.RACE, "white");
+    person.attributes.put(Person.SOCIOECONOMIC_CATEGORY, "Middle");
+    person.attributes.put("Test_Attribute_Key", 120);
+    person.setSymptom("Appendicitis", "PainLevel", 60, false);
+    person.setVitalSign(VitalSign.SYSTOLIC_BLOOD_PRESSURE, 140);
+
+    HealthRecord.Code mmse = new HealthRecord.Code("LOINC", "72107-6",
+        "Mini Mental State Examination");
+    person.record.observation(time, mmse.code, 29).codes.add(mmse);
+    person.attributes.put("Diabetes Test Performed",
+        person.record.observation(time, "Glucose Panel", "12345"));
+    person.record.conditionStart(time, "73211009");
+    HealthRecord.Code plan = new HealthRecord.Code("SNOMED-CT", "698360004",
+        "Diabetes self management plan");
+    CarePlan carePlan = person.record.careplanStart(time, plan.code);
+    carePlan.codes.add(plan);
+    person.attributes.put("Angina_CarePlan", carePlan);
+
+    person.history = new LinkedList<>();
+    for (String name : new String[] { "CarePlan", "DoctorVisit", "CarePlan" }) {
+      State state = new State.Simple();
+      state.name = name;
+      state.entered = state.exited = time - Utilities.convertTime("years", 1);
+      person.history.add(0, state);
+    }
+
+    JsonObject corpus;
+    try (JsonReader reader = new JsonReader(
+        new FileReader("src/test/resources/generic/logic.json"))) {
+      corpus = new JsonParser().parse(reader).getAsJsonObject();
+    }
+    List<Logic> loaded = new ArrayList<>();
+    for (Map.Entry<String, JsonElement> test : corpus.entrySet()) {
+      JsonObject definition = test.getValue().getAsJsonObject();
+      String type = definition.get("condition_type").getAsString().replaceAll("\\s", "");
+      if (!conditionType.equals("all") && !conditionType.equals(type)) {
+        continue;
+      }
+      Logic logic = Utilities.getGson().fromJson(definition, Logic.class);
+      logic.compile();
+      try {
+        logic.test(person, time);
+        loaded.add(logic);
+      } catch (RuntimeException e) {
+        // not applicable to this patient
+      }
+    }
+    conditions = loaded.toArray(new Logic[0]);
+  }
+
+  /**
+   * Test every selected condition once.
+   */
+  @Benchmark
+  public void test(Blackhole bh) {
+    for (Logic logic : conditions) {
+      bh.consume(logic.test(person, time));
+    }
+  }
+}
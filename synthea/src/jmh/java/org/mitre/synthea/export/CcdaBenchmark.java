@@ -0,0 +1,154 @@
+package org.mitre.synthea.export;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import freemarker.template.TemplateException;
+import org.mitre.synthea.engine.Generator;
+import org.mitre.synthea.helpers.Config;
+import org.mitre.synthea.world.agents.Person;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * CCDA documents written to a file per second, side by side: "string" renders each document to
+ * a String and then writes it, as the exporter used to, and "stream" renders it straight to a
+ * buffered file writer, as the exporter does now. The "patients" counter is the number of
+ * documents per second, and "peakHeapMb" the most heap in use at any point of the iteration,
+ * garbage included, so it shows the documents held in memory on top of everything else.
+ * Run with: gradle jmh -Pbenchmarks=CcdaBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx1g"})
+@State(Scope.Benchmark)
+public class CcdaBenchmark {
+
+  private static final int PEOPLE = 10;
+
+  @Param({"string", "stream"})
+  public String writer;
+
+  private List<Person> people;
+  private Path file;
+
+  /**
+   * Number of documents written, reported per second.
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  public static class Counters {
+    public long patients;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      patients = 0;
+    }
+  }
+
+  /**
+   * The most heap in use during the iteration, in MB.
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Memory {
+    public long peakHeapMb;
+
+    /**
+     * Start counting the peak heap use again.
+     */
+    @Setup(Level.Iteration)
+    public void reset() {
+      peakHeapMb = 0;
+      System.gc();
+      for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+        pool.resetPeakUsage();
+      }
+    }
+
+    private void recordPeak() {
+      long peak = 0;
+      for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+        if (pool.getType() == MemoryType.HEAP) {
+          peak += pool.getPeakUsage().getUsed();
+        }
+      }
+      peakHeapMb = Math.max(peakHeapMb, peak >> 20);
+    }
+  }
+
+  /**
+   * Generate the people to export, with every exporter switched off.
+   */
+  @Setup
+  public void setup() throws Exception {
+    File folder = Files.createTempDirectory("ccda").toFile();
+    folder.deleteOnExit();
+    Config.set("exporter.baseDirectory", folder.toString());
+    Config.set("generate.database_type", "none");
+    Config.set("exporter.fhir.export", "false");
+    Config.set("exporter.fhir_stu3.export", "false");
+    Config.set("exporter.fhir_dstu2.export", "false");
+    Config.set("exporter.ccda.export", "false");
+    Config.set("exporter.csv.export", "false");
+    Config.set("exporter.text.export", "false");
+    Config.set("exporter.parquet.export", "false");
+    Config.set("exporter.hospital.fhir.export", "false");
+    Config.set("exporter.practitioner.fhir.export", "false");
+    Config.set("exporter.cost_access_outcomes_report", "false");
+    ExportSettings.refresh();
+
+    Generator generator = new Generator(PEOPLE, 0L);
+    people = new ArrayList<>();
+    for (int i = 0; i < PEOPLE; i++) {
+      people.add(generator.generatePerson(i, i));
+    }
+    file = new File(folder, "ccda.xml").toPath();
+    file.toFile().deleteOnExit();
+  }
+
+  /**
+   * Export the document of every person, each over the last.
+   */
+  @Benchmark
+  public long writeDocuments(Counters counters, Memory memory)
+      throws IOException, TemplateException {
+    for (Person person : people) {
+      if (writer.equals("stream")) {
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+          CCDAExporter.export(person, System.currentTimeMillis(), out);
+        }
+      } else {
+        String ccdaXml = CCDAExporter.export(person, System.currentTimeMillis());
+        Files.write(file, Collections.singleton(ccdaXml));
+      }
+    }
+    counters.patients += people.size();
+    memory.recordPeak();
+    return Files.size(file);
+  }
+}
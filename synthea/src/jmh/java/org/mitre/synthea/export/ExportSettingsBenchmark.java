@@ -0,0 +1,99 @@
+package org.mitre.synthea.export;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.mitre.synthea.helpers.Config;
+import org.mitre.synthea.world.agents.Person;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Per-patient overhead of reading the export configuration, comparing the Config lookups
+ * that Exporter used to make for every patient with the cached ExportSettings snapshot.
+ * Run with: gradle jmh -Pbenchmarks=ExportSettingsBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExportSettingsBenchmark {
+
+  private static final String[] FLAGS = {
+      "exporter.fhir_stu3.export", "exporter.fhir_dstu2.export", "exporter.fhir.export",
+      "exporter.fhir.bulk_data", "exporter.ccda.export", "exporter.csv.export",
+      "exporter.parquet.export", "exporter.text.export", "exporter.text.per_encounter_export",
+      "exporter.cdw.export", "exporter.use_uuid_filenames"
+  };
+
+  private Person person;
+
+  /**
+   * Point the exporters at a scratch folder and create a person to "export".
+   */
+  @Setup
+  public void setup() throws Exception {
+    Config.set("exporter.baseDirectory",
+        Files.createTempDirectory("export-settings").toString());
+    Config.set("exporter.subfolders_by_id_substring", "true");
+    person = new Person(0L);
+    person.attributes.put(Person.ID, UUID.randomUUID().toString());
+    ExportSettings.refresh();
+  }
+
+  /**
+   * The configuration reads Exporter made per patient before ExportSettings:
+   * years_of_history twice, each export flag, and mkdirs for the output folder.
+   */
+  @Benchmark
+  public void configLookups(Blackhole bh) {
+    bh.consume(Integer.parseInt(Config.get("exporter.years_of_history")));
+    bh.consume(Integer.parseInt(Config.get("exporter.years_of_history")));
+    for (String flag : FLAGS) {
+      bh.consume(Boolean.parseBoolean(Config.get(flag)));
+    }
+    String id = (String) person.attributes.get(Person.ID);
+    boolean subfolders = Boolean.parseBoolean(Config.get("exporter.subfolders_by_id_substring"));
+    File f = subfolders
+        ? Paths.get(Config.get("exporter.baseDirectory"), "fhir", id.substring(0, 2),
+            id.substring(0, 3)).toFile()
+        : Paths.get(Config.get("exporter.baseDirectory"), "fhir").toFile();
+    f.mkdirs();
+    bh.consume(f);
+  }
+
+  /**
+   * The same reads using the cached ExportSettings snapshot.
+   */
+  @Benchmark
+  public void exportSettings(Blackhole bh) {
+    ExportSettings settings = ExportSettings.get();
+    bh.consume(settings.yearsOfHistory);
+    bh.consume(settings.fhirStu3);
+    bh.consume(settings.fhirDstu2);
+    bh.consume(settings.fhirR4);
+    bh.consume(settings.fhirBulkData);
+    bh.consume(settings.ccda);
+    bh.consume(settings.csv);
+    bh.consume(settings.parquet);
+    bh.consume(settings.text);
+    bh.consume(settings.textPerEncounter);
+    bh.consume(settings.cdw);
+    bh.consume(settings.useUuidFilenames);
+    bh.consume(Exporter.getOutputFolder("fhir", person));
+  }
+}
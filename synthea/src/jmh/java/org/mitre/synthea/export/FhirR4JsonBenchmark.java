@@ -0,0 +1,137 @@
+package org.mitre.synthea.export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.mitre.synthea.engine.Generator;
+import org.mitre.synthea.helpers.Config;
+import org.mitre.synthea.world.agents.Person;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * FHIR R4 bundles written per second, side by side: "string" builds the whole Bundle and a
+ * pretty printed String of it, as the exporter does by default, and "stream" writes the Bundle
+ * an encounter at a time (exporter.fhir.stream_json). The JSON is thrown away, only its size
+ * is counted. The "patients" counter is the number of bundles per second, and "allocated" the
+ * bytes allocated per second by the benchmark thread, so allocated / patients is the garbage
+ * each bundle leaves behind.
+ * Run with: gradle jmh -Pbenchmarks=FhirR4JsonBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FhirR4JsonBenchmark {
+
+  private static final int PEOPLE = 10;
+
+  @Param({"string", "stream"})
+  public String writer;
+
+  private List<Person> people;
+
+  /**
+   * Number of bundles written and bytes allocated, reported per second.
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  public static class Counters {
+    public long patients;
+    public long allocated;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      patients = 0;
+      allocated = 0;
+    }
+  }
+
+  /**
+   * Counts the bytes written to it, and drops them.
+   */
+  private static class CountingOutputStream extends OutputStream {
+    private long count;
+
+    @Override
+    public void write(int b) {
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      count += len;
+    }
+  }
+
+  /**
+   * Generate the people to write, with every exporter switched off.
+   */
+  @Setup
+  public void setup() throws Exception {
+    Config.set("exporter.baseDirectory", Files.createTempDirectory("fhir-json").toString());
+    Config.set("generate.database_type", "none");
+    Config.set("exporter.fhir.export", "false");
+    Config.set("exporter.fhir_stu3.export", "false");
+    Config.set("exporter.fhir_dstu2.export", "false");
+    Config.set("exporter.ccda.export", "false");
+    Config.set("exporter.csv.export", "false");
+    Config.set("exporter.text.export", "false");
+    Config.set("exporter.parquet.export", "false");
+    Config.set("exporter.hospital.fhir.export", "false");
+    Config.set("exporter.practitioner.fhir.export", "false");
+    Config.set("exporter.cost_access_outcomes_report", "false");
+    ExportSettings.refresh();
+
+    Generator generator = new Generator(PEOPLE, 0L);
+    people = new ArrayList<>();
+    for (int i = 0; i < PEOPLE; i++) {
+      people.add(generator.generatePerson(i, i));
+    }
+  }
+
+  private static long allocatedBytes() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+        .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  /**
+   * Write the bundle of every person.
+   */
+  @Benchmark
+  public long writeBundles(Counters counters) throws IOException {
+    long before = allocatedBytes();
+    long bytes = 0;
+    for (Person person : people) {
+      if (writer.equals("stream")) {
+        CountingOutputStream out = new CountingOutputStream();
+        FhirR4.convertToFHIRJson(person, 0L, out);
+        bytes += out.count;
+      } else {
+        bytes += FhirR4.convertToFHIRJson(person, 0L).getBytes(StandardCharsets.UTF_8).length;
+      }
+    }
+    counters.allocated += allocatedBytes() - before;
+    counters.patients += people.size();
+    return bytes;
+  }
+}
@@ -0,0 +1,106 @@
+package org.mitre.synthea.export;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.avro.generic.GenericData;
+import org.mitre.synthea.engine.Generator;
+import org.mitre.synthea.export.ParquetExporter.ExportEvents;
+import org.mitre.synthea.helpers.Config;
+import org.mitre.synthea.world.agents.Person;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parquet records built per second, without writing them. The "records" counter is the number
+ * of records per second per thread, so with the default single thread it is the rate of one core.
+ * Run with: gradle jmh -Pbenchmarks=ParquetRecordBenchmark
+ * and add e.g. "-t 4" to see how it scales across threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParquetRecordBenchmark {
+
+  private static final int PEOPLE = 20;
+
+  @Param({"string", "typed"})
+  public String schema;
+
+  private List<Person> people;
+  private ParquetRecordBuilder builder;
+
+  /**
+   * Number of records built, reported per second.
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  public static class Counters {
+    public long records;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      records = 0;
+    }
+  }
+
+  /**
+   * Generate the people to build records for, with every exporter switched off.
+   */
+  @Setup
+  public void setup() throws Exception {
+    Config.set("exporter.baseDirectory",
+        Files.createTempDirectory("parquet-records").toString());
+    Config.set("generate.database_type", "none");
+    Config.set("exporter.fhir.export", "false");
+    Config.set("exporter.fhir_stu3.export", "false");
+    Config.set("exporter.fhir_dstu2.export", "false");
+    Config.set("exporter.ccda.export", "false");
+    Config.set("exporter.csv.export", "false");
+    Config.set("exporter.text.export", "false");
+    Config.set("exporter.parquet.export", "false");
+    Config.set("exporter.hospital.fhir.export", "false");
+    Config.set("exporter.practitioner.fhir.export", "false");
+    Config.set("exporter.cost_access_outcomes_report", "false");
+    ExportSettings.refresh();
+
+    Generator generator = new Generator(PEOPLE, 0L);
+    people = new ArrayList<>();
+    for (int i = 0; i < PEOPLE; i++) {
+      people.add(generator.generatePerson(i, i));
+    }
+    boolean typed = schema.equals("typed");
+    builder = new ParquetRecordBuilder(ParquetExporter.loadSchemas(typed), typed);
+  }
+
+  /**
+   * Build the records of every person.
+   */
+  @Benchmark
+  public long buildRecords(Counters counters) {
+    long records = 0;
+    for (Person person : people) {
+      for (List<GenericData.Record> list : builder.buildRecords(person, 0L).values()) {
+        records += list.size();
+      }
+    }
+    counters.records += records;
+    return records;
+  }
+}
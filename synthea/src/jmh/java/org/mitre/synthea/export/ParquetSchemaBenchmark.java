@@ -0,0 +1,136 @@
+package org.mitre.synthea.export;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.hadoop.fs.Path;
+import org.mitre.synthea.engine.Generator;
+import org.mitre.synthea.export.ParquetExporter.ExportEvents;
+import org.mitre.synthea.helpers.Config;
+import org.mitre.synthea.helpers.ParquetWriter;
+import org.mitre.synthea.world.agents.Person;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Write throughput of the Parquet export with the string schemas and with the typed schemas
+ * (exporter.parquet.typed_schema). Each operation builds and writes the records of the same
+ * generated people, one file per event type. The size of each file is printed at the end.
+ * Run with: gradle jmh -Pbenchmarks=ParquetSchemaBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParquetSchemaBenchmark {
+
+  private static final int PEOPLE = 20;
+
+  @Param({"string", "typed"})
+  public String schema;
+
+  private List<Person> people;
+  private Map<ExportEvents, Schema> schemas;
+  private ParquetRecordBuilder builder;
+  private ParquetWriter.Options options;
+  private File folder;
+
+  /**
+   * Generate the people to export, with every exporter switched off.
+   */
+  @Setup
+  public void setup() throws Exception {
+    folder = Files.createTempDirectory("parquet-schema").toFile();
+    Config.set("exporter.baseDirectory", folder.toString());
+    Config.set("generate.database_type", "none");
+    Config.set("exporter.fhir.export", "false");
+    Config.set("exporter.fhir_stu3.export", "false");
+    Config.set("exporter.fhir_dstu2.export", "false");
+    Config.set("exporter.ccda.export", "false");
+    Config.set("exporter.csv.export", "false");
+    Config.set("exporter.text.export", "false");
+    Config.set("exporter.hospital.fhir.export", "false");
+    Config.set("exporter.practitioner.fhir.export", "false");
+    Config.set("exporter.cost_access_outcomes_report", "false");
+    // the Parquet settings are only read with the Parquet export on
+    Config.set("exporter.parquet.export", "true");
+    options = ExportSettings.refresh().parquetOptions;
+    Config.set("exporter.parquet.export", "false");
+
+    Generator generator = new Generator(PEOPLE, 0L);
+    people = new ArrayList<>();
+    for (int i = 0; i < PEOPLE; i++) {
+      people.add(generator.generatePerson(i, i));
+    }
+    boolean typed = schema.equals("typed");
+    schemas = ParquetExporter.loadSchemas(typed);
+    builder = new ParquetRecordBuilder(schemas, typed);
+  }
+
+  /**
+   * Build and write the records of every person.
+   * @return Number of records written
+   */
+  @Benchmark
+  public long writeAll() throws Exception {
+    long rows = 0;
+    Map<ExportEvents, List<GenericData.Record>> records = new EnumMap<>(ExportEvents.class);
+    for (ExportEvents eventType : ExportEvents.values()) {
+      records.put(eventType, new ArrayList<>());
+    }
+    for (Person person : people) {
+      for (Map.Entry<ExportEvents, List<GenericData.Record>> entry
+          : builder.buildRecords(person, 0L).entrySet()) {
+        records.get(entry.getKey()).addAll(entry.getValue());
+      }
+    }
+    for (ExportEvents eventType : ExportEvents.values()) {
+      try (org.apache.parquet.hadoop.ParquetWriter<GenericData.Record> writer =
+          ParquetWriter.open(path(eventType), schemas.get(eventType), options)) {
+        for (GenericData.Record record : records.get(eventType)) {
+          writer.write(record);
+        }
+      }
+      rows += records.get(eventType).size();
+    }
+    return rows;
+  }
+
+  /**
+   * Print the size of each file written by the last operation.
+   */
+  @TearDown
+  public void tearDown() {
+    long total = 0;
+    System.out.println();
+    for (ExportEvents eventType : ExportEvents.values()) {
+      long size = new File(path(eventType).toString()).length();
+      total += size;
+      System.out.println(schema + " " + eventType + ": " + size + " bytes");
+    }
+    System.out.println(schema + " total: " + total + " bytes");
+  }
+
+  private Path path(ExportEvents eventType) {
+    return new Path(new File(folder, schema + "-" + eventType + ".parquet").getPath());
+  }
+}
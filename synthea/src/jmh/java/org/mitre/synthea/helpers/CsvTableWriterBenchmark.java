@@ -0,0 +1,124 @@
+package org.mitre.synthea.helpers;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Patients' worth of CSV rows written per second, by 1, 8 and 32 threads at once, to 15 tables
+ * with roughly the number of rows a patient adds to each of CSVExporter's tables. "filewriter"
+ * is how CSVExporter used to write: a shared FileWriter per table, locked for every row and
+ * every table flushed after every patient. "buffered" is a CsvTableWriter with a buffer per
+ * thread, and "sharded" also gives every thread a file of its own.
+ * Run with: gradle jmh -Pbenchmarks=CsvTableWriterBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CsvTableWriterBenchmark {
+
+  /** Rows per patient in each table. */
+  private static final int[] ROWS = {1, 40, 10, 2, 20, 3, 150, 15, 10, 1, 30, 0, 0, 60, 0};
+  private static final String ROW = "1b2e4c0a-6b1f-4c4e-9d3a-2f1e5b7c9d0e,"
+      + "7d9f1a3b-5c2e-4e6a-8b0c-1d3f5a7b9c1e,Body Height,vital-signs,2019-01-01,"
+      + "172.4,cm,8302-2,Body Height,http://loinc.org" + System.lineSeparator();
+
+  @Param({"filewriter", "buffered", "sharded"})
+  public String writer;
+
+  private File folder;
+  private FileWriter[] fileWriters;
+  private CsvTableWriter[] tables;
+
+  /**
+   * Start new tables for every iteration, so the files don't grow for the whole run.
+   */
+  @Setup(Level.Iteration)
+  public void setup() throws IOException {
+    folder = Files.createTempDirectory("csv-writer").toFile();
+    fileWriters = new FileWriter[ROWS.length];
+    tables = new CsvTableWriter[ROWS.length];
+    for (int t = 0; t < ROWS.length; t++) {
+      File file = new File(folder, "table" + t + ".csv");
+      if (writer.equals("filewriter")) {
+        fileWriters[t] = new FileWriter(file);
+      } else {
+        tables[t] = new CsvTableWriter(file, "person_id,encounter_id,name,type,start,value,"
+            + "unit,code,display,system", 65536, true, writer.equals("sharded"), true);
+      }
+    }
+  }
+
+  /**
+   * Finish the tables (merging the shards is part of the cost) and delete them.
+   */
+  @TearDown(Level.Iteration)
+  public void tearDown() throws IOException {
+    for (int t = 0; t < ROWS.length; t++) {
+      if (fileWriters[t] != null) {
+        fileWriters[t].close();
+      } else {
+        tables[t].close();
+      }
+    }
+    FileUtils.deleteDirectory(folder);
+  }
+
+  private void writePatient() throws IOException {
+    for (int t = 0; t < ROWS.length; t++) {
+      if (fileWriters[t] != null) {
+        for (int i = 0; i < ROWS[t]; i++) {
+          Utilities.writeLine(ROW, fileWriters[t]);
+        }
+      } else {
+        for (int i = 0; i < ROWS[t]; i++) {
+          tables[t].write(ROW);
+        }
+      }
+    }
+    if (fileWriters[0] != null) {
+      for (FileWriter fileWriter : fileWriters) {
+        fileWriter.flush();
+      }
+    }
+  }
+
+  @Benchmark
+  @Threads(1)
+  public void threads01() throws IOException {
+    writePatient();
+  }
+
+  @Benchmark
+  @Threads(8)
+  public void threads08() throws IOException {
+    writePatient();
+  }
+
+  @Benchmark
+  @Threads(32)
+  public void threads32() throws IOException {
+    writePatient();
+  }
+}
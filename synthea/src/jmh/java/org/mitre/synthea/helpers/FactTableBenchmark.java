@@ -0,0 +1,143 @@
+package org.mitre.synthea.helpers;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Patients' worth of fact lookups per second, by 1, 8 and 32 threads at once, against 21 fact
+ * tables with roughly the number of distinct keys, and the number of lookups per patient, of
+ * CDWExporter's tables. Nearly every lookup finds a key that is already in its table, as it does
+ * once a run is under way. "static-lock" is how FactTable used to work, with every table behind
+ * one lock, and "concurrent" is the current FactTable.
+ * Run with: gradle jmh -Pbenchmarks=FactTableBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FactTableBenchmark {
+
+  /** Distinct keys in each table, e.g. sta3n holds a key per provider, loinc one per code. */
+  private static final int[] KEYS = {
+      400, 4, 400, 400, 60, 40, 800, 300, 300, 20, 300, 200, 1, 1, 200, 400, 200, 400, 400,
+      600, 10};
+  /** Lookups per patient in each table. */
+  private static final int[] LOOKUPS = {
+      0, 1, 60, 30, 15, 2, 20, 10, 10, 10, 10, 15, 25, 15, 15, 60, 15, 15, 75, 25, 40};
+  /** Chance in a thousand that a lookup is for a key the table hasn't seen yet. */
+  private static final int NEW_KEYS = 2;
+
+  /** The FactTable that guarded every table with one static lock. */
+  private static class LockedFactTable {
+    private static final Object LOCK = new Object();
+    private final AtomicInteger id = new AtomicInteger(1);
+    private final Map<String, Integer> keys = new HashMap<>();
+    private final Map<Integer, String> facts = new TreeMap<>();
+
+    int addFact(String key, String fact) {
+      synchronized (LOCK) {
+        if (keys.containsKey(key)) {
+          return keys.get(key);
+        }
+        int next = id.getAndIncrement();
+        keys.put(key, next);
+        facts.put(next, fact);
+        return next;
+      }
+    }
+  }
+
+  @Param({"static-lock", "concurrent"})
+  public String table;
+
+  private String[][] keys;
+  private String[][] facts;
+  private LockedFactTable[] lockedTables;
+  private FactTable[] tables;
+  private final AtomicInteger newKeys = new AtomicInteger();
+
+  /**
+   * Start with every table holding its usual keys, so the iteration measures a run under way.
+   */
+  @Setup(Level.Iteration)
+  public void setup() {
+    keys = new String[KEYS.length][];
+    facts = new String[KEYS.length][];
+    lockedTables = new LockedFactTable[KEYS.length];
+    tables = new FactTable[KEYS.length];
+    for (int t = 0; t < KEYS.length; t++) {
+      keys[t] = new String[KEYS[t]];
+      facts[t] = new String[KEYS[t]];
+      lockedTables[t] = new LockedFactTable();
+      tables[t] = new FactTable();
+      for (int k = 0; k < KEYS[t]; k++) {
+        keys[t][k] = "b1c0d2e4-" + t + "-" + k;
+        facts[t][k] = "Hospital Of The Table " + t + " Key " + k + ",America/New_York";
+        lockedTables[t].addFact(keys[t][k], facts[t][k]);
+        tables[t].addFact(keys[t][k], facts[t][k]);
+      }
+    }
+  }
+
+  private int addFact(int t, String key, String fact) {
+    if (table.equals("concurrent")) {
+      return tables[t].addFact(key, fact);
+    }
+    return lockedTables[t].addFact(key, fact);
+  }
+
+  private int exportPatient() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    int sum = 0;
+    for (int t = 0; t < KEYS.length; t++) {
+      for (int i = 0; i < LOOKUPS[t]; i++) {
+        if (random.nextInt(1000) < NEW_KEYS) {
+          String key = "new-" + newKeys.getAndIncrement();
+          sum += addFact(t, key, key);
+        } else {
+          int k = random.nextInt(KEYS[t]);
+          sum += addFact(t, keys[t][k], facts[t][k]);
+        }
+      }
+    }
+    return sum;
+  }
+
+  @Benchmark
+  @Threads(1)
+  public int threads01() {
+    return exportPatient();
+  }
+
+  @Benchmark
+  @Threads(8)
+  public int threads08() {
+    return exportPatient();
+  }
+
+  @Benchmark
+  @Threads(32)
+  public int threads32() {
+    return exportPatient();
+  }
+}
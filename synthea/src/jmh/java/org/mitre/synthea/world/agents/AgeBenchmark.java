@@ -0,0 +1,70 @@
+package org.mitre.synthea.world.agents;
+
+import java.util.concurrent.TimeUnit;
+
+import org.mitre.synthea.helpers.Utilities;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of a patient's age at a time step, comparing the Period based calculation
+ * (Person.age) that ageInYears and ageInMonths used to make with the cached epoch day
+ * arithmetic they use now. Each call advances the time by a week, like the simulation.
+ * Run with: gradle jmh -Pbenchmarks=AgeBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AgeBenchmark {
+
+  private static final long WEEK = Utilities.convertTime("weeks", 1);
+
+  private Person person;
+  private long birthdate;
+  private long time;
+
+  /**
+   * Create a patient born in 1950.
+   */
+  @Setup
+  public void setup() {
+    birthdate = Utilities.convertCalendarYearsToTime(1950);
+    person = new Person(0L);
+    person.attributes.put(Person.BIRTHDATE, birthdate);
+    time = birthdate;
+  }
+
+  private long nextTime() {
+    time += WEEK;
+    if (time > birthdate + 100 * 52 * WEEK) {
+      time = birthdate;
+    }
+    return time;
+  }
+
+  @Benchmark
+  public void periodAgeInYearsAndMonths(Blackhole bh) {
+    long now = nextTime();
+    bh.consume(Math.max(0, person.age(now).getYears()));
+    bh.consume(Math.max(0, person.age(now).toTotalMonths()));
+  }
+
+  @Benchmark
+  public void ageInYearsAndMonths(Blackhole bh) {
+    long now = nextTime();
+    bh.consume(person.ageInYears(now));
+    bh.consume(person.ageInMonths(now));
+  }
+}
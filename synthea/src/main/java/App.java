@@ -18,8 +18,8 @@ public class App {
     System.out.println("Usage: run_synthea [options] [state [city]]");
     System.out.println("Options: [-s seed] [-cs clinicianSeed] [-p populationSize]");
     System.out.println("         [-g gender] [-a minAge-maxAge]");
-    System.out.println("         [-o overflowPopulation]");
-    System.out.println("         [-m moduleFileWildcardList]");
+    System.out.println("         [-o overflowPopulation] [-i firstPersonIndex]");
+    System.out.println("         [-m moduleFileWildcardList] [--resume]");
     System.out.println("         [--config* value]");
     System.out.println("          * any setting from src/main/resources/synthea.properties");
     System.out.println("Examples:");
@@ -31,6 +31,9 @@ public class App {
     System.out.println("run_synthea -s 21 -p 100 Utah \"Salt Lake City\"");
     System.out.println("run_synthea -g M -a 60-65");
     System.out.println("run_synthea -p 10 --exporter.fhir.export true");
+    System.out.println("run_synthea -s 42 -i 1000 -p 1000 --generate.deterministic true");
+    System.out.println("run_synthea -s 42 -p 1000000 --exporter.parquet.commit_interval 10000"
+            + " --resume");
     System.out.println("run_synthea -m moduleFilename" + File.pathSeparator + "anotherModule"
             + File.pathSeparator + "module*");
     System.out.println("run_synthea --exporter.baseDirectory \"./output_tx/\" Texas");
@@ -64,6 +67,9 @@ public class App {
           } else if (currArg.equalsIgnoreCase("-p")) {
             String value = argsQ.poll();
             options.population = Integer.parseInt(value);
+          } else if (currArg.equalsIgnoreCase("-i")) {
+            String value = argsQ.poll();
+            options.firstIndex = Integer.parseInt(value);
           } else if (currArg.equalsIgnoreCase("-o")) {
             String value = argsQ.poll();
             options.overflow = Boolean.parseBoolean(value);
@@ -88,6 +94,8 @@ public class App {
             String value = argsQ.poll();
             String[] values = value.split(File.pathSeparator);
             options.enabledModules = Arrays.asList(values);
+          } else if (currArg.equalsIgnoreCase("--resume")) {
+            options.resume = true;
           } else if (currArg.startsWith("--")) {
             String configSetting;
             String value;
@@ -1,11 +1,37 @@
 package org.mitre.synthea.engine;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class EventList {
-  private List<Event> events = new ArrayList<Event>();
+  private List<Listed> events = new ArrayList<Listed>();
+  /** The same events, grouped by type, each list in the order the events were created. */
+  private Map<String, List<Listed>> eventsByType = new HashMap<String, List<Listed>>();
   private final Object lock = new Object();
+  /** The latest time of all the events created so far. */
+  private long latest = Long.MIN_VALUE;
+  /** The first birth event, checked every time step, so kept outside of the lock. */
+  private volatile Event birth;
+  /** The first death event created, checked every time step, so kept outside of the lock. */
+  private volatile Listed firstDeath;
+
+  /**
+   * An event and the earliest cutoff at which before() returns it. Scans for events before a
+   * cutoff stop at the first event, in the order they were created, that is later than the
+   * cutoff, so an event is only returned once every event created before it is returned too.
+   */
+  private static final class Listed {
+    private final Event event;
+    private final long visibleFrom;
+
+    private Listed(Event event, long visibleFrom) {
+      this.event = event;
+      this.visibleFrom = visibleFrom;
+    }
+  }
 
   /**
    * Get the last event of the given type.
@@ -15,17 +41,13 @@ public class EventList {
    * @return the last Event of the given type.
    */
   public Event event(String type) {
-    Event retVal = null;
     synchronized (lock) {
-      for (int i = events.size() - 1; i >= 0; i--) {
-        Event event = events.get(i);
-        if (event.type.equals(type)) {
-          retVal = event;
-          break;
-        }
+      List<Listed> typed = eventsByType.get(type);
+      if (typed == null) {
+        return null;
       }
+      return typed.get(typed.size() - 1).event;
     }
-    return retVal;
   }
 
   /**
@@ -39,10 +61,32 @@ public class EventList {
   public void create(long time, String type, String rule, boolean processed) {
     Event event = new Event(time, type, rule, processed);
     synchronized (lock) {
-      events.add(event);
+      latest = Math.max(latest, time);
+      Listed listed = new Listed(event, latest);
+      events.add(listed);
+      eventsByType.computeIfAbsent(type, t -> new ArrayList<Listed>(1)).add(listed);
+      if (birth == null && type.equals(Event.BIRTH)) {
+        birth = event;
+      } else if (firstDeath == null && type.equals(Event.DEATH)) {
+        firstDeath = listed;
+      }
     }
   }
 
+  /**
+   * Whether the person has been born and before(time, Event.DEATH) is empty. This is checked
+   * every time step, so it does not take the lock or scan the events: the first death created
+   * is the first one before() returns.
+   * 
+   * @param time
+   *          : the time to check
+   * @return true if there is a birth event and no death event before the time.
+   */
+  public boolean alive(long time) {
+    Listed death = firstDeath;
+    return birth != null && (death == null || death.visibleFrom > time);
+  }
+
   /**
    * Get all events before the given time.
    * 
@@ -53,12 +97,11 @@ public class EventList {
   public List<Event> before(long time) {
     List<Event> retVal = new ArrayList<Event>();
     synchronized (lock) {
-      for (Event event : events) {
-        if (event.time <= time) {
-          retVal.add(event);
-        } else if (event.time > time) {
+      for (Listed listed : events) {
+        if (listed.visibleFrom > time) {
           break;
         }
+        retVal.add(listed.event);
       }
     }
     return retVal;
@@ -74,17 +117,22 @@ public class EventList {
    * @return non-null list of events before the cutoff date.
    */
   public List<Event> before(long time, String type) {
-    List<Event> retVal = new ArrayList<Event>();
+    List<Event> retVal = null;
     synchronized (lock) {
-      for (Event event : events) {
-        if (event.type.equals(type) && event.time <= time) {
-          retVal.add(event);
-        } else if (event.time > time) {
-          break;
+      List<Listed> typed = eventsByType.get(type);
+      if (typed != null) {
+        for (Listed listed : typed) {
+          if (listed.visibleFrom > time) {
+            break;
+          }
+          if (retVal == null) {
+            retVal = new ArrayList<Event>(typed.size());
+          }
+          retVal.add(listed.event);
         }
       }
     }
-    return retVal;
+    return retVal == null ? Collections.emptyList() : retVal;
   }
 
   /**
@@ -97,9 +145,9 @@ public class EventList {
   public List<Event> after(long time) {
     List<Event> retVal = new ArrayList<Event>();
     synchronized (lock) {
-      for (Event event : events) {
-        if (event.time >= time) {
-          retVal.add(event);
+      for (Listed listed : events) {
+        if (listed.event.time >= time) {
+          retVal.add(listed.event);
         }
       }
     }
@@ -116,15 +164,21 @@ public class EventList {
    * @return non-null list of events after the cutoff date.
    */
   public List<Event> after(long time, String type) {
-    List<Event> retVal = new ArrayList<Event>();
+    List<Event> retVal = null;
     synchronized (lock) {
-      for (Event event : events) {
-        if (event.time >= time && event.type.equals(type)) {
-          retVal.add(event);
+      List<Listed> typed = eventsByType.get(type);
+      if (typed != null) {
+        for (Listed listed : typed) {
+          if (listed.event.time >= time) {
+            if (retVal == null) {
+              retVal = new ArrayList<Event>(typed.size());
+            }
+            retVal.add(listed.event);
+          }
         }
       }
     }
-    return retVal;
+    return retVal == null ? Collections.emptyList() : retVal;
   }
 
   public String toString() {
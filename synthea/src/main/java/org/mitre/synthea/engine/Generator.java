@@ -1,17 +1,28 @@
 package org.mitre.synthea.engine;
 
 import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
@@ -20,7 +31,12 @@ import org.apache.commons.io.IOCase;
 import org.apache.commons.io.filefilter.WildcardFileFilter;
 import org.mitre.synthea.datastore.DataStore;
 import org.mitre.synthea.export.CDWExporter;
+import org.mitre.synthea.export.ExportPipeline;
+import org.mitre.synthea.export.ExportSequencer;
+import org.mitre.synthea.export.ExportSettings;
+import org.mitre.synthea.export.ExportStats;
 import org.mitre.synthea.export.Exporter;
+import org.mitre.synthea.export.ParquetExporter;
 import org.mitre.synthea.helpers.Config;
 import org.mitre.synthea.helpers.TransitionMetrics;
 import org.mitre.synthea.helpers.ValueStore;
@@ -47,11 +63,19 @@ public class Generator {
   public long timestep;
   public long stop;
   public Map<String, AtomicInteger> stats;
+  /** The number of exports that threw an exception in the last run. */
+  public long exportFailures;
   public Location location;
   private AtomicInteger totalGeneratedPopulation;
   private String logLevel;
   private boolean onlyDeadPatients;
   private boolean onlyVeterans;
+  /** When set, finished people are handed off to exporter threads instead of exported inline. */
+  private ExportPipeline exportPipeline;
+  private ExportSequencer exportSequencer;
+  /** Exports that threw when run inline, the pipeline and the sequencer count their own. */
+  private final AtomicLong inlineExportFailures = new AtomicLong();
+  private boolean deterministic;
   public TransitionMetrics metrics;
   public static final String DEFAULT_STATE = "Massachusetts";
 
@@ -92,6 +116,13 @@ public class Generator {
     public String city;
     public String state;
     public List<String> enabledModules;
+    /** Index of the first person to generate, so a large population can be generated in
+     * shards. Each shard generates the same people (for the same seed) as that range of
+     * indexes in one big run. */
+    public int firstIndex = 0;
+    /** Skip the people an earlier, interrupted run with the same seed already committed to
+     * the Parquet export. Needs exporter.parquet.commit_interval above 0. */
+    public boolean resume = false;
   }
   
   /**
@@ -181,13 +212,16 @@ public class Generator {
     this.options = o;
     this.random = new Random(o.seed);
     this.timestep = Long.parseLong(Config.get("generate.timestep"));
-    this.stop = System.currentTimeMillis();
+    this.stop = endTime();
 
     this.location = new Location(o.state, o.city);
 
     this.logLevel = Config.get("generate.log_patients.detail", "simple");
     this.onlyDeadPatients = Boolean.parseBoolean(Config.get("generate.only_dead_patients"));
     this.onlyVeterans = Boolean.parseBoolean(Config.get("generate.veteran_population_override"));
+    // parse the export settings once, rather than for every patient
+    ExportSettings.refresh();
+    this.deterministic = ExportSettings.get().deterministic;
     this.totalGeneratedPopulation = new AtomicInteger(0);
     this.stats = Collections.synchronizedMap(new HashMap<String, AtomicInteger>());
     this.modulePredicate = getModulePredicate();
@@ -247,26 +281,121 @@ public class Generator {
   * Generate the population, using the currently set configuration settings.
   */
   public void run() {
-    int nProcessors = (int)(Runtime.getRuntime().availableProcessors() * 0.9);
+    int nProcessors = Math.max(1, (int)(Runtime.getRuntime().availableProcessors() * 0.9));
     ExecutorService threadPool = Executors.newFixedThreadPool(nProcessors);
     System.out.println("JVM Threads: " + nProcessors);
     /* ExecutorService threadPool = Executors.newFixedThreadPool(86); */
 
-    System.out.println("Building thread pool");
-    for (int i = 0; i < this.options.population; i++) {
-      final int index = i;
-      final long seed = this.random.nextLong();
-      threadPool.execute(() -> generatePerson(index, seed));
+    ExportStats.reset();
+    // with resumable Parquet files, the population is generated in chunks and each chunk is
+    // committed once every person in it has been exported
+    ParquetExporter committer = null;
+    BitSet committed = new BitSet();
+    if (ExportSettings.get().parquet && ParquetExporter.getInstance().isResumable()) {
+      committer = ParquetExporter.getInstance();
+      try {
+        BitSet recovered = committer.recover(this.options.seed);
+        if (this.options.resume) {
+          committed = recovered;
+          System.out.println("Resuming, " + committed.cardinality()
+              + " people already committed");
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    } else if (this.options.resume) {
+      System.out.println("Nothing to resume from, --resume needs the Parquet export with "
+          + "exporter.parquet.commit_interval above 0");
     }
-    System.out.println("Thread pool built");
-    try {
-      threadPool.shutdown();
-      while (!threadPool.awaitTermination(30, TimeUnit.SECONDS)) {
-        System.out.println("Waiting for threads to finish... " + threadPool);
+    if (deterministic) {
+      // export in index order, so ids and file contents don't depend on thread scheduling
+      exportSequencer = new ExportSequencer(this.options.firstIndex, nProcessors * 4,
+          (index, person, time) -> {
+            if (exportPipeline != null) {
+              exportPipeline.submit(index, person, time);
+            } else {
+              Exporter.export(person, time);
+            }
+          });
+    }
+
+    // skip the seeds of the people before the first index, so a shard of the population
+    // gets the same people as the same indexes of a single run
+    for (int i = 0; i < this.options.firstIndex; i++) {
+      this.random.nextLong();
+    }
+
+    System.out.println("Building thread pool");
+    int endIndex = this.options.firstIndex + this.options.population;
+    int chunkSize = committer != null
+        ? ExportSettings.get().parquetCommitInterval : this.options.population;
+    Set<Integer> failed = ConcurrentHashMap.newKeySet();
+    exportFailures = 0;
+    inlineExportFailures.set(0);
+    for (int chunkStart = this.options.firstIndex; chunkStart < endIndex;
+        chunkStart += chunkSize) {
+      int chunkEnd = (int) Math.min(endIndex, (long) chunkStart + chunkSize);
+      if (ExportPipeline.isEnabled()) {
+        exportPipeline = new ExportPipeline();
+      }
+      CountDownLatch finished = new CountDownLatch(
+          chunkEnd - chunkStart - committed.get(chunkStart, chunkEnd).cardinality());
+      for (int i = chunkStart; i < chunkEnd; i++) {
+        final int index = i;
+        // people that are already committed still use up their seed
+        final long seed = this.random.nextLong();
+        if (committed.get(index)) {
+          if (exportSequencer != null) {
+            exportSequencer.complete(index);
+          }
+          continue;
+        }
+        threadPool.execute(() -> {
+          try {
+            generatePerson(index, seed);
+          } catch (Throwable e) {
+            failed.add(index);
+          } finally {
+            finished.countDown();
+          }
+        });
+      }
+      try {
+        while (!finished.await(30, TimeUnit.SECONDS)) {
+          System.out.println("Waiting for threads to finish... " + threadPool);
+        }
+      } catch (InterruptedException e) {
+        e.printStackTrace();
+      }
+
+      if (exportPipeline != null) {
+        // every person must be exported before the post completion exports run
+        exportPipeline.close();
+        exportFailures += exportPipeline.getFailed();
+        failed.addAll(exportPipeline.getFailedIndexes());
+        exportPipeline = null;
+      }
+      if (exportSequencer != null) {
+        failed.addAll(exportSequencer.getFailedIndexes());
+      }
+      if (committer != null) {
+        BitSet indexes = new BitSet();
+        indexes.set(chunkStart, chunkEnd);
+        indexes.andNot(committed);
+        failed.forEach(indexes::clear);
+        try {
+          committer.commit(this.options.seed, indexes);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
       }
-    } catch (InterruptedException e) {
-      e.printStackTrace();
     }
+    threadPool.shutdown();
+    if (exportSequencer != null) {
+      exportFailures += exportSequencer.getFailedIndexes().size();
+    }
+    exportSequencer = null;
+    exportFailures += inlineExportFailures.get();
 
     // have to store providers at the end to correctly capture utilization #s
     // TODO - de-dup hospitals if using a file-based database?
@@ -277,6 +406,11 @@ public class Generator {
     Exporter.runPostCompletionExports(this);
 
     System.out.println(stats);
+    System.out.println("Records exported: " + ExportStats.summary());
+    if (exportFailures > 0) {
+      System.err.println("WARNING: " + exportFailures + " exports failed, so those records are "
+          + "missing from the output. See the errors above.");
+    }
 
     if (this.metrics != null) {
       metrics.printStats(totalGeneratedPopulation.get(), Module.getModules(getModulePredicate()));
@@ -408,7 +542,18 @@ public class Generator {
 
         // TODO - export is DESTRUCTIVE when it filters out data
         // this means export must be the LAST THING done with the person
-        Exporter.export(person, time);
+        if (exportSequencer != null) {
+          exportSequencer.add(index, person, time);
+        } else if (exportPipeline != null) {
+          exportPipeline.submit(index, person, time);
+        } else {
+          try {
+            Exporter.export(person, time);
+          } catch (RuntimeException e) {
+            inlineExportFailures.incrementAndGet();
+            throw e;
+          }
+        }
       } while ((!isAlive && !onlyDeadPatients) || (isAlive && onlyDeadPatients));
       // if the patient is alive and we want only dead ones => loop & try again
       //  (and dont even export, see above)
@@ -420,6 +565,11 @@ public class Generator {
       // lots of fhir things throw errors for some reason
       e.printStackTrace();
       throw e;
+    } finally {
+      if (exportSequencer != null) {
+        // even if this person failed, later indexes must not wait on it forever
+        exportSequencer.complete(index);
+      }
     }
     return person;
   }
@@ -553,6 +703,22 @@ public class Generator {
         (long) (earliestBirthdate + ((latestBirthdate - earliestBirthdate) * random.nextDouble()));
   }
 
+  /**
+   * The time the simulation ends: midnight UTC at the start of "generate.end_date"
+   * (yyyy-MM-dd) if it is set, otherwise now. In deterministic mode the output must not depend
+   * on when it runs to the millisecond, so without an end date it is the start of today (UTC).
+   */
+  private static long endTime() {
+    String endDate = Config.get("generate.end_date", "").trim();
+    if (!endDate.isEmpty()) {
+      return LocalDate.parse(endDate).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+    }
+    if (ExportSettings.get().deterministic) {
+      return Instant.now().truncatedTo(ChronoUnit.DAYS).toEpochMilli();
+    }
+    return System.currentTimeMillis();
+  }
+
   private Predicate<String> getModulePredicate() {
     if (options.enabledModules == null) {
       return path -> true;
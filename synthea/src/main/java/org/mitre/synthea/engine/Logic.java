@@ -1,5 +1,7 @@
 package org.mitre.synthea.engine;
 
+import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.List;
@@ -21,10 +23,25 @@ import org.mitre.synthea.world.concepts.HealthRecord.Medication;
  * expression. This class is stateless, and calling 'test' on an instance
  * must not modify state as instances of Logic within Modules are shared
  * across the population.
+ *
+ * <p>Once an instance has been deserialized, its owner calls {@link #compile()} to turn it into
+ * a form that is cheap to test repeatedly: operators and units are resolved, constant
+ * thresholds are computed, and grouped conditions are flattened into arrays that are tested
+ * without allocating. For the logic in a module, that happens when the module is loaded.
  */
 public abstract class Logic {
+  private static final long DAY = 24L * 60L * 60L * 1000L;
+
   public List<String> remarks;
 
+  /**
+   * Prepare this logic, and any logic nested in it, to be tested. Called once after
+   * deserialization, before the first test. This must only depend on the definition, not on
+   * any person.
+   */
+  public void compile() {
+  }
+
   /**
    * Test whether the logic is true for the given person at the given time.
    * 
@@ -45,6 +62,9 @@ public abstract class Logic {
   @SuppressWarnings("unchecked")
   private static <T extends HealthRecord.Entry> HealthRecord.Entry findEntryFromHistory(
       Person person, Class<T> classType, Code code) {
+    if (person.history instanceof StateHistory) {
+      return ((StateHistory) person.history).findEntry(classType, code);
+    }
     // Find the most recent health record entry from the patient history
     HealthRecord.Entry entry = null;
     for (State state : person.history) {
@@ -75,6 +95,64 @@ public abstract class Logic {
       return gender.equals(person.attributes.get(Person.GENDER));
     }
   }
+
+  /**
+   * A comparison operator resolved from its name, to compare numbers without a string switch
+   * or boxing. Unknown operators fall back to {@link Utilities#compare(Double, Double, String)}
+   * so they are reported the same way.
+   */
+  enum Comparison {
+    LT, LTE, EQ, GTE, GT, NE, NIL, NOT_NIL, OTHER;
+
+    static Comparison of(String operator) {
+      if (operator == null) {
+        return OTHER;
+      }
+      switch (operator) {
+        case "<":
+          return LT;
+        case "<=":
+          return LTE;
+        case "==":
+          return EQ;
+        case ">=":
+          return GTE;
+        case ">":
+          return GT;
+        case "!=":
+          return NE;
+        case "is nil":
+          return NIL;
+        case "is not nil":
+          return NOT_NIL;
+        default:
+          return OTHER;
+      }
+    }
+
+    boolean compare(double lhs, double rhs, String operator) {
+      switch (this) {
+        case LT:
+          return lhs < rhs;
+        case LTE:
+          return lhs <= rhs;
+        case EQ:
+          return lhs == rhs;
+        case GTE:
+          return lhs >= rhs;
+        case GT:
+          return lhs > rhs;
+        case NE:
+          return lhs != rhs;
+        case NIL:
+          return false;
+        case NOT_NIL:
+          return true;
+        default:
+          return Utilities.compare((Double) lhs, (Double) rhs, operator);
+      }
+    }
+  }
   
   /**
    * The Age condition type tests the patient's age, in a given unit. 
@@ -85,24 +163,30 @@ public abstract class Logic {
     private String unit;
     private String operator;
 
+    private transient boolean months;
+    private transient Comparison comparison;
+
+    @Override
+    public void compile() {
+      months = "months".equals(unit);
+      comparison = Comparison.of(operator);
+    }
+
     @Override
     public boolean test(Person person, long time) {
       double age;
 
-      switch (unit) {
-        case "years":
-          age = person.ageInYears(time);
-          break;
-        case "months":
-          age = person.ageInMonths(time);
-          break;
-        default:
-          // TODO - add more unit types if we determine they are necessary
-          throw new UnsupportedOperationException("Units '" + unit
-            + "' not currently supported in Age logic.");
+      if (months) {
+        age = person.ageInMonths(time);
+      } else if ("years".equals(unit)) {
+        age = person.ageInYears(time);
+      } else {
+        // TODO - add more unit types if we determine they are necessary
+        throw new UnsupportedOperationException("Units '" + unit
+          + "' not currently supported in Age logic.");
       }
 
-      return Utilities.compare(age, quantity, operator);
+      return comparison.compare(age, quantity, operator);
     }
   }
   
@@ -118,14 +202,82 @@ public abstract class Logic {
     private DateInput date;
     private String operator;
 
+    private transient Comparison comparison;
+    /**
+     * For a year, or a date, the test is true when lower <= time < upper (or false, if
+     * `outside` is set), so no calendar is needed to test it.
+     */
+    private transient boolean precomputed;
+    private transient long lower;
+    private transient long upper;
+    private transient boolean outside;
+
     @Override
-    public boolean test(Person person, long time) {
+    public void compile() {
+      comparison = Comparison.of(operator);
       if (year != null) {
+        precompute(startOfYear(year), startOfYear(year + 1));
+      } else if (month == null && date != null) {
+        Calendar testDate = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        testDate.set(date.year, date.month - 1, date.day, date.hour, date.minute, date.second);
+        testDate.set(Calendar.MILLISECOND,date.millisecond);
+        long testTime = testDate.getTimeInMillis();
+        precompute(testTime, testTime + 1);
+      }
+    }
+
+    /**
+     * Turn the comparison into a range of times, given the range of times that are "equal" to
+     * the value being compared.
+     */
+    private void precompute(long start, long end) {
+      precomputed = true;
+      outside = false;
+      switch (comparison) {
+        case LT:
+          lower = Long.MIN_VALUE;
+          upper = start;
+          break;
+        case LTE:
+          lower = Long.MIN_VALUE;
+          upper = end;
+          break;
+        case EQ:
+          lower = start;
+          upper = end;
+          break;
+        case GTE:
+          lower = start;
+          upper = Long.MAX_VALUE;
+          break;
+        case GT:
+          lower = end;
+          upper = Long.MAX_VALUE;
+          break;
+        case NE:
+          lower = start;
+          upper = end;
+          outside = true;
+          break;
+        default:
+          precomputed = false;
+      }
+    }
+
+    private static long startOfYear(int year) {
+      return LocalDate.of(year, 1, 1).toEpochDay() * DAY;
+    }
+
+    @Override
+    public boolean test(Person person, long time) {
+      if (precomputed) {
+        return (lower <= time && time < upper) != outside;
+      } else if (year != null) {
         int currentyear = Utilities.getYear(time);
         return Utilities.compare(currentyear, year, operator);
       } else if (month != null) {
-        int currentmonth = Utilities.getMonth(time);
-        return Utilities.compare(currentmonth, month, operator);
+        int currentmonth = LocalDate.ofEpochDay(Math.floorDiv(time, DAY)).getMonthValue();
+        return comparison.compare(currentmonth, month, operator);
       } else if (date != null) {
         Calendar testDate = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
         testDate.set(date.year, date.month - 1, date.day, date.hour, date.minute, date.second);
@@ -176,9 +328,16 @@ public abstract class Logic {
     private String operator;
     private double value;
 
+    private transient Comparison comparison;
+
+    @Override
+    public void compile() {
+      comparison = Comparison.of(operator);
+    }
+
     @Override
     public boolean test(Person person, long time) {
-      return Utilities.compare((double) person.getSymptom(symptom), value, operator);
+      return comparison.compare(person.getSymptom(symptom), value, operator);
     }
   }
 
@@ -269,6 +428,29 @@ public abstract class Logic {
    */
   private abstract static class GroupedCondition extends Logic {
     protected Collection<Logic> conditions;
+    /** The conditions, with any nested groups of the same kind merged in, for And and Or. */
+    protected transient Logic[] compiled;
+
+    @Override
+    public void compile() {
+      List<Logic> flattened = new ArrayList<>(conditions.size());
+      for (Logic condition : conditions) {
+        condition.compile();
+        if (condition.getClass() == getClass() && canFlatten()) {
+          // (a AND (b AND c)) is (a AND b AND c), and the same for OR
+          for (Logic nested : ((GroupedCondition) condition).compiled) {
+            flattened.add(nested);
+          }
+        } else {
+          flattened.add(condition);
+        }
+      }
+      compiled = flattened.toArray(new Logic[0]);
+    }
+
+    protected boolean canFlatten() {
+      return false;
+    }
   }
   
   /**
@@ -277,9 +459,19 @@ public abstract class Logic {
    * but if any are false, it will return false.
    */
   public static class And extends GroupedCondition {
+    @Override
+    protected boolean canFlatten() {
+      return true;
+    }
+
     @Override
     public boolean test(Person person, long time) {
-      return conditions.stream().allMatch(c -> c.test(person, time));
+      for (Logic condition : compiled) {
+        if (!condition.test(person, time)) {
+          return false;
+        }
+      }
+      return true;
     }
   }
 
@@ -289,9 +481,19 @@ public abstract class Logic {
    * but if all sub-conditions are false, it will return false.
    */
   public static class Or extends GroupedCondition {
+    @Override
+    protected boolean canFlatten() {
+      return true;
+    }
+
     @Override
     public boolean test(Person person, long time) {
-      return conditions.stream().anyMatch(c -> c.test(person, time));
+      for (Logic condition : compiled) {
+        if (condition.test(person, time)) {
+          return true;
+        }
+      }
+      return false;
     }
   }
 
@@ -303,6 +505,11 @@ public abstract class Logic {
   public static class Not extends Logic {
     private Logic condition;
 
+    @Override
+    public void compile() {
+      condition.compile();
+    }
+
     @Override
     public boolean test(Person person, long time) {
       return !condition.test(person, time);
@@ -323,7 +530,19 @@ public abstract class Logic {
 
     @Override
     public boolean test(Person person, long time) {
-      return conditions.stream().filter(c -> c.test(person, time)).count() >= minimum;
+      int needed = minimum;
+      int remaining = compiled.length;
+      for (Logic condition : compiled) {
+        if (needed <= 0 || needed > remaining) {
+          // the answer can't change, whatever the rest of the conditions are
+          break;
+        }
+        if (condition.test(person, time)) {
+          needed--;
+        }
+        remaining--;
+      }
+      return needed <= 0;
     }
   }
 
@@ -337,7 +556,19 @@ public abstract class Logic {
 
     @Override
     public boolean test(Person person, long time) {
-      return conditions.stream().filter(c -> c.test(person, time)).count() <= maximum;
+      int allowed = maximum;
+      int remaining = compiled.length;
+      for (Logic condition : compiled) {
+        if (allowed < 0 || allowed >= remaining) {
+          // the answer can't change, whatever the rest of the conditions are
+          break;
+        }
+        if (condition.test(person, time)) {
+          allowed--;
+        }
+        remaining--;
+      }
+      return allowed >= 0;
     }
   }
   
@@ -376,17 +607,21 @@ public abstract class Logic {
     private String name;
     private String since;
     private ExactWithUnit<Long> within;
-    private Long window;
+    private transient long window;
+
+    @Override
+    public void compile() {
+      if (within != null) {
+        // the window doesn't depend on person or time
+        window = Utilities.convertTime(within.unit, within.quantity);
+      }
+    }
 
     @Override
     public boolean test(Person person, long time) {
       Long sinceTime = null;
       
       if (within != null) {
-        if (window == null) {
-          // cache the value since it doesn't depend on person or time
-          window = Utilities.convertTime(within.unit, within.quantity);
-        }
         sinceTime = time - window;
       }
 
@@ -538,9 +773,16 @@ public abstract class Logic {
     private String operator;
     private double value;
 
+    private transient Comparison comparison;
+
+    @Override
+    public void compile() {
+      comparison = Comparison.of(operator);
+    }
+
     @Override
     public boolean test(Person person, long time) {
-      return Utilities.compare(person.getVitalSign(vitalSign, time), value, operator);
+      return comparison.compare(person.getVitalSign(vitalSign, time), value, operator);
     }
   }
 }
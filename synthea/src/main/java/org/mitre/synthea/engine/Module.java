@@ -14,7 +14,6 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -221,6 +220,8 @@ public class Module {
   public boolean submodule;
   public List<String> remarks;
   private Map<String, State> states;
+  /** The same states, indexed by the ids their transitions were resolved to. */
+  private State[] stateTable;
 
   protected Module() {
     // no-args constructor only allowed to be used by subclasses
@@ -243,6 +244,25 @@ public class Module {
       State state = State.build(this, entry.getKey(), entry.getValue().getAsJsonObject());
       states.put(entry.getKey(), state);
     }
+    compile();
+  }
+
+  /**
+   * Number the states and resolve every transition target to a state id, so processing a
+   * transition doesn't need to look the next state up by name, and compile the logic the
+   * states and transitions test.
+   */
+  private void compile() {
+    stateTable = states.values().toArray(new State[0]);
+    for (int id = 0; id < stateTable.length; id++) {
+      stateTable[id].id = id;
+    }
+    for (State state : stateTable) {
+      state.compile();
+      if (state.getTransition() != null) {
+        state.getTransition().resolve(this);
+      }
+    }
   }
 
   /**
@@ -259,7 +279,7 @@ public class Module {
     person.history = null;
     // what current state is this person in?
     if (!person.attributes.containsKey(this.name)) {
-      person.history = new LinkedList<State>();
+      person.history = new StateHistory();
       person.history.add(initialState());
       person.attributes.put(this.name, person.history);
     }
@@ -269,16 +289,26 @@ public class Module {
       person.attributes.put(activeKey, true);
     }
     State current = person.history.get(0);
+    StateHistory compactHistory = person.history instanceof StateHistory
+        ? (StateHistory) person.history : null;
     // System.out.println(" Resuming at " + current.name);
     // process the current state,
     // looping until module is finished,
     // probably more than one state
-    String nextStateName = null;
     while (current.run(person, time)) {
       Long exited = current.exited;      
-      nextStateName = current.transition(person, time);
-      // System.out.println(" Transitioning to " + nextStateName);
-      current = states.get(nextStateName).clone(); // clone the state so we don't dirty the original
+      State next = current.nextState(person, time);
+      if (compactHistory != null && (exited == null || exited >= time)) {
+        // states that keep nothing per person are processed from the original, and only
+        // recorded in the history, as if a clone had been entered and exited right away
+        while (next.isFlyweight()) {
+          compactHistory.addPassedThrough(next, time);
+          next.process(person, time);
+          next = next.nextState(person, time);
+        }
+      }
+      // System.out.println(" Transitioning to " + next.name);
+      current = next.clone(); // clone the state so we don't dirty the original
       person.history.add(0, current);
       if (exited != null && exited < time) {
         // This must be a delay state that expired between cycles, so temporarily rewind time
@@ -298,6 +328,29 @@ public class Module {
     return states.get(name);
   }
 
+  /**
+   * Get a state by the id it was given when this module was loaded.
+   *
+   * @param id
+   *          : the state id, as resolved by a transition
+   * @return the state, or null if there is no state with the given id
+   */
+  State getState(int id) {
+    return id >= 0 && id < stateTable.length ? stateTable[id] : null;
+  }
+
+  /**
+   * Get the id of the state with the given name.
+   *
+   * @param name
+   *          : the name of the state
+   * @return the state id, or -1 if this module has no state with the given name
+   */
+  int getStateId(String name) {
+    State state = states.get(name);
+    return state == null ? -1 : state.id;
+  }
+
   /**
    * Get a collection of the names of all the states this Module contains.
    * 
@@ -4,6 +4,8 @@ import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import org.mitre.synthea.engine.Components.Exact;
@@ -33,8 +35,13 @@ import org.mitre.synthea.world.concepts.HealthRecord.Medication;
 import org.mitre.synthea.world.concepts.HealthRecord.Report;
 
 public abstract class State implements Cloneable {
+  /** State classes by type name, so each state built doesn't need a reflective lookup. */
+  private static final Map<String, Class<?>> STATE_CLASSES = new ConcurrentHashMap<>();
+
   public Module module;
   public String name;
+  /** The index of this state in its module, assigned when the module is loaded. */
+  transient int id = -1;
   public Long entered;
   public Entry entry;
   public Long exited;
@@ -64,6 +71,13 @@ public abstract class State implements Cloneable {
     }
   }
 
+  /**
+   * Compile any logic this state tests, see {@link Logic#compile()}. Called once when the
+   * module is loaded.
+   */
+  void compile() {
+  }
+
   /**
    * Construct a state object from the given definitions.
    *
@@ -81,7 +95,11 @@ public abstract class State implements Cloneable {
   public static State build(Module module, String name, JsonObject definition) throws Exception {
     String className = State.class.getName() + "$" + definition.get("type").getAsString();
 
-    Class<?> stateClass = Class.forName(className);
+    Class<?> stateClass = STATE_CLASSES.get(className);
+    if (stateClass == null) {
+      stateClass = Class.forName(className);
+      STATE_CLASSES.put(className, stateClass);
+    }
 
     Gson gson = Utilities.getGson();
     State state = (State) gson.fromJson(definition, stateClass);
@@ -118,6 +136,33 @@ public abstract class State implements Cloneable {
     return transition;
   }
 
+  /**
+   * Get the module's original copy of the next state, using the transition targets resolved
+   * when the module was loaded. Like {@link #transition(Person, long)}, this follows the
+   * transition, so it must only be called once per exit from this state.
+   *
+   * @param person
+   *          the person being simulated
+   * @param time
+   *          the date within the simulated world
+   * @return the next state as defined in the module, not a clone, or null if the transition
+   *         names a state that does not exist.
+   */
+  State nextState(Person person, long time) {
+    return module.getState(transition.followId(person, time));
+  }
+
+  /**
+   * Whether this state keeps no per-person data and always continues to the next state in the
+   * same time step, so the module can process its original copy and record a pass through it
+   * in the history without cloning it.
+   *
+   * @return true if the state can be processed without a clone.
+   */
+  boolean isFlyweight() {
+    return false;
+  }
+
   /**
    * Process this State with the given Person at the specified time within the simulation.
    * If this State generates a HealthRecord.Entry during processing, then the resulting data
@@ -162,6 +207,25 @@ public abstract class State implements Cloneable {
     return exit;
   }
 
+  /**
+   * Whether this state may still be changed after it has exited, for example an onset state
+   * waiting for a later encounter to diagnose it. A StateHistory keeps such states as objects
+   * rather than reducing them to a compact record.
+   *
+   * @return true if the history must keep this state object.
+   */
+  boolean isRetainedInHistory() {
+    return false;
+  }
+
+  /**
+   * Called on a copy of this state rebuilt from a compact StateHistory record, after entered,
+   * exited and entry have been restored, to restore anything implied by it having been
+   * compacted.
+   */
+  void restoreFromHistory() {
+  }
+
   public String toString() {
     return this.getClass().getSimpleName() + " '" + name + "'";
   }
@@ -173,6 +237,11 @@ public abstract class State implements Cloneable {
    * only state for which there can only be one in the whole module.
    */
   public static class Initial extends State {
+    @Override
+    boolean isFlyweight() {
+      return true;
+    }
+
     @Override
     public boolean process(Person person, long time) {
       return true;
@@ -186,6 +255,11 @@ public abstract class State implements Cloneable {
    * complex logic.
    */
   public static class Simple extends State {
+    @Override
+    boolean isFlyweight() {
+      return true;
+    }
+
     @Override
     public boolean process(Person person, long time) {
       return true;
@@ -208,6 +282,12 @@ public abstract class State implements Cloneable {
       return clone;
     }
 
+    @Override
+    boolean isRetainedInHistory() {
+      // exits after the submodule history has been added on top of it
+      return true;
+    }
+
     @Override
     public boolean process(Person person, long time) {
       // e.g. "submodule": "medications/otc_antihistamine"
@@ -340,6 +420,11 @@ public abstract class State implements Cloneable {
       return clone;
     }
 
+    @Override
+    void compile() {
+      allow.compile();
+    }
+
     @Override
     public boolean process(Person person, long time) {
       boolean exit = allow.test(person, time);
@@ -382,6 +467,11 @@ public abstract class State implements Cloneable {
       return clone;
     }
 
+    @Override
+    boolean isFlyweight() {
+      return true;
+    }
+
     @Override
     public boolean process(Person person, long time) {
       if (value != null) {
@@ -420,6 +510,11 @@ public abstract class State implements Cloneable {
       return clone;
     }
 
+    @Override
+    boolean isFlyweight() {
+      return true;
+    }
+
     @Override
     public boolean process(Person person, long time) {
       int counter = 0;
@@ -552,6 +647,19 @@ public abstract class State implements Cloneable {
     }
 
     private void diagnosePastConditions(Person person, long time) {
+      if (person.history instanceof StateHistory) {
+        // undiagnosed onsets are always kept live, so only the live states need checking
+        for (State state : ((StateHistory) person.history).liveStatesSincePrior(this)) {
+          if (state instanceof OnsetState) {
+            OnsetState onset = (OnsetState) state;
+
+            if (!onset.diagnosed && this.name.equals(onset.targetEncounter)) {
+              onset.diagnose(person, time);
+            }
+          }
+        }
+        return;
+      }
       // reminder: history[0] is current state, history[size-1] is Initial
       for (State state : person.history) {
         if (state instanceof OnsetState) {
@@ -650,6 +758,17 @@ public abstract class State implements Cloneable {
     }
 
     public abstract void diagnose(Person person, long time);
+
+    @Override
+    boolean isRetainedInHistory() {
+      return !diagnosed;
+    }
+
+    @Override
+    void restoreFromHistory() {
+      // only diagnosed onsets are compacted
+      diagnosed = true;
+    }
   }
 
   /**
@@ -0,0 +1,389 @@
+package org.mitre.synthea.engine;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.mitre.synthea.world.concepts.HealthRecord.Code;
+import org.mitre.synthea.world.concepts.HealthRecord.Entry;
+
+/**
+ * The history of states a person has been through in a module, most recent first, as stored
+ * in the person's attributes under the module name.
+ *
+ * <p>A history can grow to tens of thousands of states over a lifetime, so rather than
+ * keeping a clone of every state, only the current state and states that may still change
+ * (see {@link State#isRetainedInHistory()}) are kept as objects. Every other state is reduced
+ * to a compact record of the original module state, its entered and exited times and its
+ * entry, and is only rebuilt as a State object if it is requested through the List interface.
+ * The records are indexed by state name and by entry code, so prior state and prior entry
+ * lookups don't need to walk the whole history.
+ *
+ * <p>Internally the records are kept oldest first, so "position" below is the reverse of the
+ * list index.
+ */
+public final class StateHistory extends AbstractList<State> {
+  /** Stands in for a null entered or exited time. */
+  private static final long NONE = Long.MIN_VALUE;
+
+  /** The state itself if live, otherwise the module's original state it was cloned from. */
+  private State[] states;
+  private boolean[] live;
+  private long[] entered;
+  private long[] exited;
+  private Entry[] entries;
+  private int size;
+
+  private final Map<String, IntList> positionsByName = new HashMap<>();
+  private final Map<String, IntList> positionsByCode = new HashMap<>();
+  /** Positions of the live states, usually just the current state and a few others. */
+  private final IntList livePositions = new IntList();
+
+  /**
+   * Create an empty state history.
+   */
+  public StateHistory() {
+    states = new State[8];
+    live = new boolean[8];
+    entered = new long[8];
+    exited = new long[8];
+    entries = new Entry[8];
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public State get(int index) {
+    int position = position(index);
+    if (live[position]) {
+      return states[position];
+    }
+    State state = states[position].clone();
+    state.entered = entered[position] == NONE ? null : entered[position];
+    state.exited = exited[position] == NONE ? null : exited[position];
+    state.entry = entries[position];
+    state.restoreFromHistory();
+    return state;
+  }
+
+  /**
+   * Add a state to the history. Adding at index 0 (the new current state) is the normal case,
+   * any other index rebuilds the history.
+   */
+  @Override
+  public void add(int index, State state) {
+    if (index == 0 || size == 0) {
+      append(state);
+    } else {
+      List<State> all = new ArrayList<>(this);
+      all.add(index, state);
+      rebuild(all);
+    }
+    modCount++;
+  }
+
+  /**
+   * Add states to the history. Adding at index 0 (for example the history of a completed
+   * submodule) keeps the added states compact, any other index rebuilds the history.
+   */
+  @Override
+  public boolean addAll(int index, Collection<? extends State> added) {
+    if (added.isEmpty()) {
+      return false;
+    }
+    if (index == 0 || size == 0) {
+      if (added instanceof StateHistory) {
+        StateHistory other = (StateHistory) added;
+        for (int i = 0; i < other.size; i++) {
+          if (other.live[i]) {
+            append(other.states[i]);
+          } else {
+            appendRecord(other.states[i], other.entered[i], other.exited[i], other.entries[i]);
+          }
+        }
+      } else {
+        List<State> reversed = new ArrayList<>(added);
+        Collections.reverse(reversed);
+        for (State state : reversed) {
+          append(state);
+        }
+      }
+    } else {
+      List<State> all = new ArrayList<>(this);
+      all.addAll(index, added);
+      rebuild(all);
+    }
+    modCount++;
+    return true;
+  }
+
+  /**
+   * Record a pass through a state that was processed without being cloned (see
+   * {@link State#isFlyweight()}), entered and exited at the given time. The record is the
+   * same as for a clone of the state that has been compacted.
+   *
+   * @param original The module's original copy of the state.
+   * @param time The time the state was entered and exited.
+   */
+  public void addPassedThrough(State original, long time) {
+    appendRecord(original, time, time, null);
+    modCount++;
+  }
+
+  @Override
+  public void clear() {
+    Arrays.fill(states, 0, size, null);
+    Arrays.fill(entries, 0, size, null);
+    size = 0;
+    positionsByName.clear();
+    positionsByCode.clear();
+    livePositions.size = 0;
+    modCount++;
+  }
+
+  /**
+   * Whether the person has been in the named state, with the same semantics as walking the
+   * history from the most recent state: false if a state named `since` is found first, or a
+   * state that exited at or before `within` is found first.
+   *
+   * @param name Name of the state to look for.
+   * @param since Name of a state that resets the search, or null.
+   * @param within Time before which states are not considered, or null.
+   * @return true if the state was found.
+   */
+  public boolean hadPriorState(String name, String since, Long within) {
+    int found = lastPosition(name, size);
+    if (found < 0) {
+      return false;
+    }
+    if (since != null && lastPosition(since, size) >= found) {
+      return false;
+    }
+    if (within != null) {
+      for (int position = size - 1; position >= found; position--) {
+        long stateExited = exitedAt(position);
+        if (stateExited != NONE && stateExited <= within) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Find the entry with the given code from the most recent state that has one of the
+   * given class.
+   *
+   * @param classType The class of entry to look for.
+   * @param code The code to look for.
+   * @return The entry, or null if no state in the history has one.
+   */
+  public Entry findEntry(Class<? extends Entry> classType, Code code) {
+    int best = -1;
+    IntList indexed = positionsByCode.get(code.code);
+    if (indexed != null) {
+      for (int i = indexed.size - 1; i >= 0; i--) {
+        int position = indexed.values[i];
+        if (hasEntry(entries[position], classType, code)) {
+          best = position;
+          break;
+        }
+      }
+    }
+    // live states aren't indexed because their entries can still change
+    for (int i = livePositions.size - 1; i >= 0 && livePositions.values[i] > best; i--) {
+      int position = livePositions.values[i];
+      if (hasEntry(states[position].entry, classType, code)) {
+        best = position;
+        break;
+      }
+    }
+    if (best < 0) {
+      return null;
+    }
+    return live[best] ? states[best].entry : entries[best];
+  }
+
+  /**
+   * Get the live states that were entered after the most recent earlier visit to the given
+   * state, most recent first, not including the given state itself. States that are no longer
+   * live can't change, so callers looking for work left over from earlier states (such as an
+   * undiagnosed onset) only need to look at these.
+   *
+   * @param current The current state.
+   * @return Live states since the last visit to the current state.
+   */
+  public List<State> liveStatesSincePrior(State current) {
+    int currentPosition = -1;
+    for (int i = livePositions.size - 1; i >= 0; i--) {
+      if (states[livePositions.values[i]] == current) {
+        currentPosition = livePositions.values[i];
+        break;
+      }
+    }
+    int prior = lastPosition(current.name, size);
+    while (prior >= 0
+        && (prior == currentPosition || !current.getClass().isInstance(states[prior]))) {
+      prior = lastPosition(current.name, prior);
+    }
+
+    List<State> result = new ArrayList<>();
+    for (int i = livePositions.size - 1; i >= 0 && livePositions.values[i] > prior; i--) {
+      int position = livePositions.values[i];
+      if (position != currentPosition) {
+        result.add(states[position]);
+      }
+    }
+    return result;
+  }
+
+  private int position(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+    return size - 1 - index;
+  }
+
+  private long exitedAt(int position) {
+    if (live[position]) {
+      Long stateExited = states[position].exited;
+      return stateExited == null ? NONE : stateExited;
+    }
+    return exited[position];
+  }
+
+  /**
+   * Get the position of the most recent state with the given name before the given position.
+   */
+  private int lastPosition(String name, int before) {
+    IntList positions = positionsByName.get(name);
+    if (positions == null) {
+      return -1;
+    }
+    for (int i = positions.size - 1; i >= 0; i--) {
+      if (positions.values[i] < before) {
+        return positions.values[i];
+      }
+    }
+    return -1;
+  }
+
+  private static boolean hasEntry(Entry entry, Class<? extends Entry> classType, Code code) {
+    if (entry == null || !classType.isInstance(entry)) {
+      return false;
+    }
+    for (Code candidate : entry.codes) {
+      if (candidate.equals(code)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void append(State state) {
+    int position = grow();
+    states[position] = state;
+    live[position] = true;
+    livePositions.add(position);
+    positionsByName.computeIfAbsent(state.name, k -> new IntList()).add(position);
+  }
+
+  private void appendRecord(State original, long stateEntered, long stateExited, Entry entry) {
+    int position = grow();
+    states[position] = original;
+    live[position] = false;
+    entered[position] = stateEntered;
+    exited[position] = stateExited;
+    entries[position] = entry;
+    positionsByName.computeIfAbsent(original.name, k -> new IntList()).add(position);
+    indexEntry(position, entry);
+  }
+
+  /**
+   * Make room for one more state, compacting the previous current state which has now exited.
+   */
+  private int grow() {
+    if (size > 0) {
+      compact(size - 1);
+    }
+    if (size == states.length) {
+      int capacity = size * 2;
+      states = Arrays.copyOf(states, capacity);
+      live = Arrays.copyOf(live, capacity);
+      entered = Arrays.copyOf(entered, capacity);
+      exited = Arrays.copyOf(exited, capacity);
+      entries = Arrays.copyOf(entries, capacity);
+    }
+    return size++;
+  }
+
+  private void compact(int position) {
+    State state = states[position];
+    if (!live[position] || state.isRetainedInHistory() || state.module == null) {
+      return;
+    }
+    State original = state.module.getState(state.name);
+    if (original == null || original.getClass() != state.getClass()) {
+      return;
+    }
+    states[position] = original;
+    live[position] = false;
+    livePositions.remove(position);
+    entered[position] = state.entered == null ? NONE : state.entered;
+    exited[position] = state.exited == null ? NONE : state.exited;
+    entries[position] = state.entry;
+    indexEntry(position, state.entry);
+  }
+
+  private void indexEntry(int position, Entry entry) {
+    if (entry == null) {
+      return;
+    }
+    for (Code code : entry.codes) {
+      IntList positions = positionsByCode.computeIfAbsent(code.code, k -> new IntList());
+      if (positions.size == 0 || positions.values[positions.size - 1] != position) {
+        positions.add(position);
+      }
+    }
+  }
+
+  private void rebuild(List<State> all) {
+    clear();
+    for (int i = all.size() - 1; i >= 0; i--) {
+      append(all.get(i));
+    }
+  }
+
+  /**
+   * A growable list of ints, in ascending order since positions are only ever appended.
+   */
+  private static class IntList {
+    private int[] values = new int[2];
+    private int size;
+
+    private void add(int value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = value;
+    }
+
+    private void remove(int value) {
+      for (int i = size - 1; i >= 0; i--) {
+        if (values[i] == value) {
+          System.arraycopy(values, i + 1, values, i, size - i - 1);
+          size--;
+          return;
+        }
+      }
+    }
+  }
+}
@@ -26,6 +26,28 @@ public abstract class Transition {
    * @return name : name of the next state
    */
   public abstract String follow(Person person, long time);
+
+  /**
+   * Get the id of the next state. This is the same state as {@link #follow(Person, long)}
+   * names, but resolved when the module was loaded (see {@link #resolve(Module)}), so no lookup
+   * by name is needed.
+   *
+   * @param person
+   *          : person being processed
+   * @param time
+   *          : time of this transition
+   * @return id : the id of the next state in its module, or -1 if the module has no such state
+   */
+  abstract int followId(Person person, long time);
+
+  /**
+   * Resolve the names of the states this transition can lead to into the module's state ids,
+   * and compile the conditions it tests. Called once when the module is loaded.
+   *
+   * @param module
+   *          : the module containing this transition
+   */
+  abstract void resolve(Module module);
  
   /**
    * Direct transitions are the simplest of transitions. They transition directly to the indicated
@@ -33,6 +55,7 @@ public abstract class Transition {
    */
   public static class DirectTransition extends Transition {
     private String transition;
+    private transient int target = -1;
     
     public DirectTransition(String transition) {
       this.transition = transition;
@@ -42,6 +65,16 @@ public abstract class Transition {
     public String follow(Person person, long time) {
       return transition;
     }
+
+    @Override
+    int followId(Person person, long time) {
+      return target;
+    }
+
+    @Override
+    void resolve(Module module) {
+      target = module.getStateId(transition);
+    }
   }
   
   /**
@@ -49,6 +82,14 @@ public abstract class Transition {
    */
   private abstract static class TransitionOption {
     protected String transition;
+    /** The id of the state named by `transition`, resolved when the module is loaded. */
+    protected transient int target = -1;
+
+    protected void resolve(Module module) {
+      if (transition != null) {
+        target = module.getStateId(transition);
+      }
+    }
   }
   
   /**
@@ -85,7 +126,19 @@ public abstract class Transition {
 
     @Override
     public String follow(Person person, long time) {
-      return pickDistributedTransition(transitions, person);
+      return pickDistributedTransition(transitions, person).transition;
+    }
+
+    @Override
+    int followId(Person person, long time) {
+      return pickDistributedTransition(transitions, person).target;
+    }
+
+    @Override
+    void resolve(Module module) {
+      for (TransitionOption option : transitions) {
+        option.resolve(module);
+      }
     }
   }
   
@@ -116,16 +169,34 @@ public abstract class Transition {
 
     @Override
     public String follow(Person person, long time) {
+      return choose(person, time).transition;
+    }
+
+    @Override
+    int followId(Person person, long time) {
+      return choose(person, time).target;
+    }
+
+    @Override
+    void resolve(Module module) {
+      for (ConditionalTransitionOption option : transitions) {
+        option.resolve(module);
+        if (option.condition != null) {
+          option.condition.compile();
+        }
+      }
+    }
+
+    private TransitionOption choose(Person person, long time) {
       for (ConditionalTransitionOption option : transitions) {
         if (option.condition == null 
             || option.condition.test(person, time)) {
-          return option.transition;
+          return option;
         }
       }
       
       // fallback, just return the last transition
-      TransitionOption last = transitions.get(transitions.size() - 1);
-      return last.transition;
+      return transitions.get(transitions.size() - 1);
     }
     
   }
@@ -163,6 +234,30 @@ public abstract class Transition {
 
     @Override
     public String follow(Person person, long time) {
+      return choose(person, time).transition;
+    }
+
+    @Override
+    int followId(Person person, long time) {
+      return choose(person, time).target;
+    }
+
+    @Override
+    void resolve(Module module) {
+      for (ComplexTransitionOption option : transitions) {
+        option.resolve(module);
+        if (option.condition != null) {
+          option.condition.compile();
+        }
+        if (option.distributions != null) {
+          for (TransitionOption distribution : option.distributions) {
+            distribution.resolve(module);
+          }
+        }
+      }
+    }
+
+    private TransitionOption choose(Person person, long time) {
       for (ComplexTransitionOption option : transitions) {
         if (option.condition == null 
             || option.condition.test(person, time)) {
@@ -175,9 +270,9 @@ public abstract class Transition {
       return follow(last, person);
     }
     
-    private String follow(ComplexTransitionOption option, Person person) {
+    private TransitionOption follow(ComplexTransitionOption option, Person person) {
       if (option.transition != null) {
-        return option.transition;
+        return option;
       } else if (option.distributions != null) {
         return pickDistributedTransition(option.distributions, person);
       }
@@ -186,7 +281,7 @@ public abstract class Transition {
     }
   }
   
-  private static String pickDistributedTransition(
+  private static TransitionOption pickDistributedTransition(
       List<DistributedTransitionOption> transitions, Person person) {
     double p = person.rand();
     double high = 0.0;
@@ -205,12 +300,11 @@ public abstract class Transition {
       }
 
       if (p < high) {
-        return option.transition;
+        return option;
       }
     }
     // fallback, just return the last transition
-    TransitionOption last = transitions.get(transitions.size() - 1);
-    return last.transition;
+    return transitions.get(transitions.size() - 1);
   }
 
   private static void processDistributedTransition(DistributedTransitionOption option) {
@@ -0,0 +1,80 @@
+package org.mitre.synthea.export;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.mitre.synthea.helpers.NdjsonWriter;
+
+/**
+ * Writes FHIR resources as bulk data: one newline-delimited JSON file per resource type, e.g.
+ * fhir/Patient.ndjson. The files stay open, and are written to in large chunks, for the whole
+ * run, and must be closed with {@link #close()} once every patient has been exported.
+ */
+final class BulkDataExporter {
+
+  /** FHIR contexts are expensive to create, so there is one of each for the whole run. */
+  private static final FhirContext STU3_CTX = FhirContext.forDstu3();
+  private static final FhirContext DSTU2_CTX = FhirContext.forDstu2();
+  private static final FhirContext R4_CTX = FhirContext.forR4();
+
+  /** Parsers are cheap to reuse, but not thread safe, so each thread has its own. */
+  static final ThreadLocal<IParser> STU3_PARSER =
+      ThreadLocal.withInitial(() -> STU3_CTX.newJsonParser().setPrettyPrint(false));
+  static final ThreadLocal<IParser> DSTU2_PARSER =
+      ThreadLocal.withInitial(() -> DSTU2_CTX.newJsonParser().setPrettyPrint(false));
+  static final ThreadLocal<IParser> R4_PARSER =
+      ThreadLocal.withInitial(() -> R4_CTX.newJsonParser().setPrettyPrint(false));
+
+  /** A writer per output folder and resource type. */
+  private static final Map<File, NdjsonWriter> WRITERS = new ConcurrentHashMap<>();
+
+  private BulkDataExporter() {
+    // only static methods
+  }
+
+  /**
+   * Add a resource to the file of its type.
+   * @param outDirectory The folder the files are written to
+   * @param resourceType The resource type, e.g. Patient
+   * @param json The resource, encoded without line breaks
+   * @param settings Export settings to use, if the writer has to be created
+   * @throws IOException if the file can't be written
+   */
+  static void write(File outDirectory, String resourceType, String json,
+      ExportSettings settings) throws IOException {
+    NdjsonWriter writer = WRITERS.computeIfAbsent(new File(outDirectory, resourceType),
+        file -> new NdjsonWriter(outDirectory, resourceType, settings.fhirBulkBufferSize,
+            // in deterministic mode the lines are written in the order the patients are exported
+            !settings.deterministic, settings.fhirBulkSharded,
+            settings.fhirBulkMaxFileSize));
+    writer.write(json);
+  }
+
+  /**
+   * Write out everything that is buffered and close the files. Resources written afterwards
+   * are appended to new writers.
+   * @throws IOException if any file can't be written
+   */
+  static void close() throws IOException {
+    List<NdjsonWriter> writers = new ArrayList<>(WRITERS.values());
+    WRITERS.clear();
+    IOException error = null;
+    for (NdjsonWriter writer : writers) {
+      try {
+        writer.close();
+      } catch (IOException e) {
+        error = e;
+      }
+    }
+    if (error != null) {
+      throw error;
+    }
+  }
+}
@@ -4,9 +4,20 @@ import freemarker.template.Configuration;
 import freemarker.template.Template;
 import freemarker.template.TemplateException;
 
+import java.io.IOException;
 import java.io.StringWriter;
-import java.util.UUID;
+import java.io.Writer;
+import java.util.AbstractSequentialList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
 
+import org.mitre.synthea.helpers.IdSequence;
 import org.mitre.synthea.world.agents.Person;
 import org.mitre.synthea.world.concepts.HealthRecord.Encounter;
 import org.mitre.synthea.world.concepts.RaceAndEthnicity;
@@ -17,15 +28,8 @@ import org.mitre.synthea.world.concepts.RaceAndEthnicity;
 public class CCDAExporter {
 
   private static final Configuration TEMPLATES = templateConfiguration();
-  /**
-   * This is a dummy object for FreeMarker, because the library cannot access static class methods
-   * such as UUID.randomUUID()
-   */
-  private static final Object UUID_GEN = new Object() {
-    public String toString() {
-      return UUID.randomUUID().toString();
-    }
-  };
+  /** Where this exporter's ids start in a person's sequence, see {@link IdSequence}. */
+  private static final long FIRST_ID = 6L << 40;
 
   private static Configuration templateConfiguration() {
     Configuration configuration = new Configuration(Configuration.VERSION_2_3_26);
@@ -41,6 +45,9 @@ public class CCDAExporter {
     configuration.setAPIBuiltinEnabled(true);
     configuration.setClassLoaderForTemplateLoading(ClassLoader.getSystemClassLoader(),
         "templates/ccda");
+    // the templates are resources, which can't change while running, so once parsed they
+    // (including the ones ccda.ftl includes) are never checked for changes again
+    configuration.setTemplateUpdateDelayMilliseconds(Long.MAX_VALUE);
     return configuration;
   }
 
@@ -55,52 +62,194 @@ public class CCDAExporter {
    * @return String of CCDA R2.1 XML.
    */
   public static String export(Person person, long time) {
-    // create a super encounter... this makes it easier to access
-    // all the Allergies (for example) in the export templates,
+    StringWriter writer = new StringWriter();
+    try {
+      export(person, time, writer);
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+    return writer.toString();
+  }
+
+  /**
+   * Export a CCDA R2.1 document for a Person at a given time, writing the XML as it is rendered
+   * rather than building it up in memory.
+   *
+   * @param person
+   *          Person to export.
+   * @param time
+   *          Time the record should be generated. Any content in the record AFTER this time will
+   *          not be included.
+   * @param writer
+   *          Writer to render the CCDA R2.1 XML to. It is flushed, but not closed.
+   * @throws IOException if the XML can't be written.
+   * @throws TemplateException if the template can't be rendered.
+   */
+  public static void export(Person person, long time, Writer writer)
+      throws IOException, TemplateException {
+    // the templates fill in the record by accessing the attributes of the Person,
+    // so the model is the attributes plus a few entries just for the purposes of export,
+    // without adding those to the Person itself.
+    Map<String, Object> model = new HashMap<>(person.attributes);
+
+    // encounters after the given time are left out of the lists of all the
+    // Allergies (for example), which the export templates access directly,
     // instead of having to iterate through all the encounters.
-    Encounter superEncounter = person.record.new Encounter(time, "super");
+    int encounters = 0;
     for (Encounter encounter : person.record.encounters) {
-      if (encounter.start <= time) {
-        superEncounter.observations.addAll(encounter.observations);
-        superEncounter.reports.addAll(encounter.reports);
-        superEncounter.conditions.addAll(encounter.conditions);
-        superEncounter.allergies.addAll(encounter.allergies);
-        superEncounter.procedures.addAll(encounter.procedures);
-        superEncounter.immunizations.addAll(encounter.immunizations);
-        superEncounter.medications.addAll(encounter.medications);
-        superEncounter.careplans.addAll(encounter.careplans);
-        superEncounter.imagingStudies.addAll(encounter.imagingStudies);
-      } else {
+      if (encounter.start > time) {
         break;
       }
+      encounters++;
     }
+    List<Encounter> current = person.record.encounters.subList(0, encounters);
 
-    // The export templates fill in the record by accessing the attributes
-    // of the Person, so we add a few attributes just for the purposes of export.
-    person.attributes.put("UUID", UUID_GEN);
-    person.attributes.put("ehr_encounters", person.record.encounters);
-    person.attributes.put("ehr_observations", superEncounter.observations);
-    person.attributes.put("ehr_reports", superEncounter.reports);
-    person.attributes.put("ehr_conditions", superEncounter.conditions);
-    person.attributes.put("ehr_allergies", superEncounter.allergies);
-    person.attributes.put("ehr_procedures", superEncounter.procedures);
-    person.attributes.put("ehr_immunizations", superEncounter.immunizations);
-    person.attributes.put("ehr_medications", superEncounter.medications);
-    person.attributes.put("ehr_careplans", superEncounter.careplans);
-    person.attributes.put("ehr_imaging_studies", superEncounter.imagingStudies);
-    person.attributes.put("time", time);
-    person.attributes.put("race_lookup", RaceAndEthnicity.LOOK_UP_CDC_RACE);
-    person.attributes.put("ethnicity_lookup", RaceAndEthnicity.LOOK_UP_CDC_ETHNICITY_CODE);
-    person.attributes.put("ethnicity_display_lookup",
-        RaceAndEthnicity.LOOK_UP_CDC_ETHNICITY_DISPLAY);
+    // a dummy object for FreeMarker, because the library cannot access static class methods
+    // such as UUID.randomUUID(); each ${UUID} in the template is the next of the person's ids
+    IdSequence ids = new IdSequence(person.recordSeed(), FIRST_ID);
+    model.put("UUID", new Object() {
+      @Override
+      public String toString() {
+        return ids.next();
+      }
+    });
+    model.put("ehr_encounters", person.record.encounters);
+    model.put("ehr_observations", new EncounterEntries<>(current, e -> e.observations));
+    model.put("ehr_reports", new EncounterEntries<>(current, e -> e.reports));
+    model.put("ehr_conditions", new EncounterEntries<>(current, e -> e.conditions));
+    model.put("ehr_allergies", new EncounterEntries<>(current, e -> e.allergies));
+    model.put("ehr_procedures", new EncounterEntries<>(current, e -> e.procedures));
+    model.put("ehr_immunizations", new EncounterEntries<>(current, e -> e.immunizations));
+    model.put("ehr_medications", new EncounterEntries<>(current, e -> e.medications));
+    model.put("ehr_careplans", new EncounterEntries<>(current, e -> e.careplans));
+    model.put("ehr_imaging_studies", new EncounterEntries<>(current, e -> e.imagingStudies));
+    model.put("time", time);
+    model.put("race_lookup", RaceAndEthnicity.LOOK_UP_CDC_RACE);
+    model.put("ethnicity_lookup", RaceAndEthnicity.LOOK_UP_CDC_ETHNICITY_CODE);
+    model.put("ethnicity_display_lookup", RaceAndEthnicity.LOOK_UP_CDC_ETHNICITY_DISPLAY);
 
-    StringWriter writer = new StringWriter();
-    try {
-      Template template = TEMPLATES.getTemplate("ccda.ftl");
-      template.process(person.attributes, writer);
-    } catch (Exception e) {
-      e.printStackTrace();
+    TemplateHolder.CCDA.process(model, writer);
+    writer.flush();
+  }
+
+  /**
+   * The parsed template, loaded the first time a document is exported.
+   */
+  private static class TemplateHolder {
+    private static final Template CCDA = loadTemplate();
+
+    private static Template loadTemplate() {
+      try {
+        return TEMPLATES.getTemplate("ccda.ftl");
+      } catch (IOException e) {
+        throw new ExceptionInInitializerError(e);
+      }
+    }
+  }
+
+  /**
+   * The entries of one kind (e.g. all the Allergies) from a list of encounters, in order,
+   * read straight from the encounters instead of copied into a list of their own.
+   * It is a sequential list, so FreeMarker iterates over it rather than calling get(i).
+   */
+  private static class EncounterEntries<T> extends AbstractSequentialList<T> {
+    private final List<Encounter> encounters;
+    private final Function<Encounter, List<? extends T>> entries;
+
+    private EncounterEntries(List<Encounter> encounters,
+        Function<Encounter, List<? extends T>> entries) {
+      this.encounters = encounters;
+      this.entries = entries;
+    }
+
+    @Override
+    public int size() {
+      int size = 0;
+      for (Encounter encounter : encounters) {
+        size += entries.apply(encounter).size();
+      }
+      return size;
+    }
+
+    @Override
+    public ListIterator<T> listIterator(int index) {
+      ListIterator<T> iterator = new EntryIterator();
+      for (int i = 0; i < index; i++) {
+        iterator.next();
+      }
+      return iterator;
+    }
+
+    /**
+     * A read-only iterator over the entries, one encounter after the other, in either direction.
+     */
+    private class EntryIterator implements ListIterator<T> {
+      /** The encounter the entry iterator is over, -1 before the first one. */
+      private int encounterIndex = -1;
+      private ListIterator<? extends T> entryIterator = Collections.emptyListIterator();
+      private int index;
+
+      @Override
+      public boolean hasNext() {
+        while (!entryIterator.hasNext() && encounterIndex + 1 < encounters.size()) {
+          encounterIndex++;
+          entryIterator = entries.apply(encounters.get(encounterIndex)).listIterator();
+        }
+        return entryIterator.hasNext();
+      }
+
+      @Override
+      public T next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        index++;
+        return entryIterator.next();
+      }
+
+      @Override
+      public boolean hasPrevious() {
+        while (!entryIterator.hasPrevious() && encounterIndex > 0) {
+          encounterIndex--;
+          List<? extends T> previous = entries.apply(encounters.get(encounterIndex));
+          entryIterator = previous.listIterator(previous.size());
+        }
+        return entryIterator.hasPrevious();
+      }
+
+      @Override
+      public T previous() {
+        if (!hasPrevious()) {
+          throw new NoSuchElementException();
+        }
+        index--;
+        return entryIterator.previous();
+      }
+
+      @Override
+      public int nextIndex() {
+        return index;
+      }
+
+      @Override
+      public int previousIndex() {
+        return index - 1;
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public void set(T entry) {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public void add(T entry) {
+        throw new UnsupportedOperationException();
+      }
     }
-    return writer.toString();
   }
 }
@@ -9,9 +9,11 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.sis.geometry.DirectPosition2D;
@@ -78,6 +80,8 @@ public class CDWExporter {
   private FactTable loinc = new FactTable();
   private FactTable cpt = new FactTable();
   private FactTable vitalType = new FactTable();
+  /** The fact tables, with the files they are written to. */
+  private Map<FactTable,String> factTables;
 
   /**
    * Writers for patient data.
@@ -153,8 +157,30 @@ public class CDWExporter {
    *  initialize the required files and associated writers.
    */
   private CDWExporter() {
-    sids = new HashMap<FileWriter,AtomicInteger>();
-    
+    sids = new ConcurrentHashMap<FileWriter,AtomicInteger>();
+    factTables = new LinkedHashMap<FactTable,String>();
+    factTables.put(sstaff, "sstaff.csv");
+    factTables.put(maritalStatus, "maritalstatus.csv");
+    factTables.put(sta3n, "sta3n.csv");
+    factTables.put(location, "location.csv");
+    factTables.put(immunizationName, "immunizationname.csv");
+    factTables.put(reaction, "reaction.csv");
+    factTables.put(providerNarrative, "providernarrative.csv");
+    factTables.put(localDrug, "localdrug.csv");
+    factTables.put(nationalDrug, "nationaldrug.csv");
+    factTables.put(dosageForm, "dosageform.csv");
+    factTables.put(pharmacyOrderableItem, "pharmacyorderableitem.csv");
+    factTables.put(orderableItem, "orderableitem.csv");
+    factTables.put(orderStatus, "orderstatus.csv");
+    factTables.put(vistaPackage, "vistapackage.csv");
+    factTables.put(collectionsample, "collectionsample.csv");
+    factTables.put(labchemtest, "labchemtest.csv");
+    factTables.put(topography, "topography.csv");
+    factTables.put(institution, "institution.csv");
+    factTables.put(loinc, "loinc.csv");
+    factTables.put(cpt, "cpt.csv");
+    factTables.put(vitalType, "vitaltype.csv");
+
     try {
       File output = Exporter.getOutputFolder("cdw", null);
       output.mkdirs();
@@ -208,6 +234,15 @@ public class CDWExporter {
       vitalSign = openFileWriter(outputDirectory, "vitalsign.csv");
 
       writeCSVHeaders();
+
+      if (ExportSettings.get().cdwStreamFactTables) {
+        for (Map.Entry<FactTable,String> table : factTables.entrySet()) {
+          // rows of these two are looked up by ID, and there are only a handful
+          if (table.getKey() != dosageForm && table.getKey() != orderStatus) {
+            table.getKey().stream(openFileWriter(outputDirectory, table.getValue()));
+          }
+        }
+      }
     } catch (IOException e) {
       // wrap the exception in a runtime exception.
       // the singleton pattern below doesn't work if the constructor can throw
@@ -549,33 +584,22 @@ public class CDWExporter {
   
   /**
    * Fact Tables should only be written after all patients have completed export.
+   * Streamed fact tables are already written, and only need closing.
    */
   public void writeFactTables() {
     try {
       File output = Exporter.getOutputFolder("cdw", null);
       output.mkdirs();
       Path outputDirectory = output.toPath();
-      sstaff.write(openFileWriter(outputDirectory, "sstaff.csv"));
-      maritalStatus.write(openFileWriter(outputDirectory, "maritalstatus.csv"));
-      sta3n.write(openFileWriter(outputDirectory, "sta3n.csv"));
-      location.write(openFileWriter(outputDirectory, "location.csv"));
-      immunizationName.write(openFileWriter(outputDirectory, "immunizationname.csv"));
-      reaction.write(openFileWriter(outputDirectory, "reaction.csv"));
-      providerNarrative.write(openFileWriter(outputDirectory, "providernarrative.csv"));
-      localDrug.write(openFileWriter(outputDirectory, "localdrug.csv"));
-      nationalDrug.write(openFileWriter(outputDirectory, "nationaldrug.csv"));
-      dosageForm.write(openFileWriter(outputDirectory, "dosageform.csv"));
-      pharmacyOrderableItem.write(openFileWriter(outputDirectory, "pharmacyorderableitem.csv"));
-      orderableItem.write(openFileWriter(outputDirectory, "orderableitem.csv"));
-      orderStatus.write(openFileWriter(outputDirectory, "orderstatus.csv"));
-      vistaPackage.write(openFileWriter(outputDirectory, "vistapackage.csv"));
-      collectionsample.write(openFileWriter(outputDirectory, "collectionsample.csv"));
-      labchemtest.write(openFileWriter(outputDirectory, "labchemtest.csv"));
-      topography.write(openFileWriter(outputDirectory, "topography.csv"));
-      institution.write(openFileWriter(outputDirectory, "institution.csv"));
-      loinc.write(openFileWriter(outputDirectory, "loinc.csv"));
-      cpt.write(openFileWriter(outputDirectory, "cpt.csv"));
-      vitalType.write(openFileWriter(outputDirectory, "vitaltype.csv"));
+      for (Map.Entry<FactTable,String> table : factTables.entrySet()) {
+        if (table.getKey().isStreaming()) {
+          table.getKey().close();
+        } else {
+          try (FileWriter writer = openFileWriter(outputDirectory, table.getValue())) {
+            table.getKey().write(writer);
+          }
+        }
+      }
     } catch (IOException e) {
       // wrap the exception in a runtime exception.
       // the singleton pattern below doesn't work if the constructor can throw
@@ -1603,9 +1627,7 @@ public class CDWExporter {
   }
 
   private int getNextKey(FileWriter table) {
-    synchronized (sids) {
-      return sids.computeIfAbsent(table, k -> new AtomicInteger(sidStart)).getAndIncrement();
-    }
+    return sids.computeIfAbsent(table, k -> new AtomicInteger(sidStart)).getAndIncrement();
   }
   
   /**
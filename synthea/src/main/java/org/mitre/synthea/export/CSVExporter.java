@@ -6,13 +6,14 @@ import static org.mitre.synthea.export.ExportHelper.iso8601Timestamp;
 import com.google.gson.JsonObject;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.nio.file.Path;
 import java.util.*;
 
+import org.mitre.synthea.helpers.CsvTableWriter;
+import org.mitre.synthea.helpers.IdSequence;
 import org.mitre.synthea.helpers.Utilities;
 import org.mitre.synthea.world.agents.Person;
 import org.mitre.synthea.world.agents.Provider;
@@ -26,8 +27,6 @@ import org.mitre.synthea.world.concepts.HealthRecord.Medication;
 import org.mitre.synthea.world.concepts.HealthRecord.Observation;
 import org.mitre.synthea.world.concepts.HealthRecord.Procedure;
 
-import static org.mitre.synthea.helpers.Utilities.writeLine;
-
 /**
  * Researchers have requested a simple table-based format
  * that could easily be imported into any database for analysis.
@@ -45,67 +44,73 @@ public class CSVExporter {
   /**
    * Writer for patients.csv.
    */
-  private FileWriter patients;
+  private CsvTableWriter patients;
   /**
    * Writer for allergies.csv.
    */
-  private FileWriter allergies;
+  private CsvTableWriter allergies;
   /**
    * Writer for medications.csv.
    */
-  private FileWriter medications;
+  private CsvTableWriter medications;
   /**
    * Writer for conditions.csv.
    */
-  private FileWriter conditions;
+  private CsvTableWriter conditions;
   /**
    * Writer for careplans.csv.
    */
-  private FileWriter careplans;
+  private CsvTableWriter careplans;
   /**
    * Writer for observations.csv.
    */
-  private FileWriter observations;
+  private CsvTableWriter observations;
   /**
    * Writer for procedures.csv.
    */
-  private FileWriter procedures;
+  private CsvTableWriter procedures;
   /**
    * Writer for immunizations.csv.
    */
-  private FileWriter immunizations;
+  private CsvTableWriter immunizations;
   /**
    * Writer for encounters.csv.
    */
-  private FileWriter encounters;
+  private CsvTableWriter encounters;
   /**
    * Writer for imaging_studies.csv
    */
-  private FileWriter imagingStudies;
+  private CsvTableWriter imagingStudies;
   /**
    * Writer for attributes.csv
    */
-  private FileWriter attributes;
+  private CsvTableWriter attributes;
   /**
    * Writer for provider.csv
    */
-  private FileWriter providers;
+  private CsvTableWriter providers;
   /**
    * Writer for provider_attributes.csv
    */
-  private FileWriter providerAttributes;
+  private CsvTableWriter providerAttributes;
   /**
    * Writer for quality_of_life.csv
    */
-  private FileWriter qualityOfLife;
+  private CsvTableWriter qualityOfLife;
   /**
    * Writer for claim.csv
    */
-  private FileWriter claim;
+  private CsvTableWriter claim;
+  /**
+   * Every writer, to flush them at the end of the run.
+   */
+  private List<CsvTableWriter> tables;
   /**
    * System-dependent string for a line break. (\n on Mac, *nix, \r\n on Windows)
    */
   private static final String NEWLINE = System.lineSeparator();
+  /** Where this exporter's ids start in a person's sequence, see {@link IdSequence}. */
+  private static final long FIRST_ID = 2L << 40;
 
   private static final List<String> ATTRIBUTE_WHITELIST = Arrays.asList(new String[] {
                   "address",
@@ -175,38 +180,57 @@ public class CSVExporter {
       File output = Exporter.getOutputFolder("csv", null);
       output.mkdirs();
       Path outputDirectory = output.toPath();
-      File patientsFile = outputDirectory.resolve("patients.csv").toFile();
-      File allergiesFile = outputDirectory.resolve("allergies.csv").toFile();
-      File medicationsFile = outputDirectory.resolve("medications.csv").toFile();
-      File conditionsFile = outputDirectory.resolve("conditions.csv").toFile();
-      File careplansFile = outputDirectory.resolve("careplans.csv").toFile();
-      File observationsFile = outputDirectory.resolve("observations.csv").toFile();
-      File proceduresFile = outputDirectory.resolve("procedures.csv").toFile();
-      File immunizationsFile = outputDirectory.resolve("immunizations.csv").toFile();
-      File encountersFile = outputDirectory.resolve("encounters.csv").toFile();
-      File imagingStudiesFile = outputDirectory.resolve("imaging_studies.csv").toFile();
-      File attributesFile = outputDirectory.resolve("attributes.csv").toFile();
-      File providersFile = outputDirectory.resolve("providers.csv").toFile();
-      File providerAttributesFile = outputDirectory.resolve("provider_attributes.csv").toFile();
-      File qualityOfLifeFile = outputDirectory.resolve("quality_of_life.csv").toFile();
-      File claimFile = outputDirectory.resolve("claim.csv").toFile();
-
-      patients = new FileWriter(patientsFile);
-      allergies = new FileWriter(allergiesFile);
-      medications = new FileWriter(medicationsFile);
-      conditions = new FileWriter(conditionsFile);
-      careplans = new FileWriter(careplansFile);
-      observations = new FileWriter(observationsFile);
-      procedures = new FileWriter(proceduresFile);
-      immunizations = new FileWriter(immunizationsFile);
-      encounters = new FileWriter(encountersFile);
-      imagingStudies = new FileWriter(imagingStudiesFile);
-      attributes = new FileWriter(attributesFile);
-      providers = new FileWriter(providersFile);
-      providerAttributes = new FileWriter(providerAttributesFile);
-      qualityOfLife = new FileWriter(qualityOfLifeFile);
-      claim = new FileWriter(claimFile);
-      writeCSVHeaders();
+      ExportSettings settings = ExportSettings.get();
+      // in deterministic mode rows have to stay in the order people are exported
+      boolean perThread = !settings.deterministic;
+      tables = new ArrayList<>();
+
+      patients = table(outputDirectory.resolve("patients.csv").toFile(),
+          //"ID,BIRTHDATE,DEATHDATE,SSN,DRIVERS,PASSPORT,"
+          //+ "PREFIX,FIRST,LAST,SUFFIX,MAIDEN,MARITAL,RACE,ETHNICITY,GENDER,BIRTHPLACE,"
+          // + "ADDRESS,CITY,STATE,ZIP"
+          "id,name,date_of_birth,date_of_death,race,gender,zip,state,socioeconomic_status",
+          settings, perThread);
+      allergies = table(outputDirectory.resolve("allergies.csv").toFile(),
+          "START,STOP,PATIENT,ENCOUNTER,CODE,DESCRIPTION", settings, perThread);
+      medications = table(outputDirectory.resolve("medications.csv").toFile(),
+          //"START,STOP,PATIENT,ENCOUNTER,CODE,DESCRIPTION,COST,DISPENSES,TOTALCOST,"
+          //+ "REASONCODE,REASONDESCRIPTION"
+          "id,person_id,provider_id,encounter_id,name,type,start,stop,code,display,system,cost,"
+              + "dispenses,total_cost,reason_code,reason_description", settings, perThread);
+      conditions = table(outputDirectory.resolve("conditions.csv").toFile(),
+          "person_id,name,type,start,stop,code,display,system", settings, perThread);
+      careplans = table(outputDirectory.resolve("careplans.csv").toFile(),
+          "ID,START,STOP,PATIENT,ENCOUNTER,CODE,DESCRIPTION,REASONCODE,REASONDESCRIPTION",
+          settings, perThread);
+      observations = table(outputDirectory.resolve("observations.csv").toFile(),
+          //"DATE,PATIENT,ENCOUNTER,CODE,DESCRIPTION,VALUE,UNITS,TYPE"
+          "person_id,encounter_id,name,type,start,value,unit,code,display,system",
+          settings, perThread);
+      procedures = table(outputDirectory.resolve("procedures.csv").toFile(),
+          "DATE,PATIENT,ENCOUNTER,CODE,DESCRIPTION,COST,REASONCODE,REASONDESCRIPTION",
+          settings, perThread);
+      immunizations = table(outputDirectory.resolve("immunizations.csv").toFile(),
+          "DATE,PATIENT,ENCOUNTER,CODE,DESCRIPTION,COST", settings, perThread);
+      encounters = table(outputDirectory.resolve("encounters.csv").toFile(),
+          //"ID,START,STOP,PATIENT,ENCOUNTERCLASS,CODE,DESCRIPTION,COST,"
+          //+ "REASONCODE,REASONDESCRIPTION"
+          "id,person_id,provider_id,name,type,start,stop,code,display,system",
+          settings, perThread);
+      imagingStudies = table(outputDirectory.resolve("imaging_studies.csv").toFile(),
+          "ID,DATE,PATIENT,ENCOUNTER,BODYSITE_CODE,BODYSITE_DESCRIPTION,"
+              + "MODALITY_CODE,MODALITY_DESCRIPTION,SOP_CODE,SOP_DESCRIPTION",
+          settings, perThread);
+      attributes = table(outputDirectory.resolve("attributes.csv").toFile(),
+          "person_id,name,value", settings, perThread);
+      providers = table(outputDirectory.resolve("providers.csv").toFile(),
+          "id,name", settings, perThread);
+      providerAttributes = table(outputDirectory.resolve("provider_attributes.csv").toFile(),
+          "provider_id,name,value", settings, perThread);
+      qualityOfLife = table(outputDirectory.resolve("quality_of_life.csv").toFile(),
+          "person_id,year,qol,qaly,daly", settings, perThread);
+      claim = table(outputDirectory.resolve("claim.csv").toFile(),
+          "id,person_id,encounter_id,medication_id,time,cost", settings, perThread);
     } catch (IOException e) {
       // wrap the exception in a runtime exception.
       // the singleton pattern below doesn't work if the constructor can throw
@@ -216,54 +240,15 @@ public class CSVExporter {
   }
 
   /**
-   * Write the headers to each of the CSV files.
+   * Create the writer of one of the CSV files and write its header.
    * @throws IOException if any IO error occurs
-   *
    */
-  private void writeCSVHeaders() throws IOException {
-    patients.write(//"ID,BIRTHDATE,DEATHDATE,SSN,DRIVERS,PASSPORT,"
-        //+ "PREFIX,FIRST,LAST,SUFFIX,MAIDEN,MARITAL,RACE,ETHNICITY,GENDER,BIRTHPLACE,"
-       // + "ADDRESS,CITY,STATE,ZIP"
-      "id,name,date_of_birth,date_of_death,race,gender,zip,state,socioeconomic_status");
-    patients.write(NEWLINE);
-    allergies.write("START,STOP,PATIENT,ENCOUNTER,CODE,DESCRIPTION");
-    allergies.write(NEWLINE);
-    medications.write(
-        //"START,STOP,PATIENT,ENCOUNTER,CODE,DESCRIPTION,COST,DISPENSES,TOTALCOST,"
-        //+ "REASONCODE,REASONDESCRIPTION"
-            "id,person_id,provider_id,encounter_id,name,type,start,stop,code,display,system,cost,dispenses,total_cost,reason_code," +
-                    "reason_description"
-    );
-    medications.write(NEWLINE);
-    conditions.write("person_id,name,type,start,stop,code,display,system");
-    conditions.write(NEWLINE);
-    careplans.write(
-        "ID,START,STOP,PATIENT,ENCOUNTER,CODE,DESCRIPTION,REASONCODE,REASONDESCRIPTION");
-    careplans.write(NEWLINE);
-    observations.write(//"DATE,PATIENT,ENCOUNTER,CODE,DESCRIPTION,VALUE,UNITS,TYPE"
-            "person_id,encounter_id,name,type,start,value,unit,code,display,system" );
-    observations.write(NEWLINE);
-    procedures.write("DATE,PATIENT,ENCOUNTER,CODE,DESCRIPTION,COST,REASONCODE,REASONDESCRIPTION");
-    procedures.write(NEWLINE);
-    immunizations.write("DATE,PATIENT,ENCOUNTER,CODE,DESCRIPTION,COST");
-    immunizations.write(NEWLINE);
-    encounters.write(//"ID,START,STOP,PATIENT,ENCOUNTERCLASS,CODE,DESCRIPTION,COST,"
-        //+ "REASONCODE,REASONDESCRIPTION"
-            "id,person_id,provider_id,name,type,start,stop,code,display,system");
-    encounters.write(NEWLINE);
-    imagingStudies.write("ID,DATE,PATIENT,ENCOUNTER,BODYSITE_CODE,BODYSITE_DESCRIPTION,"
-        + "MODALITY_CODE,MODALITY_DESCRIPTION,SOP_CODE,SOP_DESCRIPTION");
-    imagingStudies.write(NEWLINE);
-    attributes.write("person_id,name,value");
-    attributes.write(NEWLINE);
-    providers.write("id,name");
-    providers.write(NEWLINE);
-    providerAttributes.write("provider_id,name,value");
-    providerAttributes.write(NEWLINE);
-    qualityOfLife.write("person_id,year,qol,qaly,daly");
-    qualityOfLife.write(NEWLINE);
-    claim.write("id,person_id,encounter_id,medication_id,time,cost");
-    claim.write(NEWLINE);
+  private CsvTableWriter table(File file, String header, ExportSettings settings,
+      boolean perThread) throws IOException {
+    CsvTableWriter table = new CsvTableWriter(file, header, settings.csvBufferSize, perThread,
+        settings.csvSharded, settings.csvMergeShards);
+    tables.add(table);
+    return table;
   }
 
   /**
@@ -293,9 +278,10 @@ public class CSVExporter {
    */
   public void export(Person person, long time) throws IOException {
     String personID = patient(person, time);
+    IdSequence ids = new IdSequence(person.recordSeed(), FIRST_ID);
 
     for (Encounter encounter : person.record.encounters) {
-      String encounterID = encounter(personID, encounter);
+      String encounterID = encounter(personID, encounter, ids);
 
       for (HealthRecord.Entry condition : encounter.conditions) {
         condition(personID, encounterID, condition);
@@ -314,7 +300,8 @@ public class CSVExporter {
       }
 
       for (Medication medication : encounter.medications) {
-        String medicationID = medication(personID, encounterID, encounter.provider, medication, time);
+        String medicationID =
+            medication(personID, encounterID, encounter.provider, medication, time, ids);
         // claim(personID, encounterID, medicationID, medication.start, medication.claim.total());
       }
 
@@ -323,11 +310,11 @@ public class CSVExporter {
       }
 
       for (CarePlan careplan : encounter.careplans) {
-        careplan(personID, encounterID, careplan);
+        careplan(personID, encounterID, careplan, ids);
       }
 
       for (ImagingStudy imagingStudy : encounter.imagingStudies) {
-        imagingStudy(personID, encounterID, imagingStudy);
+        imagingStudy(personID, encounterID, imagingStudy, ids);
       }
 
     }
@@ -353,21 +340,17 @@ public class CSVExporter {
     for (Integer year: qols.keySet()) {
       qualityOfLifeLn(personID, year, qols.get(year), qalys.get(year), dalys.get(year));
     }
-    patients.flush();
-    encounters.flush();
-    conditions.flush();
-    allergies.flush();
-    medications.flush();
-    careplans.flush();
-    observations.flush();
-    procedures.flush();
-    immunizations.flush();
-    imagingStudies.flush();
-    attributes.flush();
-    providers.flush();
-    providerAttributes.flush();
-    qualityOfLife.flush();
-    claim.flush();
+  }
+
+  /**
+   * Write out every buffered row, and merge each thread's files if the files are sharded.
+   * Call once every person has been exported.
+   * @throws IOException if any IO error occurs
+   */
+  public void flush() throws IOException {
+    for (CsvTableWriter table : tables) {
+      table.flush();
+    }
   }
 
   /**
@@ -417,7 +400,7 @@ public class CSVExporter {
     }
 
     s.append(NEWLINE);
-    writeLine(s.toString(), patients);
+    patients.write(s);
 
     return personID;
   }
@@ -427,15 +410,17 @@ public class CSVExporter {
    *
    * @param personID The ID of the person that had this encounter
    * @param encounter The encounter itself
+   * @param ids The person's ids
    * @return The encounter ID, to be referenced as a "foreign key" if necessary
    * @throws IOException if any IO error occurs
    */
-  private String encounter(String personID, Encounter encounter) throws IOException {
+  private String encounter(String personID, Encounter encounter, IdSequence ids)
+      throws IOException {
     // ID,START,STOP,PATIENT,ENCOUNTERCLASS,CODE,DESCRIPTION,COST,REASONCODE,REASONDESCRIPTION
     // id,person_id,provider_id,name,type,start,stop,code,display,system
     StringBuilder s = new StringBuilder();
 
-    String encounterID = UUID.randomUUID().toString();
+    String encounterID = ids.next();
     //ID
     s.append(encounterID).append(',');
     //PATIENT
@@ -470,7 +455,7 @@ public class CSVExporter {
     s.append(coding.system);
 
     s.append(NEWLINE);
-    writeLine(s.toString(), encounters);
+    encounters.write(s);
 
     return encounterID;
   }
@@ -504,7 +489,7 @@ public class CSVExporter {
     s.append(clean(coding.display)).append(',');
     s.append(coding.system);
     s.append(NEWLINE);
-    writeLine(s.toString(), conditions);
+    conditions.write(s);
   }
 
   /**
@@ -534,7 +519,7 @@ public class CSVExporter {
     s.append(clean(coding.display));
 
     s.append(NEWLINE);
-    writeLine(s.toString(), allergies);
+    allergies.write(s);
   }
 
   /**
@@ -580,7 +565,7 @@ public class CSVExporter {
     s.append(coding.system).append(',');
 
     s.append(NEWLINE);
-    writeLine(s.toString(), observations);
+    observations.write(s);
   }
 
   /**
@@ -616,7 +601,7 @@ public class CSVExporter {
     }
 
     s.append(NEWLINE);
-    writeLine(s.toString(), procedures);
+    procedures.write(s);
   }
 
   /**
@@ -627,17 +612,18 @@ public class CSVExporter {
    * @param provider Provider that prescribed the medication
    * @param medication The medication itself
    * @param stopTime End time
+   * @param ids The person's ids
    * @return medicationID The UUID for the medication
    * @throws IOException if any IO error occurs
    */
   private String medication(String personID, String encounterID, Provider provider,
-      Medication medication, long stopTime) throws IOException {
+      Medication medication, long stopTime, IdSequence ids) throws IOException {
     // START,STOP,PATIENT,ENCOUNTER,CODE,DESCRIPTION,
     // COST,DISPENSES,TOTALCOST,REASONCODE,REASONDESCRIPTION
 
     // id,person_id,provider_id,encounter_id,name,type,start,stop,code,display,system,cost,dispenses,total_cost,reasoncode,reason
     StringBuilder s = new StringBuilder();
-    String medicationID = UUID.randomUUID().toString();
+    String medicationID = ids.next();
     s.append(medicationID).append(',');
     s.append(personID).append(',');
     if (provider != null) {
@@ -709,7 +695,7 @@ public class CSVExporter {
     }
 
     s.append(NEWLINE);
-    writeLine(s.toString(), medications);
+    medications.write(s);
     return medicationID;
   }
 
@@ -738,7 +724,7 @@ public class CSVExporter {
     s.append(String.format(Locale.US, "%.2f", immunization.cost()));
 
     s.append(NEWLINE);
-    writeLine(s.toString(), immunizations);
+    immunizations.write(s);
   }
 
   /**
@@ -747,14 +733,15 @@ public class CSVExporter {
    * @param personID ID of the person prescribed the careplan.
    * @param encounterID ID of the encounter where the careplan was prescribed
    * @param careplan The careplan itself
+   * @param ids The person's ids
    * @throws IOException if any IO error occurs
    */
   private String careplan(String personID, String encounterID,
-      CarePlan careplan) throws IOException {
+      CarePlan careplan, IdSequence ids) throws IOException {
     // ID,START,STOP,PATIENT,ENCOUNTER,CODE,DESCRIPTION,REASONCODE,REASONDESCRIPTION
     StringBuilder s = new StringBuilder();
 
-    String careplanID = UUID.randomUUID().toString();
+    String careplanID = ids.next();
     s.append(careplanID).append(',');
     s.append(dateFromTimestamp(careplan.start)).append(',');
     if (careplan.stop != 0L) {
@@ -778,7 +765,7 @@ public class CSVExporter {
     }
     s.append(NEWLINE);
 
-    writeLine(s.toString(), careplans);
+    careplans.write(s);
 
     return careplanID;
   }
@@ -789,15 +776,16 @@ public class CSVExporter {
    * @param personID ID of the person the ImagingStudy was taken of.
    * @param encounterID ID of the encounter where the ImagingStudy was performed
    * @param imagingStudy The ImagingStudy itself
+   * @param ids The person's ids
    * @throws IOException if any IO error occurs
    */
   private String imagingStudy(String personID, String encounterID,
-      ImagingStudy imagingStudy) throws IOException {
+      ImagingStudy imagingStudy, IdSequence ids) throws IOException {
     // ID,DATE,PATIENT,ENCOUNTER,BODYSITE_CODE,BODYSITE_DESCRIPTION,
     // MODALITY_CODE,MODALITY_DESCRIPTION,SOP_CODE,SOP_DESCRIPTION
     StringBuilder s = new StringBuilder();
 
-    String studyID = UUID.randomUUID().toString();
+    String studyID = ids.next();
     s.append(studyID).append(',');
     s.append(dateFromTimestamp(imagingStudy.start)).append(',');
     s.append(personID).append(',');
@@ -821,7 +809,7 @@ public class CSVExporter {
 
     s.append(NEWLINE);
 
-    writeLine(s.toString(), imagingStudies);
+    imagingStudies.write(s);
 
     return studyID;
   }
@@ -846,7 +834,7 @@ public class CSVExporter {
     s.append(String.valueOf(attrValue));
     s.append(NEWLINE);
 
-    writeLine(s.toString(), attributes);
+    attributes.write(s);
   }
 
   /**
@@ -864,7 +852,7 @@ public class CSVExporter {
 
     s.append(NEWLINE);
 
-    writeLine(s.toString(), providers);
+    providers.write(s);
   }
 
   /**
@@ -885,7 +873,7 @@ public class CSVExporter {
 
     s.append(NEWLINE);
 
-    writeLine(s.toString(), providerAttributes);
+    providerAttributes.write(s);
   }
 
   /**
@@ -911,7 +899,7 @@ public class CSVExporter {
 
     s.append(NEWLINE);
 
-    writeLine(s.toString(), qualityOfLife);
+    qualityOfLife.write(s);
   }
 
   /**
@@ -922,15 +910,16 @@ public class CSVExporter {
    * @param medicationID Medication ID
    * @param time Time for the claim
    * @param cost Cost for the claim
+   * @param ids The person's ids
    * @throws IOException if an I/O error occurs
    */
-  private void claim(String personID, String encounterID, String medicationID, long time, BigDecimal cost)
-    throws IOException {
+  private void claim(String personID, String encounterID, String medicationID, long time,
+      BigDecimal cost, IdSequence ids) throws IOException {
     // id,person_id,encounter_id,medication_id,time,cost
 
     StringBuilder s = new StringBuilder();
 
-    s.append(UUID.randomUUID().toString()).append(',');
+    s.append(ids.next()).append(',');
     s.append(personID).append(',');
     s.append(encounterID).append(',');
     s.append(medicationID).append(',');
@@ -939,7 +928,7 @@ public class CSVExporter {
 
     s.append(NEWLINE);
 
-    writeLine(s.toString(), claim);
+    claim.write(s);
   }
   /**
    * Replaces commas and line breaks in the source string with a single space.
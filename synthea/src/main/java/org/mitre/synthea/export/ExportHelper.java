@@ -1,9 +1,12 @@
 package org.mitre.synthea.export;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.zone.ZoneRules;
 import java.util.Locale;
-import java.util.TimeZone;
 
 import org.hl7.fhir.dstu3.model.Condition;
 import org.mitre.synthea.world.concepts.HealthRecord;
@@ -95,33 +98,43 @@ public abstract class ExportHelper {
   }
 
   /**
-   * Year-Month-Day date format.
+   * Time zone of the dates from dateFromTimestamp, the default when the class is loaded.
    */
-  private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd");
+  private static final ZoneRules DATE_ZONE = ZoneId.systemDefault().getRules();
 
-  /**
-   * Iso8601 date time format.
-   */
-  private static final SimpleDateFormat ISO_DATE_FORMAT = iso();
+  private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
 
   /**
-   * Create a SimpleDateFormat for iso8601.
-   * @return Iso8601 date time format.
+   * The last date formatted on each thread. Most events of a patient are exported one encounter
+   * at a time, so many dates in a row fall on the same day.
    */
-  private static final SimpleDateFormat iso() {
-    SimpleDateFormat f = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-    f.setTimeZone(TimeZone.getTimeZone("UTC"));
-    return f;
-  }
+  private static final ThreadLocal<Object[]> LAST_DATE =
+      ThreadLocal.withInitial(() -> new Object[] {Long.MIN_VALUE, null});
 
   /**
    * Get a date string in the format YYYY-MM-DD from the given time stamp.
    */
   public static String dateFromTimestamp(long time) {
-    synchronized (DATE_FORMAT) {
-      // http://bugs.java.com/bugdatabase/view_bug.do?bug_id=6231579
-      return DATE_FORMAT.format(new Date(time));
+    long day = localEpochDay(time);
+    Object[] last = LAST_DATE.get();
+    if ((long) last[0] != day) {
+      char[] chars = new char[10];
+      if (!writeDate(chars, day)) {
+        return LocalDate.ofEpochDay(day).toString();
+      }
+      last[0] = day;
+      last[1] = new String(chars);
     }
+    return (String) last[1];
+  }
+
+  /**
+   * The number of days from 1970-01-01 to the date of the given time stamp, in the time zone of
+   * dateFromTimestamp.
+   */
+  public static long localEpochDay(long time) {
+    int offset = DATE_ZONE.getOffset(Instant.ofEpochMilli(time)).getTotalSeconds();
+    return Math.floorDiv(time + offset * 1000L, DAY_MILLIS);
   }
 
   public static int daysSinceUnixEpoch(long time) {
@@ -132,10 +145,47 @@ public abstract class ExportHelper {
    * Get an iso8601 string for the given time stamp.
    */
   public static String iso8601Timestamp(long time) {
-    synchronized (ISO_DATE_FORMAT) {
-      // http://bugs.java.com/bugdatabase/view_bug.do?bug_id=6231579
-      return ISO_DATE_FORMAT.format(new Date(time));
+    long seconds = Math.floorDiv(time, 1000L);
+    long day = Math.floorDiv(seconds, 86400L);
+    int secondOfDay = (int) Math.floorMod(seconds, 86400L);
+    // yyyy-MM-ddTHH:mm:ssZ
+    char[] chars = new char[20];
+    if (!writeDate(chars, day)) {
+      return DateTimeFormatter.ofPattern("uuuu-MM-dd'T'HH:mm:ss'Z'")
+          .format(Instant.ofEpochSecond(seconds).atOffset(ZoneOffset.UTC));
     }
+    chars[10] = 'T';
+    writeTwoDigits(chars, 11, secondOfDay / 3600);
+    chars[13] = ':';
+    writeTwoDigits(chars, 14, secondOfDay / 60 % 60);
+    chars[16] = ':';
+    writeTwoDigits(chars, 17, secondOfDay % 60);
+    chars[19] = 'Z';
+    return new String(chars);
+  }
+
+  /**
+   * Write yyyy-MM-dd to the start of the given array.
+   * @return false if the year doesn't have four digits
+   */
+  private static boolean writeDate(char[] chars, long epochDay) {
+    LocalDate date = LocalDate.ofEpochDay(epochDay);
+    int year = date.getYear();
+    if (year < 0 || year > 9999) {
+      return false;
+    }
+    writeTwoDigits(chars, 0, year / 100);
+    writeTwoDigits(chars, 2, year % 100);
+    chars[4] = '-';
+    writeTwoDigits(chars, 5, date.getMonthValue());
+    chars[7] = '-';
+    writeTwoDigits(chars, 8, date.getDayOfMonth());
+    return true;
+  }
+
+  private static void writeTwoDigits(char[] chars, int index, int value) {
+    chars[index] = (char) ('0' + value / 10);
+    chars[index + 1] = (char) ('0' + value % 10);
   }
 
   private static final String SNOMED_URI = "http://snomed.info/sct";
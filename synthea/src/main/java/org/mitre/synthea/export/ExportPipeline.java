@@ -0,0 +1,191 @@
+package org.mitre.synthea.export;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.mitre.synthea.helpers.Config;
+import org.mitre.synthea.world.agents.Person;
+
+/**
+ * A bounded export stage that runs {@link Exporter#export} on dedicated exporter threads,
+ * so the simulation threads can hand off a finished person and start on the next one
+ * instead of waiting on serialization and file I/O.
+ * When the queue is full, {@link #submit} blocks until an exporter thread catches up,
+ * which keeps the number of finished but unexported people (and their memory) bounded.
+ * See the configuration settings "exporter.pipeline.queue_size" and
+ * "exporter.pipeline.threads".
+ */
+public class ExportPipeline implements AutoCloseable {
+
+  /** Placed on the queue once per exporter thread to tell it to stop. */
+  private static final Job POISON = new Job(-1, null, 0L);
+
+  private final BlockingQueue<Job> queue;
+  private final List<Thread> threads;
+  private final AtomicLong submitted = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private final Set<Integer> failedIndexes = ConcurrentHashMap.newKeySet();
+  private volatile boolean closed;
+
+  private static class Job {
+    private final int index;
+    private final Person person;
+    private final long stopTime;
+
+    private Job(int index, Person person, long stopTime) {
+      this.index = index;
+      this.person = person;
+      this.stopTime = stopTime;
+    }
+  }
+
+  /**
+   * Whether the export pipeline is enabled in the configuration.
+   * @return true if "exporter.pipeline.enabled" is set.
+   */
+  public static boolean isEnabled() {
+    return Boolean.parseBoolean(Config.get("exporter.pipeline.enabled", "false"));
+  }
+
+  /**
+   * Create and start an export pipeline using the configured queue size and thread count.
+   * In deterministic mode there is only one exporter thread, so people are exported in the
+   * order they are submitted.
+   */
+  public ExportPipeline() {
+    this(Integer.parseInt(Config.get("exporter.pipeline.queue_size", "64")),
+        ExportSettings.get().deterministic ? 1
+            : Integer.parseInt(Config.get("exporter.pipeline.threads", "2")));
+  }
+
+  /**
+   * Create and start an export pipeline.
+   *
+   * @param queueSize Maximum number of people waiting to be exported.
+   * @param threadCount Number of exporter threads.
+   */
+  public ExportPipeline(int queueSize, int threadCount) {
+    if (queueSize < 1 || threadCount < 1) {
+      throw new IllegalArgumentException("Export pipeline needs a queue size and thread count of "
+          + "at least 1, got " + queueSize + " and " + threadCount);
+    }
+    this.queue = new ArrayBlockingQueue<>(queueSize);
+    this.threads = new ArrayList<>(threadCount);
+    for (int i = 0; i < threadCount; i++) {
+      Thread thread = new Thread(this::exportLoop, "exporter-" + i);
+      threads.add(thread);
+      thread.start();
+    }
+  }
+
+  /**
+   * Queue a person for export, blocking while the queue is full.
+   * The person must not be modified by the caller afterwards, since export is destructive.
+   *
+   * @param person The person to export.
+   * @param stopTime Time at which the simulation stopped.
+   */
+  public void submit(Person person, long stopTime) {
+    submit(-1, person, stopTime);
+  }
+
+  /**
+   * Queue a person for export, blocking while the queue is full. If the export fails,
+   * the index is reported by {@link #getFailedIndexes}.
+   * The person must not be modified by the caller afterwards, since export is destructive.
+   *
+   * @param index The patient index the person was generated for.
+   * @param person The person to export.
+   * @param stopTime Time at which the simulation stopped.
+   */
+  public void submit(int index, Person person, long stopTime) {
+    if (closed) {
+      throw new IllegalStateException("Export pipeline has already been closed");
+    }
+    try {
+      queue.put(new Job(index, person, stopTime));
+      submitted.incrementAndGet();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting to export a person", e);
+    }
+  }
+
+  private void exportLoop() {
+    while (true) {
+      Job job;
+      try {
+        job = queue.take();
+      } catch (InterruptedException e) {
+        return;
+      }
+      if (job == POISON) {
+        return;
+      }
+      try {
+        Exporter.export(job.person, job.stopTime);
+      } catch (Throwable e) {
+        // one bad record shouldn't stop the rest of the population from being exported
+        failed.incrementAndGet();
+        if (job.index >= 0) {
+          failedIndexes.add(job.index);
+        }
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Get the number of people submitted for export so far.
+   * @return Number of people submitted.
+   */
+  public long getSubmitted() {
+    return submitted.get();
+  }
+
+  /**
+   * Get the number of people whose export threw an exception.
+   * @return Number of failed exports.
+   */
+  public long getFailed() {
+    return failed.get();
+  }
+
+  /**
+   * Get the patient indexes of the people whose export threw an exception, for the people
+   * submitted with an index.
+   * @return The failed indexes.
+   */
+  public Set<Integer> getFailedIndexes() {
+    return Collections.unmodifiableSet(failedIndexes);
+  }
+
+  /**
+   * Wait for every queued person to be exported, then stop the exporter threads.
+   * This must be called before any post completion exports are run.
+   */
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      for (int i = 0; i < threads.size(); i++) {
+        queue.put(POISON);
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for exports to finish", e);
+    }
+  }
+}
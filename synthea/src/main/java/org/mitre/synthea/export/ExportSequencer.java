@@ -0,0 +1,161 @@
+package org.mitre.synthea.export;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.mitre.synthea.world.agents.Person;
+
+/**
+ * Puts exports back into patient index order for deterministic mode ("generate.deterministic").
+ * People are simulated in parallel and finish in whatever order the threads get to them, but
+ * the exporters hand out sequential ids (CDW keys, fact table ids), batch patients into files
+ * (Parquet) and append rows to shared files (CSV). Exporting in index order makes all of those
+ * depend only on the seed and the range of indexes generated, not on thread scheduling.
+ *
+ * <p>Each simulation thread {@link #add}s the records for an index (a dead person followed by
+ * their replacements, in the order they were generated) and then {@link #complete}s the index.
+ * Whichever thread completes the next index in line exports everything that is ready, while
+ * the other threads carry on simulating. Threads that get too far ahead of the next index
+ * wait in {@link #complete}, which keeps the number of finished but unexported people bounded.
+ */
+public class ExportSequencer {
+
+  private final IndexedExporter exporter;
+  private final int maxPending;
+  private final Map<Integer, List<Job>> started = new HashMap<>();
+  private final Map<Integer, List<Job>> ready = new HashMap<>();
+  private int next;
+  private int pending;
+  private boolean draining;
+  private final Set<Integer> failedIndexes = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Exports a person generated for a patient index.
+   */
+  @FunctionalInterface
+  public interface IndexedExporter {
+    /**
+     * Export a person.
+     *
+     * @param index The patient index the person was generated for.
+     * @param person The person to export.
+     * @param stopTime Time at which the simulation stopped.
+     */
+    void export(int index, Person person, long stopTime);
+  }
+
+  private static class Job {
+    private final Person person;
+    private final long stopTime;
+
+    private Job(Person person, long stopTime) {
+      this.person = person;
+      this.stopTime = stopTime;
+    }
+  }
+
+  /**
+   * Create a sequencer.
+   *
+   * @param firstIndex The first patient index that will be generated.
+   * @param maxPending Maximum number of people waiting for an earlier index to be exported.
+   * @param exporter Called with each index, person and stop time, in order, e.g. to call
+   *     Exporter.export or the submit method of an ExportPipeline with a single exporter thread.
+   */
+  public ExportSequencer(int firstIndex, int maxPending, IndexedExporter exporter) {
+    this.next = firstIndex;
+    this.maxPending = Math.max(1, maxPending);
+    this.exporter = exporter;
+  }
+
+  /**
+   * Queue a person for export once every earlier index has been exported.
+   *
+   * @param index The patient index the person was generated for.
+   * @param person The person to export.
+   * @param stopTime Time at which the simulation stopped.
+   */
+  public synchronized void add(int index, Person person, long stopTime) {
+    started.computeIfAbsent(index, i -> new ArrayList<>()).add(new Job(person, stopTime));
+    pending++;
+  }
+
+  /**
+   * Mark an index as finished. Every person added for it is exported, in the order they
+   * were added, after all earlier indexes.
+   *
+   * @param index The patient index that is finished.
+   */
+  public void complete(int index) {
+    synchronized (this) {
+      List<Job> jobs = started.remove(index);
+      ready.put(index, jobs == null ? new ArrayList<>() : jobs);
+      // the thread pool starts indexes in order, so every earlier index is already being
+      // simulated by a thread that isn't waiting here and will eventually complete it
+      while (pending > maxPending && index > next) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IllegalStateException("Interrupted while waiting to export a person", e);
+        }
+      }
+      if (draining) {
+        // another thread is already exporting and will pick this index up when it is next
+        return;
+      }
+      draining = true;
+    }
+    drain();
+  }
+
+  private void drain() {
+    while (true) {
+      List<Job> jobs;
+      int index;
+      synchronized (this) {
+        index = next;
+        jobs = ready.remove(index);
+        if (jobs == null) {
+          draining = false;
+          return;
+        }
+        next++;
+      }
+      for (Job job : jobs) {
+        try {
+          exporter.export(index, job.person, job.stopTime);
+        } catch (Throwable e) {
+          // one bad record shouldn't stop the rest of the population from being exported
+          failedIndexes.add(index);
+          e.printStackTrace();
+        }
+      }
+      synchronized (this) {
+        pending -= jobs.size();
+        notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Get the index of the next patient to be exported.
+   * @return The lowest index that has not been exported yet.
+   */
+  public synchronized int getNext() {
+    return next;
+  }
+
+  /**
+   * Get the patient indexes with a person whose export threw an exception.
+   * @return The failed indexes.
+   */
+  public Set<Integer> getFailedIndexes() {
+    return Collections.unmodifiableSet(failedIndexes);
+  }
+}
@@ -0,0 +1,198 @@
+package org.mitre.synthea.export;
+
+import java.io.File;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.mitre.synthea.helpers.Config;
+import org.mitre.synthea.helpers.ParquetWriter;
+
+/**
+ * An immutable snapshot of the export configuration settings, parsed once instead of
+ * looked up and parsed from {@link Config} for every exported patient.
+ * The snapshot is rebuilt automatically the first time it is requested after the
+ * configuration changes (e.g. a test calling Config.set), and can be rebuilt explicitly
+ * with {@link #refresh()}.
+ */
+public final class ExportSettings {
+
+  private static volatile ExportSettings current;
+
+  /** The Config version this snapshot was built from. */
+  private final long configVersion;
+
+  /**
+   * Whether "generate.deterministic" is set, so ids and export order only depend on the seed
+   * and each patient's index, not on thread scheduling.
+   */
+  public final boolean deterministic;
+
+  public final String baseDirectory;
+  public final boolean subfoldersByIdSubstring;
+  public final boolean useUuidFilenames;
+  public final int yearsOfHistory;
+  public final boolean splitRecords;
+
+  public final boolean fhirStu3;
+  public final boolean fhirDstu2;
+  public final boolean fhirR4;
+  public final boolean fhirBulkData;
+  public final int fhirBulkBufferSize;
+  public final boolean fhirBulkSharded;
+  public final long fhirBulkMaxFileSize;
+  public final boolean fhirStreamJson;
+  public final boolean ccda;
+  public final boolean csv;
+  public final int csvBufferSize;
+  public final boolean csvSharded;
+  public final boolean csvMergeShards;
+  public final boolean parquet;
+  /** The Parquet settings below are only read, and only set, when parquet is true. */
+  public final ParquetWriter.Options parquetOptions;
+  public final long parquetMaxFileSize;
+  public final int parquetBatchSize;
+  public final boolean parquetTypedSchema;
+  public final boolean parquetPartitioned;
+  public final int parquetPartitionBufferRows;
+  public final int parquetCommitInterval;
+  public final boolean text;
+  public final boolean textPerEncounter;
+  public final boolean cdw;
+  public final boolean cdwStreamFactTables;
+
+  /** Output folders known to exist, so they are only created once per snapshot. */
+  private final Set<File> createdFolders = ConcurrentHashMap.newKeySet();
+
+  private ExportSettings() {
+    configVersion = Config.getVersion();
+    deterministic = flag("generate.deterministic");
+
+    baseDirectory = Config.get("exporter.baseDirectory");
+    subfoldersByIdSubstring = flag("exporter.subfolders_by_id_substring");
+    useUuidFilenames = flag("exporter.use_uuid_filenames");
+    yearsOfHistory = Integer.parseInt(Config.get("exporter.years_of_history", "0"));
+    splitRecords = flag("exporter.split_records");
+
+    fhirStu3 = flag("exporter.fhir_stu3.export");
+    fhirDstu2 = flag("exporter.fhir_dstu2.export");
+    fhirR4 = flag("exporter.fhir.export");
+    fhirBulkData = flag("exporter.fhir.bulk_data");
+    fhirBulkBufferSize =
+        Integer.parseInt(Config.get("exporter.fhir.bulk_data.buffer_size", "65536"));
+    fhirBulkSharded = flag("exporter.fhir.bulk_data.sharded");
+    fhirBulkMaxFileSize =
+        Long.parseLong(Config.get("exporter.fhir.bulk_data.max_file_size", "0"));
+    fhirStreamJson = flag("exporter.fhir.stream_json");
+    ccda = flag("exporter.ccda.export");
+    csv = flag("exporter.csv.export");
+    csvBufferSize = Integer.parseInt(Config.get("exporter.csv.buffer_size", "65536"));
+    csvSharded = flag("exporter.csv.sharded");
+    csvMergeShards = Boolean.parseBoolean(Config.get("exporter.csv.merge_shards", "true"));
+    parquet = flag("exporter.parquet.export");
+    if (parquet) {
+      // only read when the Parquet export is on: every other exporter reads these settings
+      // as well, so a bad Parquet setting must not fail them
+      parquetOptions = new ParquetWriter.Options(
+          parquetCodec(Config.get("exporter.parquet.codec", "SNAPPY")),
+          Integer.parseInt(Config.get("exporter.parquet.row_group_size", "33554432")),
+          Integer.parseInt(Config.get("exporter.parquet.page_size", "1048576")),
+          Boolean.parseBoolean(Config.get("exporter.parquet.dictionary", "true")));
+      checkBloomFilterColumns(Config.get("exporter.parquet.bloom_filter_columns", ""));
+      parquetMaxFileSize =
+          Long.parseLong(Config.get("exporter.parquet.max_file_size", "268435456"));
+      parquetBatchSize =
+          Integer.parseInt(Config.get("exporter.parquet.batch_size", "10000"));
+      parquetTypedSchema = flag("exporter.parquet.typed_schema");
+      parquetPartitioned = flag("exporter.parquet.partitioned");
+      parquetPartitionBufferRows =
+          Integer.parseInt(Config.get("exporter.parquet.partition_buffer_rows", "1000000"));
+      parquetCommitInterval =
+          Integer.parseInt(Config.get("exporter.parquet.commit_interval", "0"));
+    } else {
+      parquetOptions = null;
+      parquetMaxFileSize = 0L;
+      parquetBatchSize = 0;
+      parquetTypedSchema = false;
+      parquetPartitioned = false;
+      parquetPartitionBufferRows = 0;
+      parquetCommitInterval = 0;
+    }
+    text = flag("exporter.text.export");
+    textPerEncounter = flag("exporter.text.per_encounter_export");
+    cdw = flag("exporter.cdw.export");
+    cdwStreamFactTables = flag("exporter.cdw.stream_fact_tables");
+  }
+
+  private static boolean flag(String key) {
+    return Boolean.parseBoolean(Config.get(key, "false"));
+  }
+
+  /**
+   * Bloom filters are only written by parquet-mr 1.12 and later. This build uses 1.10, which
+   * ignores the setting, so columns are rejected rather than silently written without them.
+   */
+  static void checkBloomFilterColumns(String value) {
+    if (!value.trim().isEmpty()) {
+      throw new IllegalArgumentException("Unsupported exporter.parquet.bloom_filter_columns: "
+          + value + ", bloom filters need parquet-mr 1.12 or later and this build uses 1.10");
+    }
+  }
+
+  /**
+   * Parse the Parquet compression codec, one of SNAPPY, GZIP, ZSTD or UNCOMPRESSED
+   * (NONE is accepted as well).
+   */
+  static CompressionCodecName parquetCodec(String value) {
+    String codec = value.trim().toUpperCase(Locale.ROOT);
+    switch (codec) {
+      case "NONE":
+      case "UNCOMPRESSED":
+        return CompressionCodecName.UNCOMPRESSED;
+      case "SNAPPY":
+      case "GZIP":
+      case "ZSTD":
+        return CompressionCodecName.valueOf(codec);
+      default:
+        throw new IllegalArgumentException("Unsupported exporter.parquet.codec: " + value
+            + ", expected SNAPPY, GZIP, ZSTD or UNCOMPRESSED");
+    }
+  }
+
+  /**
+   * Get the current export settings, rebuilding them if the configuration has changed
+   * since they were last read.
+   *
+   * @return the current export settings
+   */
+  public static ExportSettings get() {
+    ExportSettings settings = current;
+    if (settings == null || settings.configVersion != Config.getVersion()) {
+      settings = refresh();
+    }
+    return settings;
+  }
+
+  /**
+   * Re-read the export settings from the configuration.
+   *
+   * @return the new export settings
+   */
+  public static synchronized ExportSettings refresh() {
+    current = new ExportSettings();
+    return current;
+  }
+
+  /**
+   * Create the given folder (and any parents) unless this snapshot has already done so.
+   *
+   * @param folder The folder to create.
+   */
+  void mkdirs(File folder) {
+    if (!createdFolders.contains(folder)) {
+      folder.mkdirs();
+      createdFolders.add(folder);
+    }
+  }
+}
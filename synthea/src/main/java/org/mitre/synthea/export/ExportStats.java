@@ -0,0 +1,70 @@
+package org.mitre.synthea.export;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Throughput counters for each export format. Every exporter invoked by
+ * {@link Exporter#export} records how many records it wrote and how long it took,
+ * so slow formats can be identified and given more exporter threads.
+ */
+public final class ExportStats {
+
+  private static final Map<String, Counter> COUNTERS = new ConcurrentHashMap<>();
+
+  private ExportStats() {}
+
+  private static class Counter {
+    private final LongAdder records = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+  }
+
+  /**
+   * Record that one record was exported in the given format.
+   *
+   * @param format Name of the export format, e.g. "fhir" or "csv".
+   * @param startNanos Value of System.nanoTime() when the export started.
+   */
+  public static void record(String format, long startNanos) {
+    Counter counter = COUNTERS.computeIfAbsent(format, k -> new Counter());
+    counter.records.increment();
+    counter.nanos.add(System.nanoTime() - startNanos);
+  }
+
+  /**
+   * Get the number of records exported in the given format since the last reset.
+   *
+   * @param format Name of the export format.
+   * @return Number of records exported.
+   */
+  public static long count(String format) {
+    Counter counter = COUNTERS.get(format);
+    return counter == null ? 0L : counter.records.sum();
+  }
+
+  /**
+   * Clear all counters, e.g. at the start of a new run.
+   */
+  public static void reset() {
+    COUNTERS.clear();
+  }
+
+  /**
+   * Summarize the counters as "format: records (ms/record)", sorted by format name.
+   *
+   * @return Summary of all formats exported since the last reset.
+   */
+  public static String summary() {
+    Map<String, String> summary = new TreeMap<>();
+    for (Map.Entry<String, Counter> entry : COUNTERS.entrySet()) {
+      long records = entry.getValue().records.sum();
+      long millis = TimeUnit.NANOSECONDS.toMillis(entry.getValue().nanos.sum());
+      double perRecord = records == 0 ? 0.0 : (double) millis / records;
+      summary.put(entry.getKey(), String.format("%d (%.2f ms/record)", records, perRecord));
+    }
+    return summary.toString();
+  }
+}
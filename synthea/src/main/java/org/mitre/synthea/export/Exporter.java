@@ -1,15 +1,20 @@
 package org.mitre.synthea.export;
 
-import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.parser.IParser;
+import freemarker.template.TemplateException;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -34,19 +39,31 @@ public abstract class Exporter {
    * @param stopTime Time at which the simulation stopped
    */
   public static void export(Person person, long stopTime) {
-    int yearsOfHistory = Integer.parseInt(Config.get("exporter.years_of_history"));
-    if (yearsOfHistory > 0) {
-      person = filterForExport(person, yearsOfHistory, stopTime);
+    ExportSettings settings = ExportSettings.get();
+    if (settings.yearsOfHistory > 0) {
+      person = filterForExport(person, settings.yearsOfHistory, stopTime);
     }
+    IOException parquetFailure = null;
     if (person.hasMultipleRecords) {
       int i = 0;
       for (String key : person.records.keySet()) {
         person.record = person.records.get(key);
-        exportRecord(person, Integer.toString(i), stopTime);
+        person.recordIndex = i;
+        IOException e = exportRecord(person, Integer.toString(i), stopTime, settings);
+        if (parquetFailure == null) {
+          parquetFailure = e;
+        }
         i++;
       }
+      person.recordIndex = 0;
     } else {
-      exportRecord(person, "", stopTime);
+      parquetFailure = exportRecord(person, "", stopTime, settings);
+    }
+    if (parquetFailure != null) {
+      // the person's rows may be missing from the staged Parquet files, so the index must not
+      // be committed to the manifest: let the caller record the failure, now that every other
+      // format and record has been written
+      throw new UncheckedIOException(parquetFailure);
     }
   }
   /**
@@ -55,107 +72,166 @@ public abstract class Exporter {
    *
    * @param person   Patient to export
    * @param stopTime Time at which the simulation stopped
+   * @param settings Export settings to use
+   * @return The exception the Parquet export threw, if the commit manifest is in use and the
+   *     caller has to record the failure, otherwise null
    */
-  private static void exportRecord(Person person, String fileTag, long stopTime) {
-    int yearsOfHistory = Integer.parseInt(Config.get("exporter.years_of_history"));
-    if (yearsOfHistory > 0) {
-      person = filterForExport(person, yearsOfHistory, stopTime);
-    }
-    if (Boolean.parseBoolean(Config.get("exporter.fhir_stu3.export"))) {
+  private static IOException exportRecord(Person person, String fileTag, long stopTime,
+      ExportSettings settings) {
+    IOException parquetFailure = null;
+    if (settings.yearsOfHistory > 0) {
+      person = filterForExport(person, settings.yearsOfHistory, stopTime);
+    }
+    if (settings.fhirStu3) {
+      long start = System.nanoTime();
       File outDirectory = getOutputFolder("fhir_stu3", person);
-      if (Boolean.parseBoolean(Config.get("exporter.fhir.bulk_data"))) {
+      if (settings.fhirBulkData) {
         org.hl7.fhir.dstu3.model.Bundle bundle = FhirStu3.convertToFHIR(person, stopTime);
-        IParser parser = FhirContext.forDstu3().newJsonParser().setPrettyPrint(false);
-        for (org.hl7.fhir.dstu3.model.Bundle.BundleEntryComponent entry : bundle.getEntry()) {
-          String filename = entry.getResource().getResourceType().toString() + ".ndjson";
-          Path outFilePath = outDirectory.toPath().resolve(filename);
-          String entryJson = parser.encodeResourceToString(entry.getResource());
-          appendToFile(outFilePath, entryJson);
+        IParser parser = BulkDataExporter.STU3_PARSER.get();
+        try {
+          for (org.hl7.fhir.dstu3.model.Bundle.BundleEntryComponent entry : bundle.getEntry()) {
+            String entryJson = parser.encodeResourceToString(entry.getResource());
+            String resourceType = entry.getResource().getResourceType().toString();
+            BulkDataExporter.write(outDirectory, resourceType, entryJson, settings);
+          }
+        } catch (IOException e) {
+          e.printStackTrace();
         }
       } else {
         String bundleJson = FhirStu3.convertToFHIRJson(person, stopTime);
         Path outFilePath = outDirectory.toPath().resolve(filename(person, fileTag, "json"));
         writeNewFile(outFilePath, bundleJson);
       }
+      ExportStats.record("fhir_stu3", start);
     }
-    if (Boolean.parseBoolean(Config.get("exporter.fhir_dstu2.export"))) {
+    if (settings.fhirDstu2) {
+      long start = System.nanoTime();
       File outDirectory = getOutputFolder("fhir_dstu2", person);
-      if (Boolean.parseBoolean(Config.get("exporter.fhir.bulk_data"))) {
+      if (settings.fhirBulkData) {
         ca.uhn.fhir.model.dstu2.resource.Bundle bundle = FhirDstu2.convertToFHIR(person, stopTime);
-        IParser parser = FhirContext.forDstu2().newJsonParser().setPrettyPrint(false);
-        for (ca.uhn.fhir.model.dstu2.resource.Bundle.Entry entry : bundle.getEntry()) {
-          String filename = entry.getResource().getResourceName() + ".ndjson";
-          Path outFilePath = outDirectory.toPath().resolve(filename);
-          String entryJson = parser.encodeResourceToString(entry.getResource());
-          appendToFile(outFilePath, entryJson);
+        IParser parser = BulkDataExporter.DSTU2_PARSER.get();
+        try {
+          for (ca.uhn.fhir.model.dstu2.resource.Bundle.Entry entry : bundle.getEntry()) {
+            String entryJson = parser.encodeResourceToString(entry.getResource());
+            String resourceType = entry.getResource().getResourceName();
+            BulkDataExporter.write(outDirectory, resourceType, entryJson, settings);
+          }
+        } catch (IOException e) {
+          e.printStackTrace();
         }
       } else {
         String bundleJson = FhirDstu2.convertToFHIRJson(person, stopTime);
         Path outFilePath = outDirectory.toPath().resolve(filename(person, fileTag, "json"));
         writeNewFile(outFilePath, bundleJson);
       }
+      ExportStats.record("fhir_dstu2", start);
     }
-    if (Boolean.parseBoolean(Config.get("exporter.fhir.export"))) {
+    if (settings.fhirR4) {
+      long start = System.nanoTime();
       File outDirectory = getOutputFolder("fhir", person);
-      if (Boolean.parseBoolean(Config.get("exporter.fhir.bulk_data"))) {
+      if (settings.fhirBulkData) {
         org.hl7.fhir.r4.model.Bundle bundle = FhirR4.convertToFHIR(person, stopTime);
-        IParser parser = FhirContext.forR4().newJsonParser().setPrettyPrint(false);
-        for (org.hl7.fhir.r4.model.Bundle.BundleEntryComponent entry : bundle.getEntry()) {
-          String filename = entry.getResource().getResourceType().toString() + ".ndjson";
-          Path outFilePath = outDirectory.toPath().resolve(filename);
-          String entryJson = parser.encodeResourceToString(entry.getResource());
-          appendToFile(outFilePath, entryJson);
+        IParser parser = BulkDataExporter.R4_PARSER.get();
+        try {
+          for (org.hl7.fhir.r4.model.Bundle.BundleEntryComponent entry : bundle.getEntry()) {
+            String entryJson = parser.encodeResourceToString(entry.getResource());
+            String resourceType = entry.getResource().getResourceType().toString();
+            BulkDataExporter.write(outDirectory, resourceType, entryJson, settings);
+          }
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      } else if (settings.fhirStreamJson) {
+        Path outFilePath = outDirectory.toPath().resolve(filename(person, fileTag, "json"));
+        Person exported = person;
+        try {
+          streamNewFile(outFilePath, out -> FhirR4.convertToFHIRJson(exported, stopTime, out));
+        } catch (IOException e) {
+          e.printStackTrace();
         }
       } else {
         String bundleJson = FhirR4.convertToFHIRJson(person, stopTime);
         Path outFilePath = outDirectory.toPath().resolve(filename(person, fileTag, "json"));
         writeNewFile(outFilePath, bundleJson);
       }
+      ExportStats.record("fhir", start);
     }
-    if (Boolean.parseBoolean(Config.get("exporter.ccda.export"))) {
-      String ccdaXml = CCDAExporter.export(person, stopTime);
+    if (settings.ccda) {
+      long start = System.nanoTime();
       File outDirectory = getOutputFolder("ccda", person);
       Path outFilePath = outDirectory.toPath().resolve(filename(person, fileTag, "xml"));
-      writeNewFile(outFilePath, ccdaXml);
+      // rendered straight to the file, the XML of a long history is tens of MB
+      Person exported = person;
+      try {
+        streamNewFile(outFilePath, out -> {
+          Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+          try {
+            CCDAExporter.export(exported, stopTime, writer);
+          } catch (TemplateException e) {
+            throw new IOException(e);
+          }
+          writer.write(System.lineSeparator());
+          writer.flush();
+        });
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+      ExportStats.record("ccda", start);
     }
-    if (Boolean.parseBoolean(Config.get("exporter.csv.export"))) {
+    if (settings.csv) {
+      long start = System.nanoTime();
       try {
         CSVExporter.getInstance().export(person, stopTime);
       } catch (IOException e) {
         e.printStackTrace();
       }
+      ExportStats.record("csv", start);
     }
-    if (Boolean.parseBoolean(Config.get("exporter.parquet.export"))) {
+    if (settings.parquet) {
+      long start = System.nanoTime();
+      ParquetExporter parquetExporter = ParquetExporter.getInstance();
       try {
-        ParquetExporter.getInstance().export(person, stopTime);
+        parquetExporter.export(person, stopTime);
       } catch (IOException e) {
-        e.printStackTrace();
+        if (parquetExporter.isResumable()) {
+          parquetFailure = e;
+        } else {
+          e.printStackTrace();
+        }
       }
+      ExportStats.record("parquet", start);
 
     }
-    if (Boolean.parseBoolean(Config.get("exporter.text.export"))) {
+    if (settings.text) {
+      long start = System.nanoTime();
       try {
         TextExporter.exportAll(person, fileTag, stopTime);
       } catch (IOException e) {
         e.printStackTrace();
       }
+      ExportStats.record("text", start);
     }
 
-    if (Boolean.parseBoolean(Config.get("exporter.text.per_encounter_export"))) {
+    if (settings.textPerEncounter) {
+      long start = System.nanoTime();
       try {
         TextExporter.exportEncounter(person, stopTime);
       } catch (IOException e) {
         e.printStackTrace();
       }
+      ExportStats.record("text_per_encounter", start);
     }
 
-    if (Boolean.parseBoolean(Config.get("exporter.cdw.export"))) {
+    if (settings.cdw) {
+      long start = System.nanoTime();
       try {
         CDWExporter.getInstance().export(person, stopTime);
       } catch (IOException e) {
         e.printStackTrace();
       }
+      ExportStats.record("cdw", start);
     }
+    return parquetFailure;
   }
 
   /**
@@ -172,23 +248,30 @@ public abstract class Exporter {
   }
 
   /**
-   * Append contents to the end of a file.
-   * @param file Path to the new file.
-   * @param contents The contents of the file.
+   * Writes the contents of a file as they are built, see streamNewFile.
+   */
+  private interface FileContents {
+    void writeTo(OutputStream out) throws IOException;
+  }
+
+  /**
+   * Write a new file as its contents are built, without holding them in memory. They are
+   * written to a temporary sibling that is only renamed to the file once complete, so a
+   * failure never leaves a truncated file behind under the final name.
+   * @param file Path to the new file. Like writeNewFile, this fails if the file exists.
+   * @param contents Writes the contents of the file.
+   * @throws IOException if the file exists or any IO error occurs
    */
-  private static synchronized void appendToFile(Path file, String contents) {
+  private static void streamNewFile(Path file, FileContents contents) throws IOException {
+    Path temp = file.resolveSibling(file.getFileName() + ".tmp");
     try {
-      if (Files.notExists(file)) {
-        Files.createFile(file);
+      try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp))) {
+        contents.writeTo(out);
       }
-    } catch (Exception e) {
-      // Ignore... multi-threaded race condition to create a file that didn't exist,
-      // but does now because one of the other exporter threads beat us to it.
-    }
-    try {
-      Files.write(file, Collections.singleton(contents), StandardOpenOption.APPEND);
-    } catch (IOException e) {
-      e.printStackTrace();
+      // without REPLACE_EXISTING this fails if the file exists, as CREATE_NEW does
+      Files.move(temp, file);
+    } finally {
+      Files.deleteIfExists(temp);
     }
   }
 
@@ -199,6 +282,8 @@ public abstract class Exporter {
    * @param generator Generator that generated the patients
    */
   public static void runPostCompletionExports(Generator generator) {
+    ExportSettings settings = ExportSettings.get();
+
     try {
       HospitalExporterR4.export(generator.stop);
     } catch (Exception e) {
@@ -235,7 +320,23 @@ public abstract class Exporter {
       e.printStackTrace();
     }
 
-    if (Boolean.parseBoolean(Config.get("exporter.parquet.export"))) {
+    if (settings.fhirBulkData) {
+      try {
+        BulkDataExporter.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+
+    if (settings.csv) {
+      try {
+        CSVExporter.getInstance().flush();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+
+    if (settings.parquet) {
       try {
         ParquetExporter.getInstance().postCompletionExport(generator.stop);
       } catch (IOException e) {
@@ -265,7 +366,7 @@ public abstract class Exporter {
       }
     }
 
-    if (Boolean.parseBoolean(Config.get("exporter.cdw.export"))) {
+    if (settings.cdw) {
       CDWExporter.getInstance().writeFactTables();
     }
   }
@@ -416,22 +517,18 @@ public abstract class Exporter {
    *     settings.
    */
   public static File getOutputFolder(String folderName, Person person) {
-    List<String> folders = new ArrayList<>();
+    ExportSettings settings = ExportSettings.get();
+    File f;
 
-    folders.add(folderName);
-
-    if (person != null
-        && Boolean.parseBoolean(Config.get("exporter.subfolders_by_id_substring"))) {
+    if (person != null && settings.subfoldersByIdSubstring) {
       String id = (String) person.attributes.get(Person.ID);
 
-      folders.add(id.substring(0, 2));
-      folders.add(id.substring(0, 3));
+      f = Paths.get(settings.baseDirectory, folderName, id.substring(0, 2), id.substring(0, 3))
+          .toFile();
+    } else {
+      f = Paths.get(settings.baseDirectory, folderName).toFile();
     }
-
-    String baseDirectory = Config.get("exporter.baseDirectory");
-
-    File f = Paths.get(baseDirectory, folders.toArray(new String[0])).toFile();
-    f.mkdirs();
+    settings.mkdirs(f);
 
     return f;
   }
@@ -446,7 +543,7 @@ public abstract class Exporter {
    * @return The filename only (not a path).
    */
   public static String filename(Person person, String tag, String extension) {
-    if (Boolean.parseBoolean(Config.get("exporter.use_uuid_filenames"))) {
+    if (ExportSettings.get().useUuidFilenames) {
       return person.attributes.get(Person.ID) + tag + "." + extension;
     } else {
       // ensure unique filenames for now
@@ -465,7 +562,7 @@ public abstract class Exporter {
    */
   public static String filename_per_encounter(Person person, String encounterNumber,
       String extension) {
-    if (Boolean.parseBoolean(Config.get("exporter.use_uuid_filenames"))) {
+    if (ExportSettings.get().useUuidFilenames) {
       return person.attributes.get(Person.ID) + "_" + encounterNumber + "." + extension;
     } else {
       return person.attributes.get(Person.NAME).toString().replace(' ', '_') + "_"
@@ -92,6 +92,7 @@ import java.util.UUID;
 import org.apache.sis.geometry.DirectPosition2D;
 import org.mitre.synthea.engine.Event;
 import org.mitre.synthea.helpers.Config;
+import org.mitre.synthea.helpers.IdSequence;
 import org.mitre.synthea.helpers.Utilities;
 import org.mitre.synthea.world.agents.Clinician;
 import org.mitre.synthea.world.agents.Person;
@@ -114,6 +115,11 @@ public class FhirDstu2 {
   // per-application, not per-record
   private static final FhirContext FHIR_CTX = FhirContext.forDstu2();
 
+  /** Where this exporter's ids start in a person's sequence, see {@link IdSequence}. */
+  private static final long FIRST_ID = 5L << 40;
+  /** The ids of the person being converted on this thread, if any. */
+  private static final ThreadLocal<IdSequence> IDS = new ThreadLocal<>();
+
   private static final String SNOMED_URI = "http://snomed.info/sct";
   private static final String LOINC_URI = "http://loinc.org";
   private static final String RXNORM_URI = "http://www.nlm.nih.gov/research/umls/rxnorm";
@@ -175,7 +181,20 @@ public class FhirDstu2 {
     } else {
       bundle.setType(BundleTypeEnum.COLLECTION);
     }
+    IDS.set(new IdSequence(person.recordSeed(), FIRST_ID));
+    try {
+      addToBundle(person, stopTime, bundle);
+    } finally {
+      IDS.remove();
+    }
+    return bundle;
+  }
 
+  /**
+   * Add the Patient and the entries from their health record to the given Bundle, with the
+   * person's ids already set up for this thread.
+   */
+  private static void addToBundle(Person person, long stopTime, Bundle bundle) {
     Entry personEntry = basicInfo(person, bundle, stopTime);
 
     for (Encounter encounter : person.record.encounters) {
@@ -220,7 +239,6 @@ public class FhirDstu2 {
       // one claim per encounter
       encounterClaim(personEntry, bundle, encounterEntry, encounter.claim);
     }
-    return bundle;
   }
 
   /**
@@ -1506,15 +1524,16 @@ public class FhirDstu2 {
 
   /**
    * Helper function to create an Entry for the given Resource within the given Bundle. Sets the
-   * resourceID to a random UUID, sets the entry's fullURL to that resourceID, and adds the entry to
-   * the bundle.
+   * resourceID to the next of the person's ids (a random UUID unless deterministic), sets the
+   * entry's fullURL to that resourceID, and adds the entry to the bundle.
    *
    * @param bundle The Bundle to add the Entry to
    * @param resource Resource the new Entry should contain
    * @return the created Entry
    */
   private static Entry newEntry(Bundle bundle, BaseResource resource) {
-    String resourceID = UUID.randomUUID().toString();
+    IdSequence ids = IDS.get();
+    String resourceID = ids != null ? ids.next() : UUID.randomUUID().toString();
     return newEntry(bundle, resource, resourceID);
   }
 
@@ -1533,7 +1552,7 @@ public class FhirDstu2 {
     Entry entry = bundle.addEntry();
 
     resource.setId(resourceID);
-    if (Boolean.parseBoolean(Config.get("exporter.fhir.bulk_data"))) {
+    if (ExportSettings.get().fhirBulkData) {
       entry.setFullUrl(resource.getResourceName() + "/" + resourceID);
     } else {
       entry.setFullUrl("urn:uuid:" + resourceID);
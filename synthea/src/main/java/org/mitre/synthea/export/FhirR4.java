@@ -1,13 +1,21 @@
 package org.mitre.synthea.export;
 
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
 import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.Table;
 import com.google.gson.Gson;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
@@ -15,6 +23,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.function.Consumer;
 import org.apache.sis.geometry.DirectPosition2D;
 import org.hl7.fhir.r4.model.Address;
 import org.hl7.fhir.r4.model.AllergyIntolerance;
@@ -102,6 +111,7 @@ import org.hl7.fhir.utilities.xhtml.NodeType;
 import org.hl7.fhir.utilities.xhtml.XhtmlNode;
 import org.mitre.synthea.engine.Event;
 import org.mitre.synthea.helpers.Config;
+import org.mitre.synthea.helpers.IdSequence;
 import org.mitre.synthea.helpers.SimpleCSV;
 import org.mitre.synthea.helpers.Utilities;
 import org.mitre.synthea.modules.HealthInsuranceModule;
@@ -127,6 +137,11 @@ public class FhirR4 {
   // per-application, not per-record
   private static final FhirContext FHIR_CTX = FhirContext.forR4();
 
+  /** Where this exporter's ids start in a person's sequence, see {@link IdSequence}. */
+  private static final long FIRST_ID = 3L << 40;
+  /** The ids of the person being converted on this thread, if any. */
+  private static final ThreadLocal<IdSequence> IDS = new ThreadLocal<>();
+
   private static final String SNOMED_URI = "http://snomed.info/sct";
   private static final String LOINC_URI = "http://loinc.org";
   private static final String RXNORM_URI = "http://www.nlm.nih.gov/research/umls/rxnorm";
@@ -151,6 +166,10 @@ public class FhirR4 {
 
   private static final String COUNTRY_CODE = Config.get("generate.geography.country_code");
 
+  /** Resource types that entries added later look up in the Bundle, by code or identifier. */
+  private static final List<String> LOOKED_UP =
+      Arrays.asList("Organization", "Practitioner", "Condition");
+
   private static final Table<String, String, String> SHR_MAPPING = loadSHRMapping();
 
   @SuppressWarnings("rawtypes")
@@ -223,8 +242,37 @@ public class FhirR4 {
     } else {
       bundle.setType(BundleType.COLLECTION);
     }
+    convertToFHIR(person, stopTime, bundle, b -> { });
+    return bundle;
+  }
 
+  /**
+   * Add the Patient and the entries from their health record to the given Bundle.
+   *
+   * @param person     Person to generate the FHIR entries for
+   * @param stopTime   Time the simulation ended
+   * @param bundle     The Bundle to add to
+   * @param checkpoint Called with the Bundle after the Patient, and after each Encounter with
+   *                   everything that references it, has been added
+   */
+  private static void convertToFHIR(Person person, long stopTime, Bundle bundle,
+      Consumer<Bundle> checkpoint) {
+    IDS.set(new IdSequence(person.recordSeed(), FIRST_ID));
+    try {
+      addToBundle(person, stopTime, bundle, checkpoint);
+    } finally {
+      IDS.remove();
+    }
+  }
+
+  /**
+   * Add the Patient and the entries from their health record to the given Bundle, with the
+   * person's ids already set up for this thread.
+   */
+  private static void addToBundle(Person person, long stopTime, Bundle bundle,
+      Consumer<Bundle> checkpoint) {
     BundleEntryComponent personEntry = basicInfo(person, bundle, stopTime);
+    checkpoint.accept(bundle);
 
     for (Encounter encounter : person.record.encounters) {
       BundleEntryComponent encounterEntry = encounter(person, personEntry, bundle, encounter);
@@ -271,8 +319,8 @@ public class FhirR4 {
 
       explanationOfBenefit(personEntry, bundle, encounterEntry, person,
           encounterClaim, encounter);
+      checkpoint.accept(bundle);
     }
-    return bundle;
   }
 
   /**
@@ -292,6 +340,74 @@ public class FhirR4 {
     return bundleJson;
   }
 
+  /**
+   * Write the given Person to a stream as a FHIR Bundle in JSON, the same Bundle
+   * {@link #convertToFHIRJson(Person, long)} returns, but not pretty printed. Rather than
+   * building the whole Bundle and then one String of it, each Encounter's resources are
+   * written as soon as they have been built, and then dropped, apart from the few kinds
+   * that later entries look up in the Bundle (Organizations, Practitioners and Conditions).
+   * So the memory used depends on the largest Encounter, not on the length of the record.
+   *
+   * @param person   Person to generate the FHIR JSON for
+   * @param stopTime Time the simulation ended
+   * @param out      Stream to write the Bundle to, in UTF-8. It is flushed, but not closed
+   * @throws IOException if the stream can't be written to
+   */
+  public static void convertToFHIRJson(Person person, long stopTime, OutputStream out)
+      throws IOException {
+    Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+    JsonWriter json = new JsonWriter(writer);
+    IParser parser = FHIR_CTX.newJsonParser().setPrettyPrint(false);
+    Bundle bundle = new Bundle();
+    bundle.setType(TRANSACTION_BUNDLE ? BundleType.TRANSACTION : BundleType.COLLECTION);
+    json.beginObject();
+    json.name("resourceType").value("Bundle");
+    json.name("type").value(bundle.getType().toCode());
+    json.name("entry").beginArray();
+    // entries before this index have been written already
+    int[] written = {0};
+    try {
+      convertToFHIR(person, stopTime, bundle, b -> {
+        try {
+          List<BundleEntryComponent> entries = b.getEntry();
+          int kept = 0;
+          for (int i = 0; i < entries.size(); i++) {
+            BundleEntryComponent entry = entries.get(i);
+            if (i >= written[0]) {
+              writeEntry(json, parser, entry);
+            }
+            if (LOOKED_UP.contains(entry.getResource().fhirType())) {
+              entries.set(kept++, entry);
+            }
+          }
+          entries.subList(kept, entries.size()).clear();
+          written[0] = kept;
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    json.endArray();
+    json.endObject();
+    json.flush();
+  }
+
+  private static void writeEntry(JsonWriter json, IParser parser, BundleEntryComponent entry)
+      throws IOException {
+    json.beginObject();
+    json.name("fullUrl").value(entry.getFullUrl());
+    json.name("resource").jsonValue(parser.encodeResourceToString(entry.getResource()));
+    if (entry.hasRequest()) {
+      json.name("request").beginObject();
+      json.name("method").value(entry.getRequest().getMethod().toCode());
+      json.name("url").value(entry.getRequest().getUrl());
+      json.endObject();
+    }
+    json.endObject();
+  }
+
   /**
    * Map the given Person to a FHIR Patient resource, and add it to the given Bundle.
    *
@@ -1985,8 +2101,6 @@ public class FhirR4 {
       Bundle bundle,
       BundleEntryComponent personEntry,
       CodeableConcept goalStatus, JsonObject goal) {
-    String resourceID = UUID.randomUUID().toString();
-
     Goal goalResource = new Goal();
     if (USE_US_CORE_IG) {
       Meta meta = new Meta();
@@ -1996,7 +2110,6 @@ public class FhirR4 {
     }
     goalResource.setLifecycleStatus(GoalLifecycleStatus.ACCEPTED);
     goalResource.setAchievementStatus(goalStatus);
-    goalResource.setId(resourceID);
     goalResource.setSubject(new Reference(personEntry.getFullUrl()));
 
     if (goal.has("text")) {
@@ -2139,15 +2252,16 @@ public class FhirR4 {
 
   /**
    * Helper function to create an Entry for the given Resource within the given Bundle. Sets the
-   * resourceID to a random UUID, sets the entry's fullURL to that resourceID, and adds the entry to
-   * the bundle.
+   * resourceID to the next of the person's ids (a random UUID unless deterministic), sets the
+   * entry's fullURL to that resourceID, and adds the entry to the bundle.
    *
    * @param bundle   The Bundle to add the Entry to
    * @param resource Resource the new Entry should contain
    * @return the created Entry
    */
   private static BundleEntryComponent newEntry(Bundle bundle, Resource resource) {
-    String resourceID = UUID.randomUUID().toString();
+    IdSequence ids = IDS.get();
+    String resourceID = ids != null ? ids.next() : UUID.randomUUID().toString();
     return newEntry(bundle, resource, resourceID);
   }
 
@@ -2166,7 +2280,7 @@ public class FhirR4 {
     BundleEntryComponent entry = bundle.addEntry();
 
     resource.setId(resourceID);
-    if (Boolean.parseBoolean(Config.get("exporter.fhir.bulk_data"))) {
+    if (ExportSettings.get().fhirBulkData) {
       entry.setFullUrl(resource.fhirType() + "/" + resourceID);
     } else {
       entry.setFullUrl("urn:uuid:" + resourceID);
@@ -102,6 +102,7 @@ import org.hl7.fhir.utilities.xhtml.NodeType;
 import org.hl7.fhir.utilities.xhtml.XhtmlNode;
 import org.mitre.synthea.engine.Event;
 import org.mitre.synthea.helpers.Config;
+import org.mitre.synthea.helpers.IdSequence;
 import org.mitre.synthea.helpers.SimpleCSV;
 import org.mitre.synthea.helpers.Utilities;
 import org.mitre.synthea.modules.HealthInsuranceModule;
@@ -126,6 +127,11 @@ public class FhirStu3 {
   // per-application, not per-record
   private static final FhirContext FHIR_CTX = FhirContext.forDstu3();
 
+  /** Where this exporter's ids start in a person's sequence, see {@link IdSequence}. */
+  private static final long FIRST_ID = 4L << 40;
+  /** The ids of the person being converted on this thread, if any. */
+  private static final ThreadLocal<IdSequence> IDS = new ThreadLocal<>();
+
   private static final String SNOMED_URI = "http://snomed.info/sct";
   private static final String LOINC_URI = "http://loinc.org";
   private static final String RXNORM_URI = "http://www.nlm.nih.gov/research/umls/rxnorm";
@@ -220,7 +226,20 @@ public class FhirStu3 {
     } else {
       bundle.setType(BundleType.COLLECTION);
     }
+    IDS.set(new IdSequence(person.recordSeed(), FIRST_ID));
+    try {
+      addToBundle(person, stopTime, bundle);
+    } finally {
+      IDS.remove();
+    }
+    return bundle;
+  }
 
+  /**
+   * Add the Patient and the entries from their health record to the given Bundle, with the
+   * person's ids already set up for this thread.
+   */
+  private static void addToBundle(Person person, long stopTime, Bundle bundle) {
     BundleEntryComponent personEntry = basicInfo(person, bundle, stopTime);
 
     for (Encounter encounter : person.record.encounters) {
@@ -269,7 +288,6 @@ public class FhirStu3 {
       explanationOfBenefit(personEntry,bundle,encounterEntry,person,
           encounterClaim, encounter);
     }
-    return bundle;
   }
 
   /**
@@ -2161,12 +2179,9 @@ public class FhirStu3 {
    */
   private static BundleEntryComponent caregoal(
       Bundle bundle, GoalStatus goalStatus, JsonObject goal) {
-    String resourceID = UUID.randomUUID().toString();
-
     org.hl7.fhir.dstu3.model.Goal goalResource =
         new org.hl7.fhir.dstu3.model.Goal();
     goalResource.setStatus(goalStatus);
-    goalResource.setId(resourceID);
 
     if (goal.has("text")) {
       CodeableConcept descriptionCodeableConcept = new CodeableConcept();
@@ -2308,15 +2323,16 @@ public class FhirStu3 {
 
   /**
    * Helper function to create an Entry for the given Resource within the given Bundle. Sets the
-   * resourceID to a random UUID, sets the entry's fullURL to that resourceID, and adds the entry to
-   * the bundle.
+   * resourceID to the next of the person's ids (a random UUID unless deterministic), sets the
+   * entry's fullURL to that resourceID, and adds the entry to the bundle.
    *
    * @param bundle The Bundle to add the Entry to
    * @param resource Resource the new Entry should contain
    * @return the created Entry
    */
   private static BundleEntryComponent newEntry(Bundle bundle, Resource resource) {
-    String resourceID = UUID.randomUUID().toString();
+    IdSequence ids = IDS.get();
+    String resourceID = ids != null ? ids.next() : UUID.randomUUID().toString();
     return newEntry(bundle, resource, resourceID);
   }
 
@@ -2334,7 +2350,7 @@ public class FhirStu3 {
     BundleEntryComponent entry = bundle.addEntry();
 
     resource.setId(resourceID);
-    if (Boolean.parseBoolean(Config.get("exporter.fhir.bulk_data"))) {
+    if (ExportSettings.get().fhirBulkData) {
       entry.setFullUrl(resource.fhirType() + "/" + resourceID);
     } else {
       entry.setFullUrl("urn:uuid:" + resourceID);
@@ -0,0 +1,249 @@
+package org.mitre.synthea.export;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import org.apache.hadoop.fs.Path;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Commits Parquet files in groups, so a run that dies part way through can be resumed.
+ *
+ * <p>Finished files are staged in the _uncommitted folder. A commit appends one line to
+ * _manifest.jsonl naming the patient indexes whose records are all in the staged files, and
+ * every file with its row count and CRC32, and then moves the files into place. The manifest
+ * line is the commit point: on recovery, files of committed lines that weren't moved yet are
+ * moved, and anything else left in _uncommitted is deleted, since its patients will be generated
+ * again. Query engines skip both names, as they start with an underscore.
+ */
+class ParquetManifest {
+
+    static final String STAGING_FOLDER = "_uncommitted";
+    static final String MANIFEST_FILE = "_manifest.jsonl";
+
+    private static final Pattern PART = Pattern.compile("part-(\\d+)\\.parquet");
+
+    private final File output;
+    private final File staging;
+    private final File manifest;
+    private final List<JsonObject> staged = new ArrayList<>();
+
+    /**
+     * @param output The Parquet output folder
+     */
+    ParquetManifest(File output) {
+        this.output = output;
+        this.staging = new File(output, STAGING_FOLDER);
+        this.manifest = new File(output, MANIFEST_FILE);
+    }
+
+    /**
+     * @return The folder finished files are written to until they are committed
+     */
+    File getStagingFolder() {
+        return staging;
+    }
+
+    /**
+     * Add a finished file to the next commit.
+     * @param eventType The type of records in the file
+     * @param file The file, in the staging folder
+     * @param rows Number of records in the file
+     */
+    synchronized void stage(String eventType, Path file, long rows) {
+        JsonObject entry = new JsonObject();
+        entry.addProperty("event", eventType);
+        entry.addProperty("staged", relative(staging, new File(file.toUri().getPath())));
+        entry.addProperty("rows", rows);
+        staged.add(entry);
+    }
+
+    /**
+     * Commit every staged file, along with the patient indexes they complete.
+     * @param seed The population seed the indexes were generated with, or null
+     * @param indexes The patient indexes whose records are now all in committed files
+     * @return The event type of each committed file, by its final name
+     * @throws IOException if the files can't be committed
+     */
+    synchronized Map<File, String> commit(Long seed, BitSet indexes) throws IOException {
+        if (staged.isEmpty() && indexes.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Set<File> taken = new HashSet<>();
+        JsonArray files = new JsonArray();
+        Map<File, String> committed = new LinkedHashMap<>();
+        for (JsonObject file : staged) {
+            File source = new File(staging, file.get("staged").getAsString());
+            File target = freeName(new File(output, file.get("staged").getAsString()), taken);
+            file.addProperty("path", relative(output, target));
+            file.addProperty("crc32", checksum(source));
+            files.add(file);
+            committed.put(target, file.get("event").getAsString());
+        }
+
+        JsonObject entry = new JsonObject();
+        if (seed != null) {
+            entry.addProperty("seed", seed);
+        }
+        JsonArray ranges = new JsonArray();
+        for (int start = indexes.nextSetBit(0); start >= 0;
+             start = indexes.nextSetBit(indexes.nextClearBit(start))) {
+            JsonArray range = new JsonArray();
+            range.add(start);
+            range.add(indexes.nextClearBit(start) - 1);
+            ranges.add(range);
+        }
+        entry.add("indexes", ranges);
+        entry.add("files", files);
+        append(new Gson().toJson(entry));
+
+        moveIntoPlace(files);
+        staged.clear();
+        return committed;
+    }
+
+    /**
+     * Finish any commit that was interrupted, delete the files that were never committed and
+     * find the patient indexes that are already done.
+     * @param seed The population seed of this run. Only indexes committed by runs with the same
+     *             seed are the same people
+     * @return The committed patient indexes
+     * @throws IOException if the manifest can't be read or the files can't be moved
+     */
+    synchronized BitSet recover(long seed) throws IOException {
+        BitSet committed = new BitSet();
+        if (manifest.exists()) {
+            List<String> lines = Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8);
+            int valid = 0;
+            for (String line : lines) {
+                JsonObject entry;
+                try {
+                    entry = new JsonParser().parse(line).getAsJsonObject();
+                } catch (JsonParseException | IllegalStateException e) {
+                    // the last line was cut short when the run died, so it was never committed
+                    break;
+                }
+                valid++;
+                moveIntoPlace(entry.getAsJsonArray("files"));
+                if (entry.has("seed") && entry.get("seed").getAsLong() == seed) {
+                    for (JsonElement range : entry.getAsJsonArray("indexes")) {
+                        JsonArray bounds = range.getAsJsonArray();
+                        committed.set(bounds.get(0).getAsInt(), bounds.get(1).getAsInt() + 1);
+                    }
+                }
+            }
+            if (valid < lines.size()) {
+                System.err.println("Dropping " + (lines.size() - valid)
+                        + " incomplete line(s) from " + manifest);
+                File rewritten = new File(output, MANIFEST_FILE + ".tmp");
+                Files.write(rewritten.toPath(), lines.subList(0, valid), StandardCharsets.UTF_8);
+                Files.move(rewritten.toPath(), manifest.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (staging.exists()) {
+            try (Stream<java.nio.file.Path> walk = Files.walk(staging.toPath())) {
+                for (java.nio.file.Path path : walk.sorted(Comparator.reverseOrder())
+                        .collect(Collectors.toList())) {
+                    Files.delete(path);
+                }
+            }
+        }
+        staged.clear();
+        return committed;
+    }
+
+    /**
+     * Move committed files from the staging folder to their place in the output folder,
+     * unless they are there already.
+     */
+    private void moveIntoPlace(JsonArray files) throws IOException {
+        for (JsonElement element : files) {
+            JsonObject file = element.getAsJsonObject();
+            File target = new File(output, file.get("path").getAsString());
+            File source = new File(staging, file.get("staged").getAsString());
+            if (!target.exists()) {
+                if (!source.exists()) {
+                    throw new IOException("Committed file " + target + " is missing");
+                }
+                target.getParentFile().mkdirs();
+                Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+    }
+
+    /**
+     * Append a line to the manifest and make sure it is on disk.
+     */
+    private void append(String line) throws IOException {
+        output.mkdirs();
+        try (FileOutputStream out = new FileOutputStream(manifest, true);
+             Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+            writer.write(line);
+            writer.write('\n');
+            writer.flush();
+            out.getChannel().force(true);
+        }
+    }
+
+    /**
+     * The CRC32 of a file, as hex. The file is also forced to disk, before the manifest says
+     * it is committed.
+     */
+    private static String checksum(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            while (channel.read(buffer) > 0) {
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
+            }
+            channel.force(true);
+        }
+        return Long.toHexString(crc.getValue());
+    }
+
+    /**
+     * The given file, or if it (or an earlier file of this commit) already exists, the next
+     * free part number, so files of an earlier run into the same folder are never replaced.
+     */
+    private static File freeName(File target, Set<File> taken) {
+        Matcher part = PART.matcher(target.getName());
+        int number = part.matches() ? Integer.parseInt(part.group(1)) : 0;
+        File name = target;
+        while (name.exists() || taken.contains(name)) {
+            number++;
+            String base = target.getName().replaceAll("\\.parquet$", "");
+            name = new File(target.getParentFile(), part.matches()
+                    ? String.format("part-%05d.parquet", number) : base + "-" + number + ".parquet");
+        }
+        taken.add(name);
+        return name;
+    }
+
+    private static String relative(File folder, File file) {
+        return folder.toPath().relativize(file.toPath()).toString().replace('\\', '/');
+    }
+}
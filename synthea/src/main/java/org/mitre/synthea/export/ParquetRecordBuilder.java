@@ -0,0 +1,791 @@
+package org.mitre.synthea.export;
+
+import com.google.gson.JsonObject;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.mitre.synthea.export.ParquetExporter.ExportEvents;
+import org.mitre.synthea.helpers.Utilities;
+import org.mitre.synthea.world.agents.Person;
+import org.mitre.synthea.world.concepts.HealthRecord.CarePlan;
+import org.mitre.synthea.world.concepts.HealthRecord.Claim;
+import org.mitre.synthea.world.concepts.HealthRecord.Code;
+import org.mitre.synthea.world.concepts.HealthRecord.Encounter;
+import org.mitre.synthea.world.concepts.HealthRecord.Entry;
+import org.mitre.synthea.world.concepts.HealthRecord.ImagingStudy;
+import org.mitre.synthea.world.concepts.HealthRecord.Medication;
+import org.mitre.synthea.world.concepts.HealthRecord.Observation;
+import org.mitre.synthea.world.concepts.HealthRecord.Procedure;
+import org.mitre.synthea.world.concepts.HealthRecord.Report;
+
+import static org.mitre.synthea.export.ExportHelper.dateFromTimestamp;
+import static org.mitre.synthea.export.ExportHelper.iso8601Timestamp;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.*;
+
+/**
+ * Builds the Avro records that ParquetExporter writes for a person.
+ * With the string schemas (avro_schemas/*.avsc) every value is formatted as text. With the
+ * typed schemas (avro_schemas/typed/*.avsc, see "exporter.parquet.typed_schema") dates are
+ * days since the epoch, times are epoch milliseconds, costs and measures are doubles and missing
+ * dates are null, so Parquet can use its numeric encodings and min/max statistics.
+ */
+class ParquetRecordBuilder {
+
+    /**
+     * Patient attributes written to the patient records
+     */
+    private static final List<String> PATIENT_ATTRIBUTES = Arrays.asList(new String[] {
+            "race",
+            "gender",
+            "zip",
+            "address",
+            "city",
+            "socioeconomic_category",
+            "alcoholic",
+            "alcoholic_history",
+            "asthma_type",
+            "birth_type",
+            "cause_of_death",
+            "coronary_heart_disease",
+            "deceased",
+            "diabetes",
+            "first_language",
+            "homeless",
+            "homelessness_category",
+            "instances_of_homelessness",
+            "infertile",
+            "hypertension",
+            "lung_cancer",
+            "opioid_addiction",
+            "osteoporosis",
+            "prediabetes",
+            "sexual_orientation",
+            "sexually_active",
+            "smoker",
+            "smoker_history",
+            "veteran"
+    });
+
+    /**
+     * Whitelist of state to output to state files
+     */
+    private static final Set<String> ATTRIBUTE_WHITELIST = new HashSet<>(Arrays.asList(new String[] {
+            "address",
+            "adherence probability",
+            "age_18_50_before_delay",
+            "age_18_50_after_delay",
+            "age_50_plus_before_delay",
+            "age_50_plus_after_delay",
+            "alcoholic",
+            "alcoholic_history",
+            "alk",
+            "asthma_type",
+            "atopic",
+            "atrial_fibrillation",
+            "atrial_fibrillation_risk",
+            "birth_type",
+            "cardio_risk",
+            "cause_of_death",
+            "colorectal_cancer_stage",
+            "coronary_heart_disease",
+            "cr_chemo_count",
+            "diabetes",
+            "diabetes_amputation_necessary",
+            "diabetes_severity",
+            "diabetic_eye_damage",
+            "diabetic_nerve_damage",
+            "education",
+            "egfr",
+            "first_language",
+            "gender",
+            "Hunt-Hess_Grade",
+            "homeless",
+            "homelessness_category",
+            "hypertension",
+            "income",
+            "infertile",
+            "instances_of_homelessness",
+            "is_sah",
+            "kras",
+            "Lung Cancer Type",
+            "lung_cancer",
+            "lung_cancer_nondiagnosis_counter",
+            "macular_edema",
+            "nephropathy",
+            "neuropathy",
+            "nonproliferative_retinopathy",
+            "number_of_children",
+            "occupation_level",
+            "onset_age_eighteen_to_fifty_after_delay",
+            "onset_age_eighteen_to_fifty_before_delay",
+            "onset_age_fifty_plus_after_delay",
+            "onset_age_fifty_plus_before_delay",
+            "opioid_addiction",
+            "osteoporosis",
+            "outgrew_food_allergies",
+            "pd1",
+            "prediabetes",
+            "quit alcoholism age",
+            "quit alcoholism probability",
+            "quit smoking age",
+            "quit smoking probability",
+            "retinopathy",
+            "RH_NEG",
+            "sah_suspect",
+            "sexual_orientation",
+            "sexually_active",
+            "smoker",
+            "smoker_history",
+            "socioeconomic_category",
+            "stroke_history",
+            "stroke_points",
+            "stroke_risk",
+            "veteran"
+    }));
+
+    /**
+     * Schemas of the records to build
+     */
+    private final Map<ExportEvents, Schema> schemas;
+
+    /**
+     * Whether the schemas are the typed ones
+     */
+    private final boolean typed;
+
+    /**
+     * Create a builder for the given schemas.
+     * @param schemas Schema for each event type
+     * @param typed Whether the schemas are the typed ones
+     */
+    ParquetRecordBuilder(Map<ExportEvents, Schema> schemas, boolean typed) {
+        this.schemas = schemas;
+        this.typed = typed;
+    }
+
+    /**
+     * A date, as the number of days since the epoch (typed) or yyyy-MM-dd.
+     * Both are in the default time zone, like ExportHelper.dateFromTimestamp.
+     */
+    private Object date(long time) {
+        if (typed) {
+            return (int) ExportHelper.localEpochDay(time);
+        }
+        return dateFromTimestamp(time);
+    }
+
+    /**
+     * A date and time, as epoch milliseconds (typed) or ISO 8601 in UTC.
+     */
+    private Object timestamp(long time) {
+        return typed ? (Object) time : iso8601Timestamp(time);
+    }
+
+    /**
+     * An amount of money, as a double (typed) or with two decimal places.
+     */
+    private Object money(BigDecimal amount) {
+        // the same rounding as String.format("%.2f"), without parsing a format string every time
+        return typed ? (Object) amount.doubleValue()
+                : amount.setScale(2, RoundingMode.HALF_UP).toPlainString();
+    }
+
+    /**
+     * A count, as an int (typed) or text.
+     */
+    private Object count(int count) {
+        return typed ? (Object) count : String.valueOf(count);
+    }
+
+    /**
+     * A date or time that isn't there, null (typed) or an empty string.
+     */
+    private Object missing() {
+        return typed ? null : "";
+    }
+
+    /**
+     * The lists of records returned by buildRecords, reused by each thread for every person
+     */
+    private static final ThreadLocal<Map<ExportEvents, List<GenericData.Record>>> RECORD_LISTS =
+            ThreadLocal.withInitial(() -> {
+                Map<ExportEvents, List<GenericData.Record>> lists = new EnumMap<>(ExportEvents.class);
+                for (ExportEvents eventType: ExportEvents.values()) {
+                    lists.put(eventType, new ArrayList<>());
+                }
+                return lists;
+            });
+
+    /**
+     * Build every record for a single person.
+     * The lists are reused by the next call on the same thread, so the caller has to be done with
+     * them (the writers copy them) before building the next person's records.
+     * @param p Person object
+     * @param time Time at which the simulation stopped
+     * @return The records of each event type
+     */
+    Map<ExportEvents, List<GenericData.Record>> buildRecords(Person p, long time) {
+        Map<ExportEvents, List<GenericData.Record>> outputRecordLists = RECORD_LISTS.get();
+        for (List<GenericData.Record> records: outputRecordLists.values()) {
+            records.clear();
+        }
+
+        String personId = p.attributes.get(Person.ID).toString();
+        // ids are derived from the seed of the record rather than drawn from the shared
+        // SecureRandom behind UUID.randomUUID, so split records don't repeat each other's ids.
+        // Sequence 0 is the person's own id in deterministic mode
+        long seed = p.recordSeed();
+        long sequence = 0L;
+        // the record types added later take their ids from a range of their own, so the ids of
+        // the original types are the same as before
+        long moreSequence = 1L << 40;
+        outputRecordLists.get(ExportEvents.patient).add(buildPatientRecord(p, time));
+
+        for (Encounter encounter: p.record.encounters) {
+            String encounterId = Utilities.seededUUID(seed, ++sequence).toString();
+            outputRecordLists.get(ExportEvents.encounter).add(buildEncounterRecord(encounterId, encounter, personId));
+            for (Medication medication: encounter.medications) {
+                String medicationId = Utilities.seededUUID(seed, ++sequence).toString();
+                outputRecordLists.get(ExportEvents.medicationrequest).add(buildMedicationRecord(medicationId,
+                        medication, personId, encounter, encounterId, time));
+                String claimId = Utilities.seededUUID(seed, ++moreSequence).toString();
+                outputRecordLists.get(ExportEvents.claim).add(buildClaimRecord(claimId, medication.claim,
+                        medication.start, personId, encounterId, medicationId));
+            }
+            for (Entry condition: encounter.conditions) {
+                outputRecordLists.get(ExportEvents.condition).add(buildConditionRecord(personId, condition,
+                        p.ageInYears(condition.start)));
+            }
+            for (Observation observation: encounter.observations) {
+                buildObservationList(outputRecordLists.get(ExportEvents.observation), personId, encounterId, observation);
+            }
+            for (Procedure procedure: encounter.procedures) {
+                outputRecordLists.get(ExportEvents.procedure)
+                        .add(buildProcedureRecord(personId, encounterId, procedure));
+            }
+            for (Entry allergy: encounter.allergies) {
+                outputRecordLists.get(ExportEvents.allergyintolerance)
+                        .add(buildAllergyRecord(personId, encounterId, allergy));
+            }
+            for (Entry immunization: encounter.immunizations) {
+                outputRecordLists.get(ExportEvents.immunization)
+                        .add(buildImmunizationRecord(personId, encounterId, immunization));
+            }
+            for (CarePlan careplan: encounter.careplans) {
+                String careplanId = Utilities.seededUUID(seed, ++moreSequence).toString();
+                outputRecordLists.get(ExportEvents.careplan)
+                        .add(buildCarePlanRecord(careplanId, personId, encounterId, careplan));
+            }
+            for (ImagingStudy imagingStudy: encounter.imagingStudies) {
+                String imagingStudyId = Utilities.seededUUID(seed, ++moreSequence).toString();
+                buildImagingStudyList(outputRecordLists.get(ExportEvents.imagingstudy), imagingStudyId,
+                        personId, encounterId, imagingStudy);
+            }
+            for (Report report: encounter.reports) {
+                String reportId = Utilities.seededUUID(seed, ++moreSequence).toString();
+                outputRecordLists.get(ExportEvents.diagnosticreport)
+                        .add(buildReportRecord(reportId, personId, encounterId, report));
+            }
+            String claimId = Utilities.seededUUID(seed, ++moreSequence).toString();
+            outputRecordLists.get(ExportEvents.claim).add(buildClaimRecord(claimId, encounter.claim,
+                    encounter.start, personId, encounterId, ""));
+        }
+        Map<Integer, Double> qalys = (Map<Integer, Double>) p.attributes.get("QALY");
+        Map<Integer, Double> dalys = (Map<Integer, Double>) p.attributes.get("DALY");
+        Map<Integer, Double> qols = (Map<Integer, Double>) p.attributes.get("QOL");
+
+        for (Integer year: qols.keySet()) {
+            outputRecordLists.get(ExportEvents.measure)
+                    .add(buildQualityOfLifeRecord(personId, year, qols.get(year), qalys.get(year), dalys.get(year)));
+        }
+
+        for (Map.Entry<String, Object> attr: p.attributes.entrySet()) {
+            if (ATTRIBUTE_WHITELIST.contains(attr.getKey())) {
+                outputRecordLists.get(ExportEvents.state)
+                    .add(buildAttributeRecord(personId, attr.getKey(), String.valueOf(attr.getValue())));
+            }
+        }
+        return outputRecordLists;
+    }
+
+    /**
+     * Build a single patient record in avro.
+     * @param p Person object
+     * @param time Current generator time in milliseconds
+     * @return The built patient record
+     */
+    private GenericData.Record buildPatientRecord(Person p, long time) {
+        GenericData.Record patientRecord = new GenericData.Record(schemas.get(ExportEvents.patient));
+
+        patientRecord.put("subject", p.attributes.get(Person.ID));
+        patientRecord.put("name", p.attributes.get(Person.NAME));
+        patientRecord.put("date_of_birth", date((long) p.attributes.get(Person.BIRTHDATE)));
+        if (!p.alive(time)) {
+            patientRecord.put("date_of_death", date(p.record.death));
+        } else {
+            patientRecord.put("date_of_death", missing());
+        }
+
+        for (String attr: PATIENT_ATTRIBUTES) {
+            patientRecord.put(attr, String.valueOf(p.attributes.getOrDefault(attr, "")));
+        }
+
+        return patientRecord;
+    }
+
+    /**
+     * Build a single medicationrequest record in avro
+     * @param medicationId The medicationrequest Id
+     * @param medication Medication
+     * @param personId Person ID related to medicationrequest
+     * @param encounter Encounter related to medicationrequest
+     * @param encounterId Encounter ID related to medicationrequest
+     * @param time Current generator time
+     * @return The build medicationrequest record
+     */
+    private GenericData.Record buildMedicationRecord(String medicationId, Medication medication,
+                                                     String personId, Encounter encounter,
+                                                     String encounterId, long time) {
+
+        GenericData.Record medicationRecord = new GenericData.Record(schemas.get(ExportEvents.medicationrequest));
+        medicationRecord.put("identifier", medicationId);
+        medicationRecord.put("subject", personId);
+        String providerId = encounter.provider != null ? encounter.provider.id : "";
+        medicationRecord.put("practitioner", providerId);
+        medicationRecord.put("encounter", encounterId);
+        String medicationName = medication.name != null ? medication.name : "";
+        medicationRecord.put("name", medicationName);
+        medicationRecord.put("type", medication.type);
+        medicationRecord.put("start", date(medication.start));
+
+        long stop = medication.stop;
+        if (stop == 0L) {
+            stop = time;
+            medicationRecord.put("end", missing());
+        } else {
+            medicationRecord.put("end", date(medication.stop));
+        }
+        long medicationDuration = stop - medication.start;
+        Code coding = medication.codes.get(0);
+        medicationRecord.put("code", coding.code);
+        medicationRecord.put("display", coding.display);
+        medicationRecord.put("system", coding.system);
+        BigDecimal cost = medication.cost();
+        medicationRecord.put("cost", money(cost));
+        long dispenses = 1;
+        if (medication.prescriptionDetails != null
+                && medication.prescriptionDetails.has("refills")) {
+            dispenses = medication.prescriptionDetails.get("refills").getAsInt();
+        } else if (medication.prescriptionDetails != null
+                && medication.prescriptionDetails.has("duration")) {
+            JsonObject duration = medication.prescriptionDetails.getAsJsonObject("duration");
+
+            long quantity = duration.get("quantity").getAsLong();
+            String unit = duration.get("unit").getAsString();
+            long durationMs = Utilities.convertTime(unit, quantity);
+            dispenses = medicationDuration / durationMs;
+        } else {
+            // assume 1 refill / month
+            long durationMs = Utilities.convertTime("months", 1);
+            dispenses = medicationDuration / durationMs;
+        }
+
+        if (dispenses < 1) {
+            // integer division could leave us with 0,
+            // ex. if the active time (start->stop) is less than the provided duration
+            // or less than a month if no duration provided
+            dispenses = 1;
+        }
+        medicationRecord.put("dispenses", dispenses);
+        BigDecimal totalCost = cost
+                .multiply(BigDecimal.valueOf(dispenses))
+                .setScale(2, RoundingMode.DOWN); // truncate to 2 decimal places
+        medicationRecord.put("total_cost", money(totalCost));
+        if (medication.reasons.isEmpty()) {
+            medicationRecord.put("reason_code", "");
+            medicationRecord.put("reason_description", "");
+        } else {
+            Code reason = medication.reasons.get(0);
+            medicationRecord.put("reason_code", reason.code);
+            medicationRecord.put("reason_description", reason.display);
+        }
+
+        return medicationRecord;
+    }
+
+    /**
+     * Build a single encounter record in avro
+     * @param encounterId The encounter Id
+     * @param encounter The encounter
+     * @param personId Person ID related to the encounter
+     * @return The build encounter record
+     */
+    private GenericData.Record buildEncounterRecord(String encounterId,
+                                                    Encounter encounter, String personId) {
+        GenericData.Record encounterRecord = new GenericData.Record(schemas.get(ExportEvents.encounter));
+
+        encounterRecord.put("identifier", encounterId);
+        encounterRecord.put("subject", personId);
+        String providerId = encounter.provider != null ? encounter.provider.id : "";
+        encounterRecord.put("practitioner", providerId);
+        String encounterName = encounter.name != null ? encounter.name : "";
+        encounterRecord.put("name", encounterName);
+        String type = encounter.type != null ? encounter.type : "";
+        encounterRecord.put("type", type);
+        encounterRecord.put("start", timestamp(encounter.start));
+        if (encounter.stop != 0L) {
+            encounterRecord.put("end", timestamp(encounter.stop));
+        } else {
+            encounterRecord.put("end", missing());
+        }
+        Code coding = encounter.codes.get(0);
+        encounterRecord.put("code", coding.code);
+        encounterRecord.put("display", coding.display);
+        encounterRecord.put("system", coding.system);
+
+        return encounterRecord;
+    }
+
+    /**
+     * Build a single condition record in avro
+     * @param personId The person ID related to the condition
+     * @param condition The condition
+     * @return The built condition record
+     */
+    private GenericData.Record buildConditionRecord(String personId, Entry condition, int onsetAge) {
+        GenericData.Record conditionRecord = new GenericData.Record(schemas.get(ExportEvents.condition));
+
+        conditionRecord.put("subject", personId);
+        conditionRecord.put("onsetage", onsetAge);
+        String conditionName = condition.name != null ? condition.name : "";
+        conditionRecord.put("name", conditionName);
+        conditionRecord.put("type", condition.type);
+        conditionRecord.put("onsetdatetime", timestamp(condition.start));
+        if (condition.stop != 0L) {
+            conditionRecord.put("abatementdatetime", timestamp(condition.stop));
+        } else {
+            conditionRecord.put("abatementdatetime", missing());
+        }
+        Code coding = condition.codes.get(0);
+        conditionRecord.put("code", coding.code);
+        conditionRecord.put("display", coding.display);
+        conditionRecord.put("system", coding.system);
+
+        return conditionRecord;
+    }
+
+    /**
+     * Create a single Observation record in avro
+     * @param personId The person ID related to the observation
+     * @param encounterId The encounter ID related to the observation
+     * @param observation The Observation
+     * @return The generated observation record
+     */
+    private GenericData.Record buildObservationRecord(String personId, String encounterId,
+                                                      Observation observation) {
+
+        GenericData.Record observationRecord = new GenericData.Record(schemas.get(ExportEvents.observation));
+
+        observationRecord.put("subject", personId);
+        observationRecord.put("encounter", encounterId);
+        String observationName = observation.name != null ? observation.name : "";
+        observationRecord.put("name", observationName);
+        String type = ExportHelper.getObservationType(observation);
+        if (type != null) {
+            observationRecord.put("type", type);
+        } else {
+            observationRecord.put("type", "");
+        }
+        observationRecord.put("start", date(observation.start));
+        if (typed && observation.value instanceof Number) {
+            // numbers only go in value_numeric, at the precision the text value has
+            double number = ((Number) observation.value).doubleValue();
+            if (observation.value instanceof Double) {
+                number = Math.round(number * 10) / 10.0;
+            }
+            observationRecord.put("value", null);
+            observationRecord.put("value_numeric", number);
+        } else {
+            String value = ExportHelper.getObservationValue(observation);
+            if (value != null) {
+                observationRecord.put("value", value);
+            } else {
+                observationRecord.put("value", "");
+            }
+        }
+        String unit = observation.unit != null ? observation.unit : "";
+        observationRecord.put("unit", unit);
+        Code coding = observation.codes.get(0);
+        observationRecord.put("code", coding.code);
+        observationRecord.put("display", coding.display);
+        observationRecord.put("system", coding.system);
+
+        return observationRecord;
+    }
+
+    /**
+     * Create a single Procedure record in avro
+     * @param personId The person ID related to the procedure
+     * @param encounterId The encounter ID related to the procedure
+     * @param procedure The procedure
+     * @return The created procedure record
+     */
+    private GenericData.Record buildProcedureRecord(String personId, String encounterId,
+                                                    Procedure procedure) {
+        GenericData.Record procedureRecord = new GenericData.Record(schemas.get(ExportEvents.procedure));
+
+        procedureRecord.put("date", date(procedure.start));
+        procedureRecord.put("subject", personId);
+        procedureRecord.put("encounter", encounterId);
+        Code coding = procedure.codes.get(0);
+        procedureRecord.put("code", coding.code);
+        procedureRecord.put("display", coding.display);
+        procedureRecord.put("cost", money(procedure.cost()));
+
+        if (procedure.reasons.isEmpty()) {
+            procedureRecord.put("reason_code", "");
+            procedureRecord.put("reason_description", "");
+        } else {
+            Code reason = procedure.reasons.get(0);
+            procedureRecord.put("reason_code", reason.code);
+            procedureRecord.put("reason_description", reason.display);
+        }
+
+        return procedureRecord;
+    }
+
+    /**
+     * Build a single allergy record in avro
+     * @param personId The person ID related to the allergy
+     * @param encounterId The encounter ID where the allergy was recorded
+     * @param allergy The allergy
+     * @return The built allergy record
+     */
+    private GenericData.Record buildAllergyRecord(String personId, String encounterId, Entry allergy) {
+        GenericData.Record allergyRecord = new GenericData.Record(schemas.get(ExportEvents.allergyintolerance));
+
+        allergyRecord.put("start", date(allergy.start));
+        if (allergy.stop != 0L) {
+            allergyRecord.put("end", date(allergy.stop));
+        } else {
+            allergyRecord.put("end", missing());
+        }
+        allergyRecord.put("subject", personId);
+        allergyRecord.put("encounter", encounterId);
+        Code coding = allergy.codes.get(0);
+        allergyRecord.put("code", coding.code);
+        allergyRecord.put("display", coding.display);
+        allergyRecord.put("system", coding.system);
+
+        return allergyRecord;
+    }
+
+    /**
+     * Build a single immunization record in avro
+     * @param personId The person ID related to the immunization
+     * @param encounterId The encounter ID where the immunization was given
+     * @param immunization The immunization
+     * @return The built immunization record
+     */
+    private GenericData.Record buildImmunizationRecord(String personId, String encounterId,
+                                                       Entry immunization) {
+        GenericData.Record immunizationRecord = new GenericData.Record(schemas.get(ExportEvents.immunization));
+
+        immunizationRecord.put("date", date(immunization.start));
+        immunizationRecord.put("subject", personId);
+        immunizationRecord.put("encounter", encounterId);
+        Code coding = immunization.codes.get(0);
+        immunizationRecord.put("code", coding.code);
+        immunizationRecord.put("display", coding.display);
+        immunizationRecord.put("system", coding.system);
+        immunizationRecord.put("cost", money(immunization.cost()));
+
+        return immunizationRecord;
+    }
+
+    /**
+     * Build a single careplan record in avro
+     * @param careplanId The careplan Id
+     * @param personId The person ID related to the careplan
+     * @param encounterId The encounter ID where the careplan was prescribed
+     * @param careplan The careplan
+     * @return The built careplan record
+     */
+    private GenericData.Record buildCarePlanRecord(String careplanId, String personId,
+                                                   String encounterId, CarePlan careplan) {
+        GenericData.Record careplanRecord = new GenericData.Record(schemas.get(ExportEvents.careplan));
+
+        careplanRecord.put("identifier", careplanId);
+        careplanRecord.put("start", date(careplan.start));
+        if (careplan.stop != 0L) {
+            careplanRecord.put("end", date(careplan.stop));
+        } else {
+            careplanRecord.put("end", missing());
+        }
+        careplanRecord.put("subject", personId);
+        careplanRecord.put("encounter", encounterId);
+        Code coding = careplan.codes.get(0);
+        careplanRecord.put("code", coding.code);
+        careplanRecord.put("display", coding.display);
+        careplanRecord.put("system", coding.system);
+        if (careplan.reasons.isEmpty()) {
+            careplanRecord.put("reason_code", "");
+            careplanRecord.put("reason_description", "");
+        } else {
+            Code reason = careplan.reasons.get(0);
+            careplanRecord.put("reason_code", reason.code);
+            careplanRecord.put("reason_description", reason.display);
+        }
+
+        return careplanRecord;
+    }
+
+    /**
+     * Build the records of an imaging study in avro, one per image.
+     * @param recordList List of imaging study records
+     * @param imagingStudyId The imaging study Id
+     * @param personId The person ID the images were taken of
+     * @param encounterId The encounter ID where the study was performed
+     * @param imagingStudy The imaging study
+     */
+    private void buildImagingStudyList(List<GenericData.Record> recordList, String imagingStudyId,
+                                       String personId, String encounterId, ImagingStudy imagingStudy) {
+        Object date = date(imagingStudy.start);
+        for (int s = 0; s < imagingStudy.series.size(); s++) {
+            ImagingStudy.Series series = imagingStudy.series.get(s);
+            for (int i = 0; i < series.instances.size(); i++) {
+                ImagingStudy.Instance instance = series.instances.get(i);
+                GenericData.Record imagingRecord = new GenericData.Record(schemas.get(ExportEvents.imagingstudy));
+
+                imagingRecord.put("identifier", imagingStudyId);
+                imagingRecord.put("date", date);
+                imagingRecord.put("subject", personId);
+                imagingRecord.put("encounter", encounterId);
+                imagingRecord.put("dicom_uid", imagingStudy.dicomUid);
+                imagingRecord.put("series", count(s + 1));
+                imagingRecord.put("instance", count(i + 1));
+                imagingRecord.put("bodysite_code", series.bodySite.code);
+                imagingRecord.put("bodysite_display", series.bodySite.display);
+                imagingRecord.put("modality_code", series.modality.code);
+                imagingRecord.put("modality_display", series.modality.display);
+                imagingRecord.put("sop_code", instance.sopClass.code);
+                imagingRecord.put("sop_display", instance.sopClass.display);
+                imagingRecord.put("title", instance.title != null ? instance.title : "");
+                recordList.add(imagingRecord);
+            }
+        }
+    }
+
+    /**
+     * Build a single diagnostic report record in avro
+     * @param reportId The report Id
+     * @param personId The person ID related to the report
+     * @param encounterId The encounter ID where the report was made
+     * @param report The report
+     * @return The built report record
+     */
+    private GenericData.Record buildReportRecord(String reportId, String personId,
+                                                 String encounterId, Report report) {
+        GenericData.Record reportRecord = new GenericData.Record(schemas.get(ExportEvents.diagnosticreport));
+
+        reportRecord.put("identifier", reportId);
+        reportRecord.put("date", date(report.start));
+        reportRecord.put("subject", personId);
+        reportRecord.put("encounter", encounterId);
+        Code coding = report.codes.get(0);
+        reportRecord.put("code", coding.code);
+        reportRecord.put("display", coding.display);
+        reportRecord.put("system", coding.system);
+        reportRecord.put("observations", count(report.observations.size()));
+
+        return reportRecord;
+    }
+
+    /**
+     * Build a single claim record in avro
+     * @param claimId The claim Id
+     * @param claim The claim, of an encounter or a medication
+     * @param time Time of the encounter or the start of the medication
+     * @param personId The person ID related to the claim
+     * @param encounterId The encounter ID related to the claim
+     * @param medicationId The medicationrequest ID of a medication claim, empty otherwise
+     * @return The built claim record
+     */
+    private GenericData.Record buildClaimRecord(String claimId, Claim claim, long time, String personId,
+                                                String encounterId, String medicationId) {
+        GenericData.Record claimRecord = new GenericData.Record(schemas.get(ExportEvents.claim));
+
+        claimRecord.put("identifier", claimId);
+        claimRecord.put("date", date(time));
+        claimRecord.put("subject", personId);
+        claimRecord.put("encounter", encounterId);
+        claimRecord.put("medicationrequest", medicationId);
+        claimRecord.put("insurance", claim.insurance != null ? claim.insurance : "");
+        claimRecord.put("base_cost", money(BigDecimal.valueOf(claim.baseCost)));
+        claimRecord.put("total_cost", money(claim.total()));
+        claimRecord.put("items", count(claim.items.size()));
+
+        return claimRecord;
+    }
+
+    /**
+     * Build a single Quality of Life record in avro
+     * @param personId The person ID related to the quality of life record
+     * @param year The year for the quality of life record
+     * @param qol The QOL value
+     * @param qaly The QALY value
+     * @param daly The DALY value
+     * @return The build quality of life record
+     */
+    private GenericData.Record buildQualityOfLifeRecord(String personId, Integer year, Double qol, Double qaly, Double daly) {
+        GenericData.Record qualityOfLifeRecord = new GenericData.Record(schemas.get(ExportEvents.measure));
+
+        qualityOfLifeRecord.put("subject", personId);
+        qualityOfLifeRecord.put("year", typed ? year : String.valueOf(year));
+        qualityOfLifeRecord.put("qol", typed ? qol : String.valueOf(qol));
+        qualityOfLifeRecord.put("qaly", typed ? qaly : String.valueOf(qaly));
+        qualityOfLifeRecord.put("daly", typed ? daly : String.valueOf(daly));
+
+        return qualityOfLifeRecord;
+    }
+
+    /**
+     * Build a single attribute record in avro
+     * @param personId The person ID the state are related to
+     * @param name The name of the attribute
+     * @param value The value of the attribute
+     * @return The built attribute record
+     */
+    private GenericData.Record buildAttributeRecord(String personId, String name, String value) {
+        GenericData.Record attributeRecord = new GenericData.Record(schemas.get(ExportEvents.state));
+
+        attributeRecord.put("subject", personId);
+        attributeRecord.put("name", name);
+        attributeRecord.put("value", value);
+
+        return attributeRecord;
+    }
+
+    /**
+     * Build observation list recursively. Observations have sub-observations with multiple levels of nesting.
+     * This function recursively builds the observation list to be written by traversing through each sub observation.
+     * @param recordList List of observation records
+     * @param personId Person ID
+     * @param encounterId Encounter ID
+     * @param observation Observation
+     */
+    private void buildObservationList(List<GenericData.Record> recordList, String personId,
+                                      String encounterId, Observation observation) {
+        if (observation.value == null) {
+            if (observation.observations != null && !observation.observations.isEmpty()) {
+                // just loop through the child observation
+                for (Observation subObs : observation.observations) {
+                    buildObservationList(recordList, personId, encounterId, subObs);
+                }
+            }
+        }
+        recordList.add(buildObservationRecord(personId, encounterId, observation));
+    }
+}
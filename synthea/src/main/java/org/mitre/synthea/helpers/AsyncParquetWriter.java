@@ -0,0 +1,197 @@
+package org.mitre.synthea.helpers;
+
+import org.apache.avro.generic.GenericData;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Moves the Parquet encoding and compression of a {@link RecordWriter} onto its own
+ * thread. Callers only append their records to the current batch. Full batches are handed to
+ * the writer thread, and each writer has its own thread, so several files are encoded in
+ * parallel while the callers carry on. A caller only waits if the writer thread has fallen a
+ * few batches behind, which keeps memory bounded.
+ * Records are written in the order they were appended.
+ */
+public class AsyncParquetWriter implements RecordWriter {
+
+    /**
+     * Number of full batches that can wait for the writer thread before callers have to wait.
+     */
+    private static final int QUEUE_CAPACITY = 4;
+
+    private final RecordWriter target;
+    private final int batchSize;
+    private final BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private Batch current;
+    private volatile IOException failure;
+
+    private static class Batch {
+        /**
+         * Key of each write in the batch, and the index in records where its records end.
+         */
+        private final List<String> keys = new ArrayList<>();
+        private final List<Integer> ends = new ArrayList<>();
+        private final List<GenericData.Record> records;
+        /**
+         * Set on the batch that asks the writer thread to finish the current file.
+         */
+        private final CountDownLatch finished;
+
+        private Batch(List<GenericData.Record> records, CountDownLatch finished) {
+            this.records = records;
+            this.finished = finished;
+        }
+    }
+
+    /**
+     * Create a writer and start its thread.
+     * @param target The writer that does the encoding, only used from the writer thread
+     * @param batchSize Number of records handed to the writer thread at a time
+     * @param name Name of the writer thread
+     */
+    public AsyncParquetWriter(RecordWriter target, int batchSize, String name) {
+        this.target = target;
+        this.batchSize = Math.max(1, batchSize);
+        Thread thread = new Thread(this::writeLoop, name);
+        // an idle writer shouldn't keep the JVM alive, close() is what waits for the files
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Append some records to the current batch, handing it to the writer thread if it is full.
+     * @param key Passed on to the target writer with these records, e.g. the patient ID
+     * @param records The records to write
+     * @throws IOException if the writer thread has failed to write earlier records
+     */
+    @Override
+    public void write(String key, List<GenericData.Record> records) throws IOException {
+        checkFailure();
+        if (records.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            if (current == null) {
+                current = new Batch(new ArrayList<>(batchSize), null);
+            }
+            int last = current.keys.size() - 1;
+            current.records.addAll(records);
+            if (last >= 0 && current.keys.get(last).equals(key)) {
+                current.ends.set(last, current.records.size());
+            } else {
+                current.keys.add(key);
+                current.ends.add(current.records.size());
+            }
+            if (current.records.size() >= batchSize) {
+                // handed off while holding the lock so batches stay in order
+                put(current);
+                current = null;
+            }
+        }
+    }
+
+    /**
+     * Write out everything appended so far and finish the current file, waiting until it is
+     * done. The writer can still be used afterwards, the next write starts a new file.
+     * @throws IOException if any records could not be written
+     */
+    @Override
+    public void close() throws IOException {
+        closeAll(Collections.singletonList(this));
+    }
+
+    /**
+     * Close several writers at once, so their files are finished in parallel.
+     * @param writers The writers to close
+     * @throws IOException if any records could not be written
+     */
+    public static void closeAll(Collection<AsyncParquetWriter> writers) throws IOException {
+        List<CountDownLatch> latches = new ArrayList<>();
+        for (AsyncParquetWriter writer : writers) {
+            latches.add(writer.finish());
+        }
+        try {
+            for (CountDownLatch finished : latches) {
+                finished.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for Parquet files to be written", e);
+        }
+        for (AsyncParquetWriter writer : writers) {
+            writer.checkFailure();
+        }
+    }
+
+    /**
+     * Hand over the current batch, followed by a request to finish the current file.
+     * @return Counted down once the file is finished
+     */
+    private CountDownLatch finish() throws IOException {
+        CountDownLatch finished = new CountDownLatch(1);
+        synchronized (this) {
+            if (current != null) {
+                put(current);
+                current = null;
+            }
+            put(new Batch(null, finished));
+        }
+        return finished;
+    }
+
+    private void put(Batch batch) throws IOException {
+        try {
+            queue.put(batch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting to write Parquet records", e);
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        IOException e = failure;
+        if (e != null) {
+            throw new IOException("Writing Parquet records failed", e);
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            Batch batch;
+            try {
+                batch = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                if (batch.finished == null) {
+                    int start = 0;
+                    for (int i = 0; i < batch.keys.size(); i++) {
+                        int end = batch.ends.get(i);
+                        target.write(batch.keys.get(i), batch.records.subList(start, end));
+                        start = end;
+                    }
+                } else {
+                    target.close();
+                }
+            } catch (IOException e) {
+                failure = e;
+                e.printStackTrace();
+            } catch (RuntimeException e) {
+                failure = new IOException(e);
+                e.printStackTrace();
+            } finally {
+                if (batch.finished != null) {
+                    batch.finished.countDown();
+                }
+            }
+        }
+    }
+}
@@ -10,6 +10,8 @@ import java.util.Set;
 
 public abstract class Config {
   private static Properties properties = new Properties();
+  /** Incremented on every change, so cached copies of settings can tell when they are stale. */
+  private static volatile long version;
 
   static {
     try {
@@ -25,6 +27,7 @@ public abstract class Config {
    */
   public static void load(File propsFile) throws FileNotFoundException, IOException {
     properties.load(new FileReader(propsFile));
+    version++;
   }
 
   /**
@@ -32,6 +35,7 @@ public abstract class Config {
    */
   public static void load(InputStream stream) throws IOException {
     properties.load(stream);
+    version++;
   }
 
   /**
@@ -63,6 +67,17 @@ public abstract class Config {
    */
   public static void set(String key, String value) {
     properties.setProperty(key, value);
+    version++;
+  }
+
+  /**
+   * Get the version of the configuration, which changes whenever a property is loaded, set, or
+   * removed. Classes that cache parsed settings compare this to decide when to re-read them.
+   *
+   * @return current configuration version
+   */
+  public static long getVersion() {
+    return version;
   }
 
   /**
@@ -88,6 +103,7 @@ public abstract class Config {
   public static void remove(String key) {
     if (properties.stringPropertyNames().contains(key)) {
       properties.remove(key);
+      version++;
     }
   }
 
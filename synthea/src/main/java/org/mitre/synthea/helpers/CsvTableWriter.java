@@ -0,0 +1,202 @@
+package org.mitre.synthea.helpers;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the rows of one CSV table, from any number of threads, without a lock or a system call
+ * per row. Each thread appends its rows to a buffer of its own, which is written out in one go
+ * once it holds bufferSize characters, so rows are never split or interleaved. The buffers go
+ * either to the table's file, or with sharding, to a file of each thread's own (e.g.
+ * patients.shard2.csv), which can be merged into the table's file at the end of the run.
+ *
+ * <p>Rows from different threads end up in whatever order the buffers fill up. Where the order
+ * matters, e.g. in deterministic mode, use a single shared buffer instead.
+ */
+public class CsvTableWriter implements Closeable {
+  private static final String NEWLINE = System.lineSeparator();
+
+  private final File file;
+  private final String header;
+  private final int bufferSize;
+  private final boolean sharded;
+  private final boolean merge;
+  /** The table's file, opened for appending so merged shards can be added to it. */
+  private Writer out;
+
+  private final Buffer shared;
+  private final ThreadLocal<Buffer> local;
+  private final List<Buffer> buffers = new ArrayList<>();
+  private int shards;
+
+  /**
+   * The rows a thread hasn't written out yet, and its shard, if sharded.
+   */
+  private class Buffer {
+    private final StringBuilder rows = new StringBuilder();
+    private File shardFile;
+    private Writer shard;
+
+    /**
+     * Write out the buffered rows. Must be called while holding this buffer's lock.
+     */
+    private void drain() throws IOException {
+      if (rows.length() == 0) {
+        return;
+      }
+      if (sharded) {
+        if (shard == null) {
+          synchronized (CsvTableWriter.this) {
+            shardFile = shardFile(shards++);
+          }
+          shard = new FileWriter(shardFile);
+          shard.write(header);
+          shard.write(NEWLINE);
+        }
+        shard.write(rows.toString());
+      } else {
+        synchronized (CsvTableWriter.this) {
+          out.write(rows.toString());
+        }
+      }
+      rows.setLength(0);
+    }
+  }
+
+  /**
+   * Create a table, replacing the file if it exists, and write its header.
+   * @param file The table's file
+   * @param header The header line, without a line break
+   * @param bufferSize Number of characters each thread buffers before writing them out
+   * @param perThread Whether each thread has a buffer of its own, otherwise rows are written in
+   *                  the order they are added
+   * @param sharded Whether each thread writes a file of its own. Needs perThread
+   * @param merge Whether the shards are merged into the table's file by {@link #flush}
+   * @throws IOException if the file can't be created
+   */
+  public CsvTableWriter(File file, String header, int bufferSize, boolean perThread,
+      boolean sharded, boolean merge) throws IOException {
+    this.file = file;
+    this.header = header;
+    this.bufferSize = Math.max(1, bufferSize);
+    this.sharded = perThread && sharded;
+    this.merge = merge;
+    if (!this.sharded || merge) {
+      Files.write(file.toPath(), (header + NEWLINE).getBytes());
+      out = new FileWriter(file, true);
+    }
+    if (perThread) {
+      shared = null;
+      local = ThreadLocal.withInitial(() -> {
+        Buffer buffer = new Buffer();
+        synchronized (this) {
+          buffers.add(buffer);
+        }
+        return buffer;
+      });
+    } else {
+      shared = new Buffer();
+      buffers.add(shared);
+      local = null;
+    }
+  }
+
+  /**
+   * Add a row to the calling thread's buffer, writing the buffer out if it is full.
+   * @param row The row, including its line break
+   * @throws IOException if the buffer can't be written out
+   */
+  public void write(CharSequence row) throws IOException {
+    Buffer buffer = shared != null ? shared : local.get();
+    // only contended while another thread flushes every buffer
+    synchronized (buffer) {
+      buffer.rows.append(row);
+      if (buffer.rows.length() >= bufferSize) {
+        buffer.drain();
+      }
+    }
+  }
+
+  /**
+   * Write out every thread's buffer, and merge the shards into the table's file if they are
+   * to be merged. Rows written afterwards start new shards.
+   * @throws IOException if the rows can't be written
+   */
+  public void flush() throws IOException {
+    List<Buffer> all;
+    synchronized (this) {
+      all = new ArrayList<>(buffers);
+    }
+    for (Buffer buffer : all) {
+      synchronized (buffer) {
+        buffer.drain();
+        if (buffer.shard != null) {
+          buffer.shard.flush();
+          if (merge) {
+            buffer.shard.close();
+            buffer.shard = null;
+            append(buffer.shardFile);
+            Files.delete(buffer.shardFile.toPath());
+          }
+        }
+      }
+    }
+    synchronized (this) {
+      if (out != null) {
+        out.flush();
+      }
+    }
+  }
+
+  /**
+   * Flush and close the table. It can't be written to afterwards.
+   * @throws IOException if the rows can't be written
+   */
+  @Override
+  public void close() throws IOException {
+    flush();
+    synchronized (this) {
+      for (Buffer buffer : buffers) {
+        if (buffer.shard != null) {
+          buffer.shard.close();
+        }
+      }
+      if (out != null) {
+        out.close();
+      }
+    }
+  }
+
+  private File shardFile(int shard) {
+    String name = file.getName();
+    int dot = name.lastIndexOf('.');
+    String base = dot < 0 ? name : name.substring(0, dot);
+    String extension = dot < 0 ? "" : name.substring(dot);
+    return new File(file.getParentFile(), base + ".shard" + shard + extension);
+  }
+
+  /**
+   * Append a shard's rows, without its header, to the table's file.
+   */
+  private synchronized void append(File shardFile) throws IOException {
+    out.flush();
+    long skip = (header + NEWLINE).getBytes().length;
+    try (FileChannel source = FileChannel.open(shardFile.toPath(), StandardOpenOption.READ);
+         FileChannel target = new FileOutputStream(file, true).getChannel()) {
+      long position = skip;
+      long size = source.size();
+      while (position < size) {
+        position += source.transferTo(position, size - position, target);
+      }
+    }
+  }
+}
@@ -1,39 +1,64 @@
 package org.mitre.synthea.helpers;
 
-import com.google.gson.Gson;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
-
+import java.io.File;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
 import java.util.Map;
 
+/**
+ * Reports export progress, by default to the logging API. Updates are handed to a
+ * {@link ProgressReporter}, which sends them in the background, so exporters never wait on
+ * the network. Where updates go is set by logging.sink: http, jsonl (a local file) or none.
+ */
 public class ExportLogHelper {
     public static final String LOG_API_URL = "http://proxi-synthea-logs-api.us-east-1.elasticbeanstalk.com/v1/runs/";
 
+    private static ProgressReporter reporter;
+
+    /**
+     * Report the number of records exported, by event type.
+     * @param counts Number of records exported since the last update, by event type
+     */
     public static void sendUpdate(Map<String, Integer> counts) {
-        String state = ValueStore.getState();
-        int population = ValueStore.getPopulation();
-        String runId = Config.get("logging.run_id");
-        String instanceId = Config.get("logging.instance_id");
+        getReporter().report(counts);
+    }
 
+    /**
+     * Wait for every update so far to be sent, up to logging.timeout_ms.
+     */
+    public static void flush() {
         try {
-            Gson gson = new Gson();
-            CloseableHttpClient client = HttpClients.createDefault();
-            HttpPost postRequest = new HttpPost(LOG_API_URL + runId + "/updates");
-            LogEntity bodyObj = new LogEntity(counts, instanceId, state, population);
-            StringEntity stringEntity = new StringEntity(gson.toJson(bodyObj));
-            postRequest.setEntity(stringEntity);
-            postRequest.setHeader("Content-type", "application/json");
-            client.execute(postRequest);
-        } catch(UnsupportedEncodingException uee) {
-            uee.printStackTrace();
-        } catch(IOException ioe) {
-            ioe.printStackTrace();
+            getReporter().flush(Long.parseLong(Config.get("logging.timeout_ms", "5000")));
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static synchronized ProgressReporter getReporter() {
+        if (reporter == null) {
+            reporter = new ProgressReporter(createSink(),
+                    Long.parseLong(Config.get("logging.flush_interval_ms", "1000")));
+        }
+        return reporter;
+    }
+
+    /**
+     * Create the sink configured by logging.sink.
+     */
+    static ProgressSink createSink() {
+        String sink = Config.get("logging.sink", "http");
+        if (sink.equalsIgnoreCase("http")
+                && Boolean.parseBoolean(Config.get("logging.remote_enabled", "true"))) {
+            String runId = Config.get("logging.run_id");
+            String url = Config.get("logging.url", LOG_API_URL + runId + "/updates");
+            return new HttpProgressSink(url, Integer.parseInt(Config.get("logging.timeout_ms", "5000")));
+        } else if (sink.equalsIgnoreCase("jsonl")) {
+            try {
+                return new JsonLinesProgressSink(new File(Config.get("logging.file", "progress.jsonl")));
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
         }
+        return ProgressSink.NONE;
     }
 }
 
@@ -1,9 +1,11 @@
 package org.mitre.synthea.helpers;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.io.Writer;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -11,6 +13,18 @@ import java.util.concurrent.atomic.AtomicInteger;
  * Fact Tables. If you have a "table" where each row is a fact or
  * lookup table where a value should be referenced by an ID, you
  * can add these keys and facts to this table and get back the ID.
+ *
+ * <p>Tables are independent of each other and safe to use from many
+ * threads. Looking up a key that is already in the table takes no lock;
+ * a new key only locks its own bin of the table while it is given an ID.
+ * IDs are handed out in the order new keys are added, so when the keys
+ * are added in a deterministic order (as they are in deterministic mode,
+ * where patients are exported one at a time) the IDs are deterministic too.
+ *
+ * <p>A table can also {@link #stream} its facts to a file as they are
+ * added, instead of holding them all until {@link #write} is called. Only
+ * the key to ID lookup is then kept in memory, and the table owns the
+ * writer until it is {@link #close}d.
  */
 public class FactTable {
   /**
@@ -20,22 +34,25 @@ public class FactTable {
   /** Table column headers. Comma-separated. */
   private String header;
   /** This is the ID sequence generator. */
-  private AtomicInteger id;
+  private final AtomicInteger id;
   /** Lookup the ID for a key. */
-  private Map<String,Integer> keys;
-  /** Lookup the fact by ID. */
-  private Map<Integer,String> facts;
-  /** Synchronization lock. */
-  private static final Object LOCK = new Object();
-  
+  private final Map<String,Integer> keys;
+  /**
+   * Lookup the fact by ID, sorted so the table is written in ID order.
+   * A null fact is stored as an empty one.
+   */
+  private final Map<Integer,String> facts;
+  /** Where new facts are written as they are added, if the table is streamed. */
+  private volatile Writer out;
+
   /**
    * Create a FactTable with an ID that starts at 1
    * and increments with each new key/fact.
    */
   public FactTable() {
     id = new AtomicInteger(1);
-    keys = new HashMap<String,Integer>();
-    facts = new HashMap<Integer,String>();
+    keys = new ConcurrentHashMap<String,Integer>();
+    facts = new ConcurrentSkipListMap<Integer,String>();
   }
 
   /**
@@ -43,9 +60,7 @@ public class FactTable {
    * @param id The value of the next ID.
    */
   public void setNextId(int id) {
-    synchronized (LOCK) {
-      this.id = new AtomicInteger(id);
-    }
+    this.id.set(id);
   }
   
   /**
@@ -56,15 +71,60 @@ public class FactTable {
     this.header = header;
   }
   
+  /**
+   * Stream the table to a file: write the header and the facts added so far,
+   * then write each new fact as soon as it is added. The facts are no longer
+   * kept in memory, so {@link #getFactById} and {@link #getFactByKey} return
+   * null. Call this before the table is shared between threads.
+   * @param writer The open Writer to stream the FactTable to.
+   * @throws IOException On errors.
+   */
+  public synchronized void stream(Writer writer) throws IOException {
+    writer.write(header);
+    writer.write(NEWLINE);
+    for (Map.Entry<Integer,String> entry : facts.entrySet()) {
+      writeFact(writer, entry.getKey(), entry.getValue());
+    }
+    facts.clear();
+    out = writer;
+  }
+
+  /**
+   * Whether the table is streamed to a file.
+   * @return true if {@link #stream} has been called.
+   */
+  public boolean isStreaming() {
+    return out != null;
+  }
+
+  /**
+   * Write any facts a streamed table is still buffering.
+   * @throws IOException On errors.
+   */
+  public synchronized void flush() throws IOException {
+    if (out != null) {
+      out.flush();
+    }
+  }
+
+  /**
+   * Close the file a streamed table is written to. No more facts can be
+   * added to the table afterwards.
+   * @throws IOException On errors.
+   */
+  public synchronized void close() throws IOException {
+    if (out != null) {
+      out.close();
+    }
+  }
+
   /**
    * Get the ID for a fact by a key.
    * @param key The key for a fact. For example, 'M' or 'F'.
    * @return The ID for the fact. For example, 1 or 2.
    */
   public int getFactId(String key) {
-    synchronized (LOCK) {
-      return keys.get(key);
-    }
+    return keys.get(key);
   }
 
   /**
@@ -73,10 +133,8 @@ public class FactTable {
    * @return The fact. For example, 'Male' or 'Female'.
    */
   public String getFactByKey(String key) {
-    synchronized (LOCK) {
-      Integer id = keys.get(key);
-      return facts.get(id);
-    }
+    Integer id = keys.get(key);
+    return id == null ? null : facts.get(id);
   }
 
   /**
@@ -85,9 +143,7 @@ public class FactTable {
    * @return The fact. For example, 'Male' or 'Female'.
    */
   public String getFactById(Integer id) {
-    synchronized (LOCK) {
-      return facts.get(id);
-    }
+    return facts.get(id);
   }
 
   /**
@@ -101,37 +157,55 @@ public class FactTable {
    * @return The ID for the fact. For example, 1 or 2.
    */
   public int addFact(String key, String fact) {
-    synchronized (LOCK) {
-      if (keys.containsKey(key)) {
-        return keys.get(key);
+    // most keys are already in the table, and get() doesn't lock
+    Integer existing = keys.get(key);
+    if (existing != null) {
+      return existing;
+    }
+    // the fact goes in before the key's ID is visible to other threads
+    return keys.computeIfAbsent(key, k -> {
+      if (out != null) {
+        return append(fact);
       }
-
       int next = id.getAndIncrement();
-      keys.put(key, next);
-      facts.put(next, fact);
+      facts.put(next, fact == null ? "" : fact);
       return next;
-    }
+    });
   }
   
   /**
-   * Write the contents of the FactTable to a file.
+   * Give a fact the next ID and write it to the stream. IDs are taken
+   * under the same lock as the write, so the file is in ID order.
+   */
+  private synchronized int append(String fact) {
+    int next = id.getAndIncrement();
+    try {
+      writeFact(out, next, fact == null ? "" : fact);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return next;
+  }
+
+  private static void writeFact(Writer writer, Integer id, String fact) throws IOException {
+    writer.write(id.toString());
+    writer.write(',');
+    writer.write(fact);
+    writer.write(NEWLINE);
+  }
+
+  /**
+   * Write the contents of the FactTable to a file. Facts added while
+   * the table is being written may or may not be included.
    * @param writer The open Writer to use to record the FactTable.
    * @throws IOException On errors.
    */
   public void write(Writer writer) throws IOException {
-    synchronized (LOCK) {
-      writer.write(header);
-      writer.write(NEWLINE);
-      for (Integer key : facts.keySet()) {
-        writer.write(key.toString());
-        writer.write(',');
-        String fact = facts.get(key);
-        if (fact != null) {
-          writer.write(facts.get(key));
-        }
-        writer.write(NEWLINE);
-      }
-      writer.flush();
+    writer.write(header);
+    writer.write(NEWLINE);
+    for (Map.Entry<Integer,String> entry : facts.entrySet()) {
+      writeFact(writer, entry.getKey(), entry.getValue());
     }
+    writer.flush();
   }
 }
@@ -0,0 +1,54 @@
+package org.mitre.synthea.helpers;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+
+/**
+ * Posts each update to a URL, over one client whose connections are kept alive between updates.
+ */
+public class HttpProgressSink implements ProgressSink {
+
+    private final String url;
+    private final CloseableHttpClient client;
+
+    /**
+     * @param url The URL to post updates to
+     * @param timeoutMillis How long to wait to connect, and then for the response
+     */
+    public HttpProgressSink(String url, int timeoutMillis) {
+        this.url = url;
+        RequestConfig config = RequestConfig.custom()
+                .setConnectTimeout(timeoutMillis)
+                .setConnectionRequestTimeout(timeoutMillis)
+                .setSocketTimeout(timeoutMillis)
+                .build();
+        this.client = HttpClients.custom().setDefaultRequestConfig(config).build();
+    }
+
+    @Override
+    public void send(String update) throws IOException {
+        HttpPost postRequest = new HttpPost(url);
+        postRequest.setEntity(new StringEntity(update, ContentType.APPLICATION_JSON));
+        try (CloseableHttpResponse response = client.execute(postRequest)) {
+            // read the whole response, so the connection can be reused
+            EntityUtils.consume(response.getEntity());
+            int status = response.getStatusLine().getStatusCode();
+            if (status < 200 || status >= 300) {
+                throw new IOException("POST " + url + " returned " + response.getStatusLine());
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        client.close();
+    }
+}
@@ -0,0 +1,40 @@
+package org.mitre.synthea.helpers;
+
+import java.util.UUID;
+
+import org.mitre.synthea.export.ExportSettings;
+
+/**
+ * Hands out the ids of the resources exported for one person. In deterministic mode (see
+ * "generate.deterministic") they are derived from the seed of the record being exported, in
+ * the order they are handed out, so exporting the same person again gives the same ids.
+ * Otherwise they are random UUIDs.
+ */
+public class IdSequence {
+  private final long seed;
+  private final boolean deterministic;
+  private long sequence;
+
+  /**
+   * Start the ids for a person.
+   * @param seed The seed of the record being exported, see Person.recordSeed()
+   * @param first The first sequence number to derive an id from. Each exporter starts at a
+   *              number of its own, far from the others, so their ids don't overlap
+   */
+  public IdSequence(long seed, long first) {
+    this.seed = seed;
+    this.sequence = first;
+    this.deterministic = ExportSettings.get().deterministic;
+  }
+
+  /**
+   * Get the next id.
+   * @return A UUID, as a String.
+   */
+  public String next() {
+    if (deterministic) {
+      return Utilities.seededUUID(seed, sequence++).toString();
+    }
+    return UUID.randomUUID().toString();
+  }
+}
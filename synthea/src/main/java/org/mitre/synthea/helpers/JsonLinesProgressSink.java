@@ -0,0 +1,42 @@
+package org.mitre.synthea.helpers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Appends each update to a local file, one JSON object per line.
+ */
+public class JsonLinesProgressSink implements ProgressSink {
+
+    private final Writer writer;
+
+    /**
+     * @param file The file to append to, created if it doesn't exist
+     * @throws IOException if the file can't be opened
+     */
+    public JsonLinesProgressSink(File file) throws IOException {
+        File folder = file.getAbsoluteFile().getParentFile();
+        if (folder != null) {
+            folder.mkdirs();
+        }
+        this.writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    @Override
+    public synchronized void send(String update) throws IOException {
+        writer.write(update);
+        writer.write('\n');
+        // updates are already batched, so each one can go straight to the file
+        writer.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,201 @@
+package org.mitre.synthea.helpers;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes newline-delimited JSON (one JSON document per line) for one resource type, from any
+ * number of threads, without a lock or a system call per line. Like {@link CsvTableWriter},
+ * each thread buffers its lines and writes them out in one go once it holds bufferSize
+ * characters. The lines go to name.ndjson, or with sharding, each thread writes files of its
+ * own. Once a file would grow past maxFileSize bytes, the lines go on in the next file:
+ * name.1.ndjson, name.2.ndjson and so on.
+ *
+ * <p>Lines are never split between files, but lines from different threads end up in whatever
+ * order the buffers fill up. Where the order matters, use a single shared buffer instead.
+ */
+public class NdjsonWriter implements Closeable {
+  private final File directory;
+  private final String name;
+  private final int bufferSize;
+  private final boolean sharded;
+  private final long maxFileSize;
+  /** Number of files started so far. */
+  private int files;
+
+  /** The file all threads write to, unless sharded. */
+  private final Output out;
+  private final Buffer shared;
+  private final ThreadLocal<Buffer> local;
+  private final List<Buffer> buffers = new ArrayList<>();
+
+  /**
+   * A sequence of files, which moves on to the next file once the current one is full.
+   */
+  private class Output {
+    private FileOutputStream stream;
+    private long size;
+
+    private void write(byte[] bytes) throws IOException {
+      if (stream != null && isFull(bytes.length)) {
+        stream.close();
+        stream = null;
+      }
+      while (stream == null) {
+        File file = nextFile();
+        // appended to, so lines from an earlier writer or run into the same folder are kept,
+        // but files they already filled up are skipped
+        size = file.length();
+        if (!isFull(bytes.length)) {
+          stream = new FileOutputStream(file, true);
+        }
+      }
+      stream.write(bytes);
+      size += bytes.length;
+    }
+
+    /**
+     * Whether the current file has no room for this many more bytes. An empty file always has
+     * room, so a line longer than maxFileSize still gets written.
+     */
+    private boolean isFull(int length) {
+      return maxFileSize > 0 && size > 0 && size + length > maxFileSize;
+    }
+
+    private void close() throws IOException {
+      if (stream != null) {
+        stream.close();
+        stream = null;
+      }
+    }
+  }
+
+  /**
+   * The lines a thread hasn't written out yet, and its own files, if sharded.
+   */
+  private class Buffer {
+    private final StringBuilder lines = new StringBuilder();
+    private final Output shard = sharded ? new Output() : null;
+
+    /**
+     * Write out the buffered lines. Must be called while holding this buffer's lock.
+     */
+    private void drain() throws IOException {
+      if (lines.length() == 0) {
+        return;
+      }
+      byte[] bytes = lines.toString().getBytes(StandardCharsets.UTF_8);
+      lines.setLength(0);
+      if (sharded) {
+        shard.write(bytes);
+      } else {
+        synchronized (out) {
+          out.write(bytes);
+        }
+      }
+    }
+  }
+
+  /**
+   * Create a writer. No file is created until the first lines are written out.
+   * @param directory The folder to write the files to
+   * @param name The name of the files, without the extension, e.g. the resource type
+   * @param bufferSize Number of characters each thread buffers before writing them out
+   * @param perThread Whether each thread has a buffer of its own, otherwise lines are written
+   *                  in the order they are added
+   * @param sharded Whether each thread writes files of its own. Needs perThread
+   * @param maxFileSize Size in bytes a file may grow to before the next one is started, or 0
+   *                    to write a single file (per thread, if sharded)
+   */
+  public NdjsonWriter(File directory, String name, int bufferSize, boolean perThread,
+      boolean sharded, long maxFileSize) {
+    this.directory = directory;
+    this.name = name;
+    this.bufferSize = Math.max(1, bufferSize);
+    this.sharded = perThread && sharded;
+    this.maxFileSize = maxFileSize;
+    this.out = this.sharded ? null : new Output();
+    if (perThread) {
+      shared = null;
+      local = ThreadLocal.withInitial(() -> {
+        Buffer buffer = new Buffer();
+        synchronized (this) {
+          buffers.add(buffer);
+        }
+        return buffer;
+      });
+    } else {
+      shared = new Buffer();
+      buffers.add(shared);
+      local = null;
+    }
+  }
+
+  /**
+   * Add a line to the calling thread's buffer, writing the buffer out if it is full.
+   * @param json A JSON document, without line breaks
+   * @throws IOException if the buffer can't be written out
+   */
+  public void write(String json) throws IOException {
+    Buffer buffer = shared != null ? shared : local.get();
+    // only contended while another thread flushes every buffer
+    synchronized (buffer) {
+      buffer.lines.append(json).append('\n');
+      if (buffer.lines.length() >= bufferSize) {
+        buffer.drain();
+      }
+    }
+  }
+
+  /**
+   * Write out every thread's buffer.
+   * @throws IOException if the lines can't be written
+   */
+  public void flush() throws IOException {
+    List<Buffer> all;
+    synchronized (this) {
+      all = new ArrayList<>(buffers);
+    }
+    for (Buffer buffer : all) {
+      synchronized (buffer) {
+        buffer.drain();
+      }
+    }
+  }
+
+  /**
+   * Write out every thread's buffer and close the files. Lines written afterwards start the
+   * next file.
+   * @throws IOException if the lines can't be written
+   */
+  @Override
+  public void close() throws IOException {
+    flush();
+    List<Buffer> all;
+    synchronized (this) {
+      all = new ArrayList<>(buffers);
+    }
+    for (Buffer buffer : all) {
+      synchronized (buffer) {
+        if (buffer.shard != null) {
+          buffer.shard.close();
+        }
+      }
+    }
+    if (out != null) {
+      synchronized (out) {
+        out.close();
+      }
+    }
+  }
+
+  private synchronized File nextFile() {
+    int file = files++;
+    return new File(directory, file == 0 ? name + ".ndjson" : name + "." + file + ".ndjson");
+  }
+}
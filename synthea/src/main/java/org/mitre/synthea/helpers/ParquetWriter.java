@@ -3,25 +3,127 @@ package org.mitre.synthea.helpers;
 import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericData;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.ZStandardCodec;
 import org.apache.parquet.avro.AvroParquetWriter;
+import org.apache.parquet.hadoop.ParquetFileWriter;
 import org.apache.parquet.hadoop.metadata.CompressionCodecName;
 
 import java.io.IOException;
-import java.util.List;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 
 public class ParquetWriter {
-    public void writeToParquet(List<GenericData.Record> recordsToWrite, Path fileToWrite, Schema schema) throws IOException {
-        try (org.apache.parquet.hadoop.ParquetWriter<GenericData.Record> writer = AvroParquetWriter
-                .<GenericData.Record>builder(fileToWrite)
-                .withSchema(schema)
-                .withConf(new Configuration())
-                .withCompressionCodec(CompressionCodecName.SNAPPY)
-                .build()) {
+    /**
+     * How Parquet files are encoded. Every file written with the same options shares one Hadoop
+     * Configuration, rather than each file creating and loading its own.
+     */
+    public static final class Options {
+        /**
+         * Parquet's defaults, compressed with SNAPPY.
+         */
+        public static final Options DEFAULT = new Options(CompressionCodecName.SNAPPY,
+                org.apache.parquet.hadoop.ParquetWriter.DEFAULT_BLOCK_SIZE,
+                org.apache.parquet.hadoop.ParquetWriter.DEFAULT_PAGE_SIZE, true);
+
+        public final CompressionCodecName codec;
+        public final int rowGroupSize;
+        public final int pageSize;
+        public final boolean dictionary;
+
+        private Configuration conf;
+
+        /**
+         * @param codec Compression codec
+         * @param rowGroupSize Row group size in bytes, which is roughly how much of a file is held
+         *                     in memory before it is encoded
+         * @param pageSize Page size in bytes, the unit of encoding and compression within a column
+         * @param dictionary Whether to dictionary encode columns with few distinct values
+         */
+        public Options(CompressionCodecName codec, int rowGroupSize, int pageSize,
+                       boolean dictionary) {
+            this.codec = codec;
+            this.rowGroupSize = rowGroupSize;
+            this.pageSize = pageSize;
+            this.dictionary = dictionary;
+        }
+
+        /**
+         * The Configuration shared by every file written with these options, created on first use.
+         */
+        private synchronized Configuration conf() {
+            if (conf == null) {
+                conf = new Configuration();
+            }
+            return conf;
+        }
+    }
 
-            for (GenericData.Record record : recordsToWrite) {
-                writer.write(record);
+    /**
+     * The hidden file a Parquet file is written to before it is complete. Query engines skip
+     * files whose name starts with a dot.
+     * @param file The complete file
+     * @return The in progress file next to it
+     */
+    public static Path inProgress(Path file) {
+        return new Path(file.getParent(), "." + file.getName() + ".inprogress");
+    }
+
+    /**
+     * Atomically rename a file from its in progress name to its final name, so nothing ever
+     * sees a partly written file.
+     * @param file The final file
+     * @throws IOException if the file can't be renamed
+     */
+    public static void commit(Path file) throws IOException {
+        if (isLocal(file)) {
+            Files.move(Paths.get(inProgress(file).toUri().getPath()), Paths.get(file.toUri().getPath()),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            FileSystem fs = file.getFileSystem(Options.DEFAULT.conf());
+            fs.delete(file, false);
+            if (!fs.rename(inProgress(file), file)) {
+                throw new IOException("Unable to rename " + inProgress(file) + " to " + file);
             }
         }
     }
+
+    private static boolean isLocal(Path file) {
+        String scheme = file.toUri().getScheme();
+        return scheme == null || scheme.equals("file");
+    }
+
+    /**
+     * Open a writer for a file of Avro records, replacing the file if it already exists.
+     * Files on the local file system are written directly, without a Hadoop checksum file.
+     * @param fileToWrite The file to write
+     * @param schema Schema of the records
+     * @param options How to encode the file
+     * @return The writer, which must be closed to finish the file
+     * @throws IOException if the file can't be created
+     */
+    public static org.apache.parquet.hadoop.ParquetWriter<GenericData.Record> open(Path fileToWrite,
+            Schema schema, Options options) throws IOException {
+        if (options.codec == CompressionCodecName.ZSTD && !ZStandardCodec.isNativeCodeLoaded()) {
+            throw new IOException("ZSTD compression needs the native Hadoop library with zstd "
+                    + "support, use SNAPPY, GZIP or UNCOMPRESSED instead");
+        }
+        AvroParquetWriter.Builder<GenericData.Record> builder;
+        if (isLocal(fileToWrite)) {
+            builder = AvroParquetWriter.builder(new LocalOutputFile(Paths.get(fileToWrite.toUri().getPath())));
+        } else {
+            builder = AvroParquetWriter.builder(fileToWrite);
+        }
+        return builder
+                .withSchema(schema)
+                .withConf(options.conf())
+                .withCompressionCodec(options.codec)
+                .withRowGroupSize(options.rowGroupSize)
+                .withPageSize(options.pageSize)
+                .withDictionaryEncoding(options.dictionary)
+                .withWriteMode(ParquetFileWriter.Mode.OVERWRITE)
+                .build();
+    }
 }
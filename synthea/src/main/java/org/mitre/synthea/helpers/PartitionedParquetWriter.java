@@ -0,0 +1,123 @@
+package org.mitre.synthea.helpers;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.hadoop.fs.Path;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes records into a Hive style partitioned folder, e.g. state=MA/year=2019/part-00000.parquet,
+ * so query engines can skip the partitions a query doesn't need. Records are buffered per
+ * partition and each file is sorted before it is written, which gives every file tight min/max
+ * statistics on the sort columns. Once the buffers hold the maximum number of records, the
+ * largest partition is written out as a file of its own. Files are written under a hidden name
+ * and renamed once complete.
+ */
+public class PartitionedParquetWriter implements RecordWriter {
+
+    private final File folder;
+    private final Schema schema;
+    private final ParquetWriter.Options options;
+    private final int bufferRows;
+    private final Comparator<GenericData.Record> order;
+    private final RollingParquetWriter.FileListener listener;
+
+    /**
+     * Buffered records of each partition, in partition order so files are written predictably.
+     */
+    private final Map<String, List<GenericData.Record>> buffers = new TreeMap<>();
+    private int buffered;
+    private int nextPart;
+
+    /**
+     * Create a writer. No file is created until a partition is written out.
+     * @param folder Folder the partitions are created in
+     * @param schema Schema of the records
+     * @param options How to encode the files
+     * @param bufferRows Number of records held in memory, across all partitions
+     * @param order Order of the records within each file
+     * @param listener Notified when each file is finished, may be null
+     */
+    public PartitionedParquetWriter(File folder, Schema schema, ParquetWriter.Options options,
+                                    int bufferRows, Comparator<GenericData.Record> order,
+                                    RollingParquetWriter.FileListener listener) {
+        this.folder = folder;
+        this.schema = schema;
+        this.options = options;
+        this.bufferRows = Math.max(1, bufferRows);
+        this.order = order;
+        this.listener = listener;
+    }
+
+    /**
+     * Add some records to a partition, writing out the largest partition if the buffers are full.
+     * @param key The partition the records belong to, as a relative path, e.g. state=MA/year=2019
+     * @param records The records to write
+     * @throws IOException if a partition can't be written out
+     */
+    @Override
+    public synchronized void write(String key, List<GenericData.Record> records) throws IOException {
+        if (records.isEmpty()) {
+            return;
+        }
+        buffers.computeIfAbsent(key, k -> new ArrayList<>()).addAll(records);
+        buffered += records.size();
+        while (buffered >= bufferRows) {
+            String largest = null;
+            int largestSize = 0;
+            for (Map.Entry<String, List<GenericData.Record>> entry : buffers.entrySet()) {
+                if (entry.getValue().size() > largestSize) {
+                    largest = entry.getKey();
+                    largestSize = entry.getValue().size();
+                }
+            }
+            flush(largest);
+        }
+    }
+
+    /**
+     * Write out every partition. The next write starts new files.
+     * @throws IOException if a partition can't be written out
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        for (String partition : new ArrayList<>(buffers.keySet())) {
+            flush(partition);
+        }
+    }
+
+    /**
+     * Sort the buffered records of a partition and write them to a new file.
+     */
+    private void flush(String partition) throws IOException {
+        List<GenericData.Record> records = buffers.remove(partition);
+        buffered -= records.size();
+        records.sort(order);
+
+        File partitionFolder = new File(folder, partition);
+        partitionFolder.mkdirs();
+        File part;
+        do {
+            // never replace the files of an earlier run into the same folder
+            part = new File(partitionFolder, String.format("part-%05d.parquet", nextPart++));
+        } while (part.exists());
+        Path file = new Path(part.getPath());
+        try (org.apache.parquet.hadoop.ParquetWriter<GenericData.Record> writer =
+                     ParquetWriter.open(ParquetWriter.inProgress(file), schema, options)) {
+            for (GenericData.Record record : records) {
+                writer.write(record);
+            }
+        }
+        ParquetWriter.commit(file);
+        if (listener != null) {
+            listener.fileClosed(file, records.size());
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package org.mitre.synthea.helpers;
+
+import com.google.gson.Gson;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Sends export progress to a {@link ProgressSink} on a thread of its own, so exporters never
+ * wait on the sink. Counts reported while an update is being sent are added up and go out
+ * together in the next update, at most one every interval, so however fast the exporters
+ * report, the pending counts hold one entry per event type and nothing queues up behind a
+ * slow or unreachable sink.
+ */
+public class ProgressReporter {
+
+    private final ProgressSink sink;
+    private final long intervalMillis;
+    private final Gson gson = new Gson();
+    private final Thread thread;
+
+    private Map<String, Integer> pending = new HashMap<>();
+    /** Number of reports received, and the number of those that have been sent or failed */
+    private long received;
+    private long done;
+    private boolean closed;
+    /** Whether the thread is waiting for counts, as opposed to waiting out the interval */
+    private boolean idle;
+    /** Number of threads waiting in {@link #flush} */
+    private int flushing;
+
+    /**
+     * Create a reporter and start its thread.
+     * @param sink Where updates are sent
+     * @param intervalMillis Minimum time between two updates
+     */
+    public ProgressReporter(ProgressSink sink, long intervalMillis) {
+        this.sink = sink;
+        this.intervalMillis = intervalMillis;
+        this.thread = new Thread(this::run, "progress-reporter");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Add counts to the next update. Never blocks on the sink.
+     * @param counts Number of records exported since the last report, by event type
+     */
+    public synchronized void report(Map<String, Integer> counts) {
+        if (closed) {
+            return;
+        }
+        for (Map.Entry<String, Integer> count : counts.entrySet()) {
+            pending.merge(count.getKey(), count.getValue(), Integer::sum);
+        }
+        received++;
+        if (idle) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Wait until everything reported so far has been sent, or the timeout passes.
+     * @param timeoutMillis Maximum time to wait
+     * @return Whether everything was sent in time
+     */
+    public synchronized boolean flush(long timeoutMillis) throws InterruptedException {
+        long target = received;
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        flushing++;
+        notifyAll();
+        try {
+            while (done < target) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                wait(remaining);
+            }
+            return true;
+        } finally {
+            flushing--;
+        }
+    }
+
+    /**
+     * Send what is pending, stop the thread and close the sink.
+     * @param timeoutMillis Maximum time to wait for the last update to be sent
+     */
+    public void close(long timeoutMillis) throws InterruptedException, IOException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        thread.join(timeoutMillis);
+        sink.close();
+    }
+
+    private void run() {
+        while (true) {
+            Map<String, Integer> counts;
+            long reports;
+            synchronized (this) {
+                idle = true;
+                while (pending.isEmpty() && !closed) {
+                    waitQuietly(0);
+                }
+                idle = false;
+                if (pending.isEmpty()) {
+                    return;
+                }
+                counts = pending;
+                pending = new HashMap<>();
+                reports = received;
+            }
+            try {
+                sink.send(gson.toJson(new LogEntity(counts, Config.get("logging.instance_id"),
+                        ValueStore.getState(), ValueStore.getPopulation())));
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Unable to send export progress: " + e);
+            }
+            synchronized (this) {
+                done = reports;
+                notifyAll();
+                // let more counts build up before the next update, unless someone is waiting
+                // for them to be sent
+                long until = System.currentTimeMillis() + intervalMillis;
+                long remaining = intervalMillis;
+                while (remaining > 0 && !closed && flushing == 0) {
+                    waitQuietly(remaining);
+                    remaining = until - System.currentTimeMillis();
+                }
+            }
+        }
+    }
+
+    private void waitQuietly(long millis) {
+        try {
+            wait(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package org.mitre.synthea.helpers;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Somewhere export progress updates are sent, one JSON object per update.
+ * Updates are sent from the {@link ProgressReporter}'s own thread, never from an exporter.
+ */
+public interface ProgressSink extends Closeable {
+
+    /**
+     * Discards every update.
+     */
+    ProgressSink NONE = update -> { };
+
+    /**
+     * Send one update.
+     * @param update The update, as a JSON object
+     * @throws IOException if the update can't be sent
+     */
+    void send(String update) throws IOException;
+
+    @Override
+    default void close() throws IOException {
+    }
+}
@@ -23,8 +23,8 @@ public class RandomValueGenerator extends ValueGenerator {
 
   @Override
   public double getValue(long time) {
-    // TODO: Using the person.random could return a different value for the same timepoint. 
+    // TODO: This could return a different value for the same timepoint.
     // Use the time as seed instead for repeatability?
-    return person.rand(low, high);    
+    return rand(low, high);
   }
 }
@@ -0,0 +1,29 @@
+package org.mitre.synthea.helpers;
+
+import org.apache.avro.generic.GenericData;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Writes Avro records to one or more Parquet files.
+ */
+public interface RecordWriter extends Closeable {
+
+    /**
+     * Write some records.
+     * @param key What the records belong to, e.g. the patient ID or the partition. How it is
+     *            used depends on the writer
+     * @param records The records to write
+     * @throws IOException if the records can't be written
+     */
+    void write(String key, List<GenericData.Record> records) throws IOException;
+
+    /**
+     * Finish every open file. The writer can still be used afterwards.
+     * @throws IOException if a file can't be finished
+     */
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,109 @@
+package org.mitre.synthea.helpers;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.hadoop.fs.Path;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A long lived Parquet writer for one type of record. Records are encoded into the current
+ * row group as soon as they are written, so the caller can let go of them (and the Person
+ * they came from) right away and memory is bounded by the row group size. Once the current
+ * file reaches the maximum file size it is closed and the next write starts a new file.
+ * Files are written under a hidden name and renamed once complete.
+ */
+public class RollingParquetWriter implements RecordWriter {
+
+    /**
+     * Notified every time a file is finished.
+     */
+    public interface FileListener {
+        /**
+         * Called after a file has been closed and is complete.
+         * @param file The finished file
+         * @param rows Number of records in the file
+         */
+        void fileClosed(Path file, long rows) throws IOException;
+    }
+
+    private final File folder;
+    private final String prefix;
+    private final Schema schema;
+    private final ParquetWriter.Options options;
+    private final long maxFileSize;
+    private final FileListener listener;
+
+    private org.apache.parquet.hadoop.ParquetWriter<GenericData.Record> writer;
+    private Path file;
+    private long rows;
+
+    /**
+     * Create a writer. No file is created until the first record is written.
+     * @param folder Folder the files are written to
+     * @param prefix File names are the prefix, a dash, and the key of the first write
+     * @param schema Schema of the records
+     * @param options How to encode the files
+     * @param maxFileSize Size in bytes after which a new file is started
+     * @param listener Notified when each file is finished, may be null
+     */
+    public RollingParquetWriter(File folder, String prefix, Schema schema,
+                                ParquetWriter.Options options, long maxFileSize,
+                                FileListener listener) {
+        this.folder = folder;
+        this.prefix = prefix;
+        this.schema = schema;
+        this.options = options;
+        this.maxFileSize = maxFileSize;
+        this.listener = listener;
+    }
+
+    /**
+     * Write some records, starting a new file if there is no current one.
+     * @param key Used to name the file if this write starts a new one, e.g. the ID of the
+     *            patient the records belong to
+     * @param records The records to write
+     * @throws IOException if the records can't be written
+     */
+    @Override
+    public synchronized void write(String key, List<GenericData.Record> records) throws IOException {
+        if (records.isEmpty()) {
+            return;
+        }
+        if (writer == null) {
+            folder.mkdirs();
+            file = new Path(new File(folder, prefix + "-" + key + ".parquet").getPath());
+            writer = ParquetWriter.open(ParquetWriter.inProgress(file), schema, options);
+            rows = 0;
+        }
+        for (GenericData.Record record : records) {
+            writer.write(record);
+        }
+        rows += records.size();
+        if (writer.getDataSize() >= maxFileSize) {
+            close();
+        }
+    }
+
+    /**
+     * Finish the current file, if there is one. The next write starts a new file.
+     * @throws IOException if the file can't be finished
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } finally {
+            writer = null;
+        }
+        ParquetWriter.commit(file);
+        if (listener != null) {
+            listener.fileClosed(file, rows);
+        }
+    }
+}
@@ -2,9 +2,6 @@ package org.mitre.synthea.helpers;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
-import java.security.SecureRandom;
-import java.util.Random;
-
 import org.mitre.synthea.world.agents.Person;
 
 
@@ -18,10 +15,6 @@ import org.mitre.synthea.world.agents.Person;
  */
 public class TrendingValueGenerator extends ValueGenerator {
 
-  // TODO: How do I properly seed this prng?
-  // Can I have more guarantees for reproducability if I use person or beginTime to seed?
-  private static final Random prng = new SecureRandom();
-
   private double standardDeviation;
   private Double minimumValue;
   private Double maximumValue;
@@ -100,7 +93,7 @@ public class TrendingValueGenerator extends ValueGenerator {
     double nextValue;
 
     do {
-      nextValue = prng.nextGaussian() * standardDeviation + mean;
+      nextValue = randGaussian() * standardDeviation + mean;
 
       if ((minimumValue == null || nextValue >= minimumValue) && (maximumValue == null
           || nextValue <= maximumValue)) {
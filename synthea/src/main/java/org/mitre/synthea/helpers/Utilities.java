@@ -13,6 +13,7 @@ import java.net.URL;
 import java.util.Calendar;
 import java.util.Random;
 import java.util.TimeZone;
+import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
 import org.mitre.synthea.engine.Logic;
@@ -303,6 +304,36 @@ public class Utilities {
     return uid + "." + salt + "." + now;
   }
 
+  /**
+   * Generate a DICOM UID like {@link #randomDicomUid(int, int)}, but with the salt derived from a
+   * seed and the time taken from the study instead of the clock, so the same seed and time always
+   * give the same UID. Used in deterministic mode (see "generate.deterministic").
+   *
+   * @param seed The seed, e.g. a person's seed.
+   * @param time The time of the ImagingStudy.
+   * @param seriesNo The series number, or 0 to omit it.
+   * @param instanceNo The instance number, or 0 to omit it.
+   * @return a String DICOM UID
+   */
+  public static String seededDicomUid(long seed, long time, int seriesNo, int instanceNo) {
+    final int MIN = 10000000;
+    final int MAX = 99999999;
+
+    long bits = seededUUID(seed, time).getLeastSignificantBits();
+    String salt = String.valueOf(Math.floorMod(bits, MAX - MIN + 1) + MIN);
+    String uid = "1.2.840.99999999";
+
+    if (seriesNo > 0) {
+      uid += "." + String.valueOf(seriesNo);
+    }
+
+    if (instanceNo > 0) {
+      uid += "." + String.valueOf(instanceNo);
+    }
+
+    return uid + "." + salt + "." + time;
+  }
+
   /**
    * Generates a random string of 8 numbers to use as a salt for DICOM UIDs.
    * @return The 8-digit numeric salt, as a String
@@ -317,6 +348,31 @@ public class Utilities {
     return String.valueOf(saltInt);
   }
 
+  /**
+   * Build a version 4 (random) UUID from a seed and a sequence number instead of the shared
+   * SecureRandom, so the same seed and sequence always give the same UUID. Used for ids in
+   * deterministic mode (see "generate.deterministic").
+   *
+   * @param seed The seed, e.g. a person's seed.
+   * @param sequence Distinguishes the UUIDs drawn from the same seed.
+   * @return A UUID that only depends on the seed and sequence.
+   */
+  public static UUID seededUUID(long seed, long sequence) {
+    long msb = mix64(seed ^ mix64(sequence));
+    long lsb = mix64(msb ^ sequence);
+    msb = (msb & 0xffffffffffff0fffL) | 0x0000000000004000L; // version 4
+    lsb = (lsb & 0x3fffffffffffffffL) | 0x8000000000000000L; // IETF variant
+    return new UUID(msb, lsb);
+  }
+
+  /** The SplitMix64 finalizer, which spreads every input bit over the whole output. */
+  private static long mix64(long z) {
+    z += 0x9e3779b97f4a7c15L;
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
   /**
    * Helper method to write a line to a File.
    * Extracted to a separate method here to make it a little easier to replace implementations.
@@ -1,5 +1,7 @@
 package org.mitre.synthea.helpers;
 
+import java.util.SplittableRandom;
+
 import org.mitre.synthea.world.agents.Person;
 
 /**
@@ -8,11 +10,62 @@ import org.mitre.synthea.world.agents.Person;
  */
 public abstract class ValueGenerator {
   protected final Person person;
+  /**
+   * This generator's own stream of random numbers, split from the person's on first use, so
+   * generators don't share any state and the values only depend on the person's seed.
+   */
+  private SplittableRandom random;
+  private double nextGaussian;
+  private boolean haveNextGaussian;
 
   protected ValueGenerator(Person person) {
     this.person = person;
   }
 
+  private SplittableRandom random() {
+    if (random == null) {
+      random = person.splitRandom();
+    }
+    return random;
+  }
+
+  /**
+   * Get a random number between low and high from this generator's stream.
+   */
+  protected double rand(double low, double high) {
+    return low + ((high - low) * random().nextDouble());
+  }
+
+  /**
+   * Get a random int between 0 (inclusive) and bound (exclusive) from this generator's stream.
+   */
+  protected int randInt(int bound) {
+    return random().nextInt(bound);
+  }
+
+  /**
+   * Get a normally distributed random number, with mean 0 and standard deviation 1, from this
+   * generator's stream. Uses the same polar method as java.util.Random.nextGaussian().
+   */
+  protected double randGaussian() {
+    if (haveNextGaussian) {
+      haveNextGaussian = false;
+      return nextGaussian;
+    }
+    double v1;
+    double v2;
+    double s;
+    do {
+      v1 = 2 * random().nextDouble() - 1;
+      v2 = 2 * random().nextDouble() - 1;
+      s = v1 * v1 + v2 * v2;
+    } while (s >= 1 || s == 0);
+    double multiplier = StrictMath.sqrt(-2 * StrictMath.log(s) / s);
+    nextGaussian = v2 * multiplier;
+    haveNextGaussian = true;
+    return v1 * multiplier;
+  }
+
   /**
    * Get a value at a given point in time.
    * 
@@ -145,7 +145,7 @@ public class BloodPressureValueGenerator extends ValueGenerator {
 
     while (generatePeriod > 0L) {
       final int days = minTrendDuration() 
-          + person.randInt(maxTrendDuration() - minTrendDuration() + 1);
+          + randInt(maxTrendDuration() - minTrendDuration() + 1);
       long duration = ONE_DAY * days;
       double endValue;
       do { // Limit the maximum rate of change.
@@ -163,21 +163,25 @@ public class BloodPressureValueGenerator extends ValueGenerator {
     }
   }
 
+  private double rand(int[] range) {
+    return rand(range[0], range[1]);
+  }
+
   private double calculateMean(Person person, long time) {
     // TODO: Take additional factors into consideration: age + gender
     boolean hypertension = (Boolean) person.attributes.getOrDefault("hypertension", false);
 
     if (sysDias == SysDias.SYSTOLIC) {
       if (hypertension) {
-        return person.rand(HYPERTENSIVE_SYS_BP_RANGE);
+        return rand(HYPERTENSIVE_SYS_BP_RANGE);
       } else {
-        return person.rand(NORMAL_SYS_BP_RANGE);
+        return rand(NORMAL_SYS_BP_RANGE);
       }
     } else {
       if (hypertension) {
-        return person.rand(HYPERTENSIVE_DIA_BP_RANGE);
+        return rand(HYPERTENSIVE_DIA_BP_RANGE);
       } else {
-        return person.rand(NORMAL_DIA_BP_RANGE);
+        return rand(NORMAL_DIA_BP_RANGE);
       }
     }
   }
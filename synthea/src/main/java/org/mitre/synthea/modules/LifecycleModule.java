@@ -15,6 +15,7 @@ import java.util.concurrent.TimeUnit;
 import org.apache.commons.math3.special.Erf;
 import org.mitre.synthea.engine.Event;
 import org.mitre.synthea.engine.Module;
+import org.mitre.synthea.export.ExportSettings;
 import org.mitre.synthea.helpers.Attributes;
 import org.mitre.synthea.helpers.Attributes.Inventory;
 import org.mitre.synthea.helpers.Config;
@@ -121,7 +122,11 @@ public final class LifecycleModule extends Module {
   public static void birth(Person person, long time) {
     Map<String, Object> attributes = person.attributes;
 
-    attributes.put(Person.ID, UUID.randomUUID().toString());
+    if (ExportSettings.get().deterministic) {
+      attributes.put(Person.ID, Utilities.seededUUID(person.seed, 0L).toString());
+    } else {
+      attributes.put(Person.ID, UUID.randomUUID().toString());
+    }
     attributes.put(Person.BIRTHDATE, time);
     person.events.create(time, Event.BIRTH, "Generator.run", true);
     String gender = (String) attributes.get(Person.GENDER);
@@ -45,7 +45,16 @@ public class Clinician implements Serializable, QuadTreeData {
   public long populationSeed;
   
   public Clinician(long seed) {
-    this.uuid = UUID.randomUUID().toString();
+    this(seed, UUID.randomUUID().toString());
+  }
+
+  /**
+   * Create a new clinician with the given seed and UUID.
+   * @param seed Seed for the clinician's random numbers.
+   * @param uuid The clinician's UUID.
+   */
+  public Clinician(long seed, String uuid) {
+    this.uuid = uuid;
     this.seed = seed; // keep track of seed so it can be exported later
     random = new Random(seed);
     attributes = new ConcurrentHashMap<String, Object>();
@@ -5,11 +5,14 @@ import java.time.Instant;
 import java.time.LocalDate;
 import java.time.Period;
 import java.time.ZoneId;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.SplittableRandom;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.sis.geometry.DirectPosition2D;
@@ -18,7 +21,8 @@ import org.mitre.synthea.engine.Event;
 import org.mitre.synthea.engine.EventList;
 import org.mitre.synthea.engine.Module;
 import org.mitre.synthea.engine.State;
-import org.mitre.synthea.helpers.Config;
+import org.mitre.synthea.engine.StateHistory;
+import org.mitre.synthea.export.ExportSettings;
 import org.mitre.synthea.helpers.ConstantValueGenerator;
 import org.mitre.synthea.helpers.ValueGenerator;
 import org.mitre.synthea.world.concepts.HealthRecord;
@@ -80,7 +84,14 @@ public class Person implements Serializable, QuadTreeData {
   public static final String SMOKING_FLAG = "smoking_flag";
   //Ends
 
+  /** The time zone ages are calculated in, see {@link #age(long)}. */
+  private static final ZoneId AGE_ZONE = ZoneId.systemDefault();
+  private static final ZoneRules AGE_ZONE_RULES = AGE_ZONE.getRules();
+  private static final long DAY_MILLIS = 24L * 60L * 60L * 1000L;
+
   public final Random random;
+  /** Root of the random streams split off for this person's value generators. */
+  private final SplittableRandom splittableRandom;
   public final long seed;
   public long populationSeed;
   public Map<String, Object> attributes;
@@ -92,25 +103,74 @@ public class Person implements Serializable, QuadTreeData {
   public HealthRecord record;
   public Map<String, HealthRecord> records;
   public boolean hasMultipleRecords;
+  /** which of the records is being exported, in the order of records. See recordSeed(). */
+  public int recordIndex;
   /** history of the currently active module. */
   public List<State> history;
 
+  /** Cached for ageInMonths and ageInYears, which are called many times per time step. */
+  private transient volatile AgeCache ageCache;
+
+  /**
+   * The birthdate split into its month and day, and the offset of the age time zone until its
+   * next transition, so ageInMonths and ageInYears don't need any java.time objects. A person is
+   * also read from exporter threads, so the cache is immutable and replaced as a whole.
+   */
+  private static final class AgeCache {
+    private final long birthdate;
+    /** The month of the birthdate, counted from year 0. */
+    private final long birthMonth;
+    private final int birthDay;
+    /** The zone offset in milliseconds, valid from offsetFrom until offsetUntil. */
+    private final long offset;
+    private final long offsetFrom;
+    private final long offsetUntil;
+
+    private AgeCache(long birthdate, long time, AgeCache previous) {
+      this.birthdate = birthdate;
+      if (previous != null && previous.birthdate == birthdate) {
+        this.birthMonth = previous.birthMonth;
+        this.birthDay = previous.birthDay;
+      } else {
+        LocalDate date = Instant.ofEpochMilli(birthdate).atZone(AGE_ZONE).toLocalDate();
+        this.birthMonth = date.getYear() * 12L + date.getMonthValue() - 1;
+        this.birthDay = date.getDayOfMonth();
+      }
+      Instant instant = Instant.ofEpochMilli(time);
+      this.offset = AGE_ZONE_RULES.getOffset(instant).getTotalSeconds() * 1000L;
+      ZoneOffsetTransition next = AGE_ZONE_RULES.nextTransition(instant);
+      this.offsetFrom = time;
+      this.offsetUntil = next == null ? Long.MAX_VALUE : next.toEpochSecond() * 1000L;
+    }
+  }
+
   public Person(long seed) {
     this.seed = seed; // keep track of seed so it can be exported later
     random = new Random(seed);
+    splittableRandom = new SplittableRandom(seed);
     attributes = new ConcurrentHashMap<String, Object>();
     vitalSigns = new ConcurrentHashMap<VitalSign, ValueGenerator>();
     symptoms = new ConcurrentHashMap<String, Map<String, Integer>>();
     symptomStatuses = new ConcurrentHashMap<String, Map<String, Boolean>>();
     events = new EventList();
-    hasMultipleRecords =
-        Boolean.parseBoolean(Config.get("exporter.split_records", "false"));
+    hasMultipleRecords = ExportSettings.get().splitRecords;
     if (hasMultipleRecords) {
       records = new ConcurrentHashMap<String, HealthRecord>();
     }
     record = new HealthRecord(this);
   }
 
+  /**
+   * The seed the export ids of the active record are derived from. With
+   * "exporter.split_records" each record is exported on its own, so each gets a seed of its own
+   * and the ids of one record do not repeat those of another. The first record uses the
+   * person's seed.
+   * @return the seed for the ids of the record being exported.
+   */
+  public long recordSeed() {
+    return seed + recordIndex * 0x9e3779b97f4a7c15L;
+  }
+
   public double rand() {
     return random.nextDouble();
   }
@@ -170,6 +230,18 @@ public class Person implements Serializable, QuadTreeData {
     return rand(range[0], range[1]);
   }
 
+  /**
+   * Split off a new stream of random numbers, independent of this person's other streams.
+   * Each stream only depends on the person's seed and the order in which streams are split,
+   * so the values drawn from it don't depend on how many threads generate the population.
+   * Used by value generators, see {@link ValueGenerator}.
+   *
+   * @return a new random number generator
+   */
+  public SplittableRandom splitRandom() {
+    return splittableRandom.split();
+  }
+
   public int randInt() {
     return random.nextInt();
   }
@@ -190,6 +262,45 @@ public class Person implements Serializable, QuadTreeData {
     return age;
   }
 
+  /**
+   * Get the number of whole months between the birthdate and the given time, the same as
+   * age(time).toTotalMonths() but without creating any objects.
+   */
+  private long totalMonthsOfAge(long time) {
+    Object birthdate = attributes.get(BIRTHDATE);
+    if (birthdate == null) {
+      return 0;
+    }
+    long birth = (long) birthdate;
+    AgeCache cache = ageCache;
+    if (cache == null || cache.birthdate != birth || time < cache.offsetFrom
+        || time >= cache.offsetUntil) {
+      cache = new AgeCache(birth, time, cache);
+      ageCache = cache;
+    }
+
+    // the date of the given time, from its epoch day (see LocalDate.ofEpochDay)
+    long zeroDay = Math.floorDiv(time + cache.offset, DAY_MILLIS) + 719468L;
+    long era = Math.floorDiv(zeroDay, 146097L);
+    long dayOfEra = zeroDay - era * 146097L;
+    long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+    long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+    long marchMonth = (5 * dayOfYear + 2) / 153;
+    int day = (int) (dayOfYear - (153 * marchMonth + 2) / 5 + 1);
+    long month = marchMonth < 10 ? marchMonth + 3 : marchMonth - 9;
+    long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+    // the same adjustment as Period.between
+    long totalMonths = (year * 12 + month - 1) - cache.birthMonth;
+    int days = day - cache.birthDay;
+    if (totalMonths > 0 && days < 0) {
+      totalMonths--;
+    } else if (totalMonths < 0 && days > 0) {
+      totalMonths++;
+    }
+    return totalMonths;
+  }
+
   /**
    * Return the persons age in months at a given time.
    * @param time The time when their age should be calculated.
@@ -197,7 +308,7 @@ public class Person implements Serializable, QuadTreeData {
    *     even if given a time before they were born.
    */
   public int ageInMonths(long time) {
-    int months = (int) age(time).toTotalMonths();
+    int months = (int) totalMonthsOfAge(time);
     if (months < 0) {
       months = 0;
     }
@@ -211,7 +322,7 @@ public class Person implements Serializable, QuadTreeData {
    *     even if given a time before they were born.
    */
   public int ageInYears(long time) {
-    int years = age(time).getYears();
+    int years = (int) (totalMonthsOfAge(time) / 12);
     if (years < 0) {
       years = 0;
     }
@@ -219,7 +330,7 @@ public class Person implements Serializable, QuadTreeData {
   }
 
   public boolean alive(long time) {
-    return (events.event(Event.BIRTH) != null && events.before(time, Event.DEATH).isEmpty());
+    return events.alive(time);
   }
 
   public void setSymptom(String cause, String type, int value, Boolean addressed) {
@@ -323,6 +434,9 @@ public class Person implements Serializable, QuadTreeData {
     if (history == null) {
       return false;
     }
+    if (history instanceof StateHistory) {
+      return ((StateHistory) history).hadPriorState(name, since, within);
+    }
     for (State state : history) {
       if (within != null && state.exited != null && state.exited <= within) {
         return false;
@@ -1,7 +1,7 @@
 package org.mitre.synthea.world.agents;
 
-import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.Table;
+import com.google.common.collect.TreeBasedTable;
 import com.google.gson.internal.LinkedTreeMap;
 
 import java.io.IOException;
@@ -19,6 +19,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.sis.geometry.DirectPosition2D;
 import org.apache.sis.index.tree.QuadTree;
 import org.apache.sis.index.tree.QuadTreeData;
+import org.mitre.synthea.export.ExportSettings;
 import org.mitre.synthea.helpers.Config;
 import org.mitre.synthea.helpers.SimpleCSV;
 import org.mitre.synthea.helpers.Utilities;
@@ -82,7 +83,9 @@ public class Provider implements QuadTreeData {
   public Provider() {
     uuid = UUID.randomUUID().toString();
     attributes = new LinkedTreeMap<>();
-    utilization = HashBasedTable.create();
+    // sorted, so the utilization is always listed in the same order no matter which
+    // thread happened to count a year or type first
+    utilization = TreeBasedTable.create();
     servicesProvided = new ArrayList<EncounterType>();
     clinicianMap = new HashMap<String, ArrayList<Clinician>>();
     coordinates = new DirectPosition2D();
@@ -361,9 +364,16 @@ public class Provider implements QuadTreeData {
    */
   private ArrayList<Clinician> generateClinicianList(int numClinicians, String specialty) {
     ArrayList<Clinician> clinicians = new ArrayList<Clinician>();
+    boolean deterministic = ExportSettings.get().deterministic;
     for (int i = 0; i < numClinicians; i++) {
       Clinician clinician = null;
-      clinician = generateClinician(Long.parseLong(loaded + "" + i), this);
+      String clinicianUuid = null;
+      if (deterministic) {
+        // the seeds below are not unique across providers and specialties, so name the
+        // clinician after them instead
+        clinicianUuid = UUID.nameUUIDFromBytes((uuid + specialty + i).getBytes()).toString();
+      }
+      clinician = generateClinician(Long.parseLong(loaded + "" + i), clinicianUuid, this);
       clinician.attributes.put(Clinician.SPECIALTY, specialty);
       clinicians.add(clinician);
     }
@@ -375,9 +385,12 @@ public class Provider implements QuadTreeData {
    *
    * @param clinicianSeed
    *          Seed for the random clinician
+   * @param clinicianUuid
+   *          UUID for the clinician, or null for a random one
    * @return generated Clinician
    */
-  private Clinician generateClinician(long clinicianSeed, Provider provider) {
+  private Clinician generateClinician(long clinicianSeed, String clinicianUuid,
+      Provider provider) {
     Clinician clinician = null;
     try {
       Random randomForDemographics = new Random(clinicianSeed);
@@ -398,7 +411,11 @@ public class Provider implements QuadTreeData {
       }
       out.put(Person.GENDER, gender);
 
-      clinician = new Clinician(clinicianSeed);
+      if (clinicianUuid == null) {
+        clinician = new Clinician(clinicianSeed);
+      } else {
+        clinician = new Clinician(clinicianSeed, clinicianUuid);
+      }
       clinician.attributes.putAll(out);
       clinician.attributes.put(Person.ADDRESS, provider.address);
       clinician.attributes.put(Person.CITY, provider.city);
@@ -15,6 +15,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
+import org.mitre.synthea.export.ExportSettings;
 import org.mitre.synthea.helpers.Utilities;
 import org.mitre.synthea.modules.HealthInsuranceModule;
 import org.mitre.synthea.world.agents.Clinician;
@@ -684,17 +685,27 @@ public class HealthRecord {
 
   /**
    * Assigns random DICOM UIDs to each Series and Instance in an imaging study after creation.
+   * In deterministic mode the UIDs, including the study's own, are derived from the person's
+   * seed and the time of the study instead.
    * @param study the ImagingStudy to populate with DICOM UIDs.
    */
   private void assignImagingStudyDicomUids(ImagingStudy study) {
+    boolean deterministic = ExportSettings.get().deterministic;
+    if (deterministic) {
+      study.dicomUid = Utilities.seededDicomUid(person.seed, study.start, 0, 0);
+    }
 
     int seriesNo = 1;
     for (ImagingStudy.Series series : study.series) {
-      series.dicomUid = Utilities.randomDicomUid(seriesNo, 0);
+      series.dicomUid = deterministic
+          ? Utilities.seededDicomUid(person.seed, study.start, seriesNo, 0)
+          : Utilities.randomDicomUid(seriesNo, 0);
 
       int instanceNo = 1;
       for (ImagingStudy.Instance instance : series.instances) {
-        instance.dicomUid = Utilities.randomDicomUid(seriesNo, instanceNo);
+        instance.dicomUid = deterministic
+            ? Utilities.seededDicomUid(person.seed, study.start, seriesNo, instanceNo)
+            : Utilities.randomDicomUid(seriesNo, instanceNo);
         instanceNo += 1;
       }
       seriesNo += 1;
@@ -40,6 +40,7 @@ public abstract class TestHelper {
     Config.set("exporter.text.per_encounter_export", "false");
     Config.set("exporter.csv.export", "false");
     Config.set("exporter.cdw.export", "false");
+    Config.set("exporter.parquet.export", "false");
     Config.set("exporter.hospital.fhir_stu3.export", "false");
     Config.set("exporter.hospital.fhir_dstu2.export", "false");
     Config.set("exporter.hospital.fhir.export", "false");
@@ -1,6 +1,9 @@
 package org.mitre.synthea.engine;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.List;
@@ -46,6 +49,41 @@ public class EventListTest {
     assertTrue(results.size() == 1);
   }
   
+  @Test
+  public void eventListLastOfType() {
+    assertEquals(200L, list.event("foo").time);
+    assertEquals(300L, list.event("bar").time);
+    assertNull(list.event("baz"));
+    assertTrue(list.before(1000L, "baz").isEmpty());
+  }
+
+  @Test
+  public void eventListBeforeStopsAtLaterEvent() {
+    // created after the event at 300, so only listed once the cutoff reaches 300
+    list.create(50L, "foo", "test", false);
+    assertEquals(1, list.before(150L, "foo").size());
+    assertEquals(2, list.before(150L).size());
+    assertEquals(3, list.before(300L, "foo").size());
+    assertEquals(5, list.before(300L).size());
+  }
+
+  @Test
+  public void eventListAlive() {
+    assertFalse(list.alive(150L));
+    list.create(50L, Event.BIRTH, "test", true);
+    assertTrue(list.alive(150L));
+    // a future-dated death
+    list.create(1000L, Event.DEATH, "test", true);
+    assertTrue(list.alive(500L));
+    assertFalse(list.alive(1000L));
+    // an earlier death created after it is not listed before it
+    list.create(400L, Event.DEATH, "test", true);
+    assertTrue(list.alive(500L));
+    assertFalse(list.alive(1000L));
+    assertTrue(list.before(500L, Event.DEATH).isEmpty());
+    assertEquals(2, list.before(1000L, Event.DEATH).size());
+  }
+
   @Test
   public void eventListToString() {
     assertNotNull(list.toString());
@@ -3,11 +3,15 @@ package org.mitre.synthea.engine;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
+import java.util.Collections;
 import java.util.LinkedList;
+import java.util.Set;
+import java.util.TreeSet;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.mitre.synthea.TestHelper;
+import org.mitre.synthea.engine.Generator.GeneratorOptions;
 import org.mitre.synthea.helpers.Config;
 import org.mitre.synthea.world.agents.Person;
 
@@ -54,6 +58,37 @@ public class GeneratorTest {
     assertEquals(numberOfPeople, generator.stats.get("alive").longValue());
   }
 
+  @Test
+  public void testDeterministicShards() throws Exception {
+    Config.set("generate.deterministic", "true");
+    try {
+      Set<String> full = generateIds(0, 4);
+      assertEquals(full, generateIds(0, 4));
+
+      // the two halves of the population generate the same people with the same ids
+      Set<String> shards = generateIds(0, 2);
+      shards.addAll(generateIds(2, 2));
+      assertEquals(full, shards);
+    } finally {
+      Config.set("generate.deterministic", "false");
+    }
+  }
+
+  private Set<String> generateIds(int firstIndex, int population) {
+    GeneratorOptions options = new GeneratorOptions();
+    options.seed = 7L;
+    options.firstIndex = firstIndex;
+    options.population = population;
+    Generator generator = new Generator(options);
+    generator.internalStore = Collections.synchronizedList(new LinkedList<>());
+    generator.run();
+    Set<String> ids = new TreeSet<>();
+    for (Person person : generator.internalStore) {
+      ids.add((String) person.attributes.get(Person.ID));
+    }
+    return ids;
+  }
+
   @Test
   public void testGenerateWithDetailedLogLevel() throws Exception {
     int numberOfPeople = 1;
@@ -66,6 +66,7 @@ public class LogicTest {
   private boolean doTest(String testName) {
     JsonObject definition = tests.getAsJsonObject(testName);
     Logic logic = Utilities.getGson().fromJson(definition, Logic.class);
+    logic.compile();
 
     return logic.test(person, time);
   }
@@ -487,6 +488,27 @@ public class LogicTest {
     assertTrue(doTest("atMost2_NoneTrueTest"));
   }
 
+  @Test
+  public void test_nested_groups() {
+    // nested groups of the same kind are flattened when the logic is compiled
+    JsonObject nested = new JsonParser().parse("{\"condition_type\": \"And\", \"conditions\": ["
+        + "{\"condition_type\": \"True\"},"
+        + "{\"condition_type\": \"And\", \"conditions\": ["
+        + "  {\"condition_type\": \"True\"},"
+        + "  {\"condition_type\": \"Or\", \"conditions\": ["
+        + "    {\"condition_type\": \"False\"}, {\"condition_type\": \"True\"}]}]}]}")
+        .getAsJsonObject();
+    Logic logic = Utilities.getGson().fromJson(nested, Logic.class);
+    logic.compile();
+    assertTrue(logic.test(person, time));
+
+    nested.getAsJsonArray("conditions").get(1).getAsJsonObject().getAsJsonArray("conditions")
+        .get(1).getAsJsonObject().addProperty("condition_type", "And");
+    logic = Utilities.getGson().fromJson(nested, Logic.class);
+    logic.compile();
+    assertFalse(logic.test(person, time));
+  }
+
   @Test
   public void test_not_conditions() {
     assertFalse(doTest("notTrueTest"));
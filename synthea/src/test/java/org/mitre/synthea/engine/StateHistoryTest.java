@@ -0,0 +1,111 @@
+package org.mitre.synthea.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.mitre.synthea.TestHelper;
+import org.mitre.synthea.world.agents.Person;
+
+public class StateHistoryTest {
+
+  private static final String[] NAMES = { "Initial", "Guard1", "Guard2", "Terminal" };
+
+  @Test
+  public void testMatchesLinkedListHistory() throws Exception {
+    Module module = TestHelper.getFixture("history.json");
+    Random random = new Random(42L);
+    List<State> linked = new LinkedList<>();
+    StateHistory compact = new StateHistory();
+
+    long time = 0L;
+    for (int i = 0; i < 500; i++) {
+      State state = module.getState(NAMES[random.nextInt(NAMES.length)]).clone();
+      linked.add(0, state);
+      compact.add(0, state);
+      // like Module.process, a state is entered and exited after being added
+      state.entered = time;
+      time += random.nextInt(10);
+      if (i < 499) {
+        state.exited = time;
+      }
+    }
+
+    assertEquals(linked.size(), compact.size());
+    assertSame(linked.get(0), compact.get(0));
+    for (int i = 0; i < linked.size(); i++) {
+      assertEquals(linked.get(i).name, compact.get(i).name);
+      assertEquals(linked.get(i).entered, compact.get(i).entered);
+      assertEquals(linked.get(i).exited, compact.get(i).exited);
+    }
+
+    Person linkedPerson = new Person(0L);
+    linkedPerson.history = linked;
+    Person compactPerson = new Person(0L);
+    compactPerson.history = compact;
+    Long[] windows = { null, 0L, time - 100, time - 10, time };
+    for (String name : NAMES) {
+      for (String since : new String[] { null, "Initial", "Guard1", "Guard2" }) {
+        for (Long within : windows) {
+          assertEquals(name + " since " + since + " within " + within,
+              linkedPerson.hadPriorState(name, since, within),
+              compactPerson.hadPriorState(name, since, within));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testFlyweightStatesAreRecorded() throws Exception {
+    Module module = TestHelper.getFixture("counter.json");
+
+    // with a plain list every state is cloned and added
+    Person linkedPerson = new Person(0L);
+    List<State> linked = new LinkedList<>();
+    linked.add(module.getState("Initial").clone());
+    linkedPerson.attributes.put(module.name, linked);
+    assertTrue(module.process(linkedPerson, 10L));
+
+    // with a StateHistory the Counter and Simple states are only recorded
+    Person compactPerson = new Person(0L);
+    assertTrue(module.process(compactPerson, 10L));
+    @SuppressWarnings("unchecked")
+    List<State> compact = (List<State>) compactPerson.attributes.get(module.name);
+
+    assertEquals(linkedPerson.attributes.get("loop_index"),
+        compactPerson.attributes.get("loop_index"));
+    assertEquals(linked.size(), compact.size());
+    for (int i = 0; i < linked.size(); i++) {
+      assertEquals(linked.get(i).name, compact.get(i).name);
+      assertSame(linked.get(i).getClass(), compact.get(i).getClass());
+      assertEquals(linked.get(i).entered, compact.get(i).entered);
+      assertEquals(linked.get(i).exited, compact.get(i).exited);
+    }
+    assertTrue(compact.get(0) instanceof State.Terminal);
+    assertTrue(compactPerson.hadPriorState("Counter_Decrement"));
+  }
+
+  @Test
+  public void testUndiagnosedOnsetStaysLive() throws Exception {
+    Module module = TestHelper.getFixture("condition_onset.json");
+    StateHistory history = new StateHistory();
+    history.add(0, module.getState("Initial").clone());
+    State onset = module.getState("Diabetes").clone();
+    history.add(0, onset);
+    history.add(0, module.getState("6_Month_Delay").clone());
+    State encounter = module.getState("ED_Visit").clone();
+    history.add(0, encounter);
+
+    // the onset is waiting for the encounter, so the history must hand back the same object
+    assertSame(onset, history.get(2));
+    List<State> live = history.liveStatesSincePrior(encounter);
+    assertEquals(1, live.size());
+    assertSame(onset, live.get(0));
+    assertTrue(history.get(1) != history.get(1));
+  }
+}
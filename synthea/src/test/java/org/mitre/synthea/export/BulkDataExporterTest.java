@@ -0,0 +1,64 @@
+package org.mitre.synthea.export;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mitre.synthea.TestHelper;
+import org.mitre.synthea.engine.Generator;
+import org.mitre.synthea.helpers.Config;
+import org.mitre.synthea.world.agents.Person;
+
+public class BulkDataExporterTest {
+  /**
+   * Temporary folder for any exported files, guaranteed to be deleted at the end of the test.
+   */
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Test
+  public void testBulkDataExport() throws Exception {
+    TestHelper.exportOff();
+    Config.set("exporter.parquet.export", "false");
+    File tempOutputFolder = tempFolder.newFolder();
+    Config.set("exporter.baseDirectory", tempOutputFolder.toString());
+
+    int numberOfPeople = 5;
+    Generator generator = new Generator(numberOfPeople);
+    Person[] people = new Person[numberOfPeople];
+    for (int i = 0; i < numberOfPeople; i++) {
+      people[i] = generator.generatePerson(i);
+    }
+    Config.set("exporter.fhir.export", "true");
+    Config.set("exporter.fhir.bulk_data", "true");
+    try {
+      for (Person person : people) {
+        Exporter.export(person, System.currentTimeMillis());
+      }
+      BulkDataExporter.close();
+    } finally {
+      Config.set("exporter.fhir.export", "false");
+      Config.set("exporter.fhir.bulk_data", "false");
+    }
+
+    File fhir = new File(tempOutputFolder, "fhir");
+    List<String> lines = Files.readAllLines(new File(fhir, "Patient.ndjson").toPath());
+    assertEquals(numberOfPeople, lines.size());
+    IParser parser = FhirContext.forR4().newJsonParser();
+    for (String line : lines) {
+      Patient patient = parser.parseResource(Patient.class, line);
+      assertTrue(patient.hasName());
+    }
+    assertTrue(new File(fhir, "Encounter.ndjson").exists());
+  }
+}
@@ -1,10 +1,17 @@
 package org.mitre.synthea.export;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+
+import javax.xml.parsers.DocumentBuilderFactory;
 
 import org.apache.commons.io.IOUtils;
 import org.eclipse.emf.common.util.Diagnostic;
@@ -17,6 +24,9 @@ import org.mitre.synthea.TestHelper;
 import org.mitre.synthea.engine.Generator;
 import org.mitre.synthea.helpers.Config;
 import org.mitre.synthea.world.agents.Person;
+import org.mitre.synthea.world.concepts.HealthRecord.Encounter;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
 
 /**
  * Uses Model Driven Health Tools (MDHT) to validate exported CCDA R2.1.
@@ -61,4 +71,57 @@ public class CCDAExporterTest {
 
     assertEquals(0, validationErrors.size());
   }
+
+  @Test
+  public void testStreamedExport() throws Exception {
+    TestHelper.exportOff();
+    Config.set("exporter.parquet.export", "false");
+    Config.set("exporter.baseDirectory", tempFolder.newFolder().toString());
+    Generator generator = new Generator(1);
+    Person person = generator.generatePerson(0);
+    Set<String> attributes = new HashSet<>(person.attributes.keySet());
+
+    // leave out the most recent encounter
+    List<Encounter> encounters = person.record.encounters;
+    Encounter last = encounters.get(encounters.size() - 1);
+    StringWriter writer = new StringWriter();
+    CCDAExporter.export(person, last.start - 1, writer);
+    String ccdaXml = writer.toString();
+
+    // the Person is left as it was
+    assertEquals(attributes, person.attributes.keySet());
+    Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+        .parse(new InputSource(new StringReader(ccdaXml)));
+    assertEquals("ClinicalDocument", document.getDocumentElement().getTagName());
+    // every encounter is listed, but only the observations up to the given time
+    for (Encounter encounter : encounters) {
+      assertTrue(ccdaXml.contains(encounter.codes.get(0).code));
+    }
+    int observations = 0;
+    for (Encounter encounter : encounters.subList(0, encounters.size() - 1)) {
+      observations += encounter.observations.size();
+    }
+    assertEquals(observations, ccdaXml.split("ID=\"observations-desc-", -1).length - 1);
+  }
+
+  @Test
+  public void testDeterministicExport() throws Exception {
+    TestHelper.exportOff();
+    Config.set("generate.deterministic", "true");
+    Config.set("generate.end_date", "2019-01-01");
+    try {
+      // the same person, generated and exported twice, gets the same ids
+      String first = deterministicXml();
+      assertEquals(first, deterministicXml());
+    } finally {
+      Config.set("generate.deterministic", "false");
+      Config.set("generate.end_date", "");
+    }
+  }
+
+  private static String deterministicXml() {
+    Generator generator = new Generator(1, 7L);
+    Person person = generator.generatePerson(0, 7L);
+    return CCDAExporter.export(person, generator.stop);
+  }
 }
@@ -0,0 +1,30 @@
+package org.mitre.synthea.export;
+
+import static org.junit.Assert.assertEquals;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+public class ExportHelperTest {
+
+  @Test
+  public void testDatesMatchSimpleDateFormat() {
+    SimpleDateFormat date = new SimpleDateFormat("yyyy-MM-dd");
+    SimpleDateFormat iso = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+    iso.setTimeZone(TimeZone.getTimeZone("UTC"));
+    Random random = new Random(0);
+    // from 1900 to 2100, including times before the epoch
+    long min = -2208988800000L;
+    long max = 4102444800000L;
+    for (int i = 0; i < 10000; i++) {
+      long time = min + (long) (random.nextDouble() * (max - min));
+      assertEquals(date.format(new Date(time)), ExportHelper.dateFromTimestamp(time));
+      assertEquals(iso.format(new Date(time)), ExportHelper.iso8601Timestamp(time));
+    }
+    assertEquals(iso.format(new Date(-1)), ExportHelper.iso8601Timestamp(-1));
+  }
+}
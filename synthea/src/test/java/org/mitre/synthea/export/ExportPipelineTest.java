@@ -0,0 +1,81 @@
+package org.mitre.synthea.export;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mitre.synthea.TestHelper;
+import org.mitre.synthea.engine.Generator;
+import org.mitre.synthea.helpers.Config;
+import org.mitre.synthea.world.agents.Person;
+
+public class ExportPipelineTest {
+  /**
+   * Temporary folder for any exported files, guaranteed to be deleted at the end of the test.
+   */
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Test
+  public void testPipelineExportsEveryPerson() throws Exception {
+    File tempOutputFolder = tempFolder.newFolder();
+    Config.set("exporter.baseDirectory", tempOutputFolder.toString());
+    TestHelper.exportOff();
+    Config.set("exporter.parquet.export", "false");
+
+    int numberOfPeople = 5;
+    Generator generator = new Generator(numberOfPeople);
+    Person[] people = new Person[numberOfPeople];
+    for (int i = 0; i < numberOfPeople; i++) {
+      people[i] = generator.generatePerson(i);
+    }
+
+    Config.set("exporter.text.export", "true");
+    Config.set("exporter.use_uuid_filenames", "true");
+    ExportStats.reset();
+    // a queue of one forces the submitting thread to wait on the exporters
+    ExportPipeline pipeline = new ExportPipeline(1, 2);
+    for (Person person : people) {
+      pipeline.submit(person, System.currentTimeMillis());
+    }
+    pipeline.close();
+    Config.set("exporter.text.export", "false");
+    Config.set("exporter.use_uuid_filenames", "false");
+
+    assertEquals(numberOfPeople, pipeline.getSubmitted());
+    assertEquals(0, pipeline.getFailed());
+    assertEquals(numberOfPeople, ExportStats.count("text"));
+
+    File expectedExportFolder = tempOutputFolder.toPath().resolve("text").toFile();
+    assertEquals(numberOfPeople, expectedExportFolder.listFiles().length);
+  }
+
+  @Test
+  public void testPipelineRecordsFailedIndexes() throws Exception {
+    Config.set("exporter.baseDirectory", tempFolder.newFolder().toString());
+    TestHelper.exportOff();
+    Config.set("exporter.text.export", "true");
+    ExportPipeline pipeline = new ExportPipeline(1, 1);
+    try {
+      // a person that was never simulated can't be exported
+      pipeline.submit(3, new Person(0L), 0L);
+      pipeline.close();
+    } finally {
+      Config.set("exporter.text.export", "false");
+    }
+
+    assertEquals(1, pipeline.getFailed());
+    assertEquals(Collections.singleton(3), pipeline.getFailedIndexes());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testSubmitAfterClose() {
+    ExportPipeline pipeline = new ExportPipeline(1, 1);
+    pipeline.close();
+    pipeline.submit(new Person(0L), 0L);
+  }
+}
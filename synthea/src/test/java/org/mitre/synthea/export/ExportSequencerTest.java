@@ -0,0 +1,81 @@
+package org.mitre.synthea.export;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.mitre.synthea.world.agents.Person;
+
+public class ExportSequencerTest {
+
+  @Test
+  public void testExportsInIndexOrder() throws Exception {
+    int firstIndex = 10;
+    int population = 200;
+    List<Long> exported = Collections.synchronizedList(new ArrayList<>());
+    // a small limit makes threads that get ahead wait for the earlier indexes
+    ExportSequencer sequencer = new ExportSequencer(firstIndex, 3,
+        (index, person, stopTime) -> exported.add(person.seed));
+
+    List<Long> expected = new ArrayList<>();
+    ExecutorService threadPool = Executors.newFixedThreadPool(8);
+    for (int i = firstIndex; i < firstIndex + population; i++) {
+      final int index = i;
+      // like a person who dies and is replaced, some indexes export more than one record
+      final int records = index % 3;
+      for (int j = 0; j < records; j++) {
+        expected.add(index * 10L + j);
+      }
+      threadPool.execute(() -> {
+        Random random = new Random(index);
+        for (int j = 0; j < records; j++) {
+          sleep(random.nextInt(3));
+          sequencer.add(index, new Person(index * 10L + j), 0L);
+        }
+        sequencer.complete(index);
+      });
+    }
+    threadPool.shutdown();
+    threadPool.awaitTermination(1, TimeUnit.MINUTES);
+
+    assertEquals(expected, exported);
+    assertEquals(firstIndex + population, sequencer.getNext());
+  }
+
+  @Test
+  public void testRecordsFailedIndexes() {
+    List<Long> exported = new ArrayList<>();
+    ExportSequencer sequencer = new ExportSequencer(0, 3, (index, person, stopTime) -> {
+      if (index == 1) {
+        throw new UncheckedIOException(new IOException("disk full"));
+      }
+      exported.add(person.seed);
+    });
+    for (int i = 0; i < 3; i++) {
+      sequencer.add(i, new Person(i), 0L);
+      sequencer.complete(i);
+    }
+
+    // the failure is recorded and the later indexes are still exported
+    assertEquals(Collections.singleton(1), sequencer.getFailedIndexes());
+    assertEquals(Arrays.asList(0L, 2L), exported);
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,75 @@
+package org.mitre.synthea.export;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.junit.Test;
+import org.mitre.synthea.helpers.Config;
+
+public class ExportSettingsTest {
+
+  @Test
+  public void testSettingsAreCachedUntilConfigChanges() {
+    Config.set("exporter.text.export", "false");
+    ExportSettings settings = ExportSettings.get();
+    assertFalse(settings.text);
+    assertSame(settings, ExportSettings.get());
+
+    Config.set("exporter.text.export", "true");
+    ExportSettings updated = ExportSettings.get();
+    assertTrue(updated.text);
+    assertSame(updated, ExportSettings.get());
+
+    Config.set("exporter.text.export", "false");
+    assertFalse(ExportSettings.get().text);
+  }
+
+  @Test
+  public void testParquetCodec() {
+    assertEquals(CompressionCodecName.ZSTD, ExportSettings.parquetCodec("zstd"));
+    assertEquals(CompressionCodecName.UNCOMPRESSED, ExportSettings.parquetCodec("none"));
+    assertEquals(CompressionCodecName.GZIP, ExportSettings.parquetCodec(" GZIP "));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnsupportedParquetCodec() {
+    ExportSettings.parquetCodec("LZO");
+  }
+
+  @Test
+  public void testBloomFilterColumnsUnset() {
+    ExportSettings.checkBloomFilterColumns(" ");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBloomFilterColumnsRejected() {
+    ExportSettings.checkBloomFilterColumns("subject,code");
+  }
+
+  @Test
+  public void testBloomFilterColumnsIgnoredWithoutParquet() {
+    Config.set("exporter.parquet.export", "false");
+    Config.set("exporter.parquet.bloom_filter_columns", "subject,code");
+    try {
+      assertFalse(ExportSettings.get().parquet);
+    } finally {
+      Config.set("exporter.parquet.bloom_filter_columns", "");
+    }
+  }
+
+  @Test
+  public void testParquetSettingsIgnoredWithoutParquet() {
+    Config.set("exporter.parquet.export", "false");
+    Config.set("exporter.parquet.codec", "LZO");
+    Config.set("exporter.parquet.page_size", "big");
+    try {
+      assertFalse(ExportSettings.get().parquet);
+    } finally {
+      Config.set("exporter.parquet.codec", "SNAPPY");
+      Config.set("exporter.parquet.page_size", "1048576");
+    }
+  }
+}
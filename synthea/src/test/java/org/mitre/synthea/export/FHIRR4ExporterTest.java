@@ -1,5 +1,6 @@
 package org.mitre.synthea.export;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import ca.uhn.fhir.context.FhirContext;
@@ -7,8 +8,16 @@ import ca.uhn.fhir.parser.IParser;
 import ca.uhn.fhir.validation.FhirValidator;
 import ca.uhn.fhir.validation.SingleValidationMessage;
 import ca.uhn.fhir.validation.ValidationResult;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.r4.model.Bundle;
@@ -107,4 +116,104 @@ public class FHIRR4ExporterTest {
     assertTrue("Validation of exported FHIR bundle failed: "
         + String.join("|", validationErrors), validationErrors.size() == 0);
   }
+
+  /**
+   * Replace every UUID with a number, in order of first appearance, so that two encodings of
+   * the same record can be compared.
+   */
+  private static String withoutUuids(String json) {
+    Matcher matcher = Pattern.compile(
+        "[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}").matcher(json);
+    Map<String, String> numbers = new HashMap<>();
+    StringBuffer result = new StringBuffer();
+    while (matcher.find()) {
+      String number = numbers.computeIfAbsent(matcher.group(), k -> "uuid-" + numbers.size());
+      matcher.appendReplacement(result, number);
+    }
+    matcher.appendTail(result);
+    return result.toString();
+  }
+
+  @Test
+  public void testStreamedFHIRR4Export() throws Exception {
+    Config.set("exporter.baseDirectory", tempFolder.newFolder().toString());
+    IParser parser = FhirContext.forR4().newJsonParser().setPrettyPrint(false);
+
+    int numberOfPeople = 5;
+    Generator generator = new Generator(numberOfPeople);
+    for (int i = 0; i < numberOfPeople; i++) {
+      TestHelper.exportOff();
+      Person person = generator.generatePerson(i);
+      FhirR4.TRANSACTION_BUNDLE = person.random.nextBoolean();
+      long stopTime = System.currentTimeMillis();
+      Bundle built = FhirR4.convertToFHIR(person, stopTime);
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      FhirR4.convertToFHIRJson(person, stopTime, out);
+      String streamedJson = new String(out.toByteArray(), StandardCharsets.UTF_8);
+      Bundle streamed = parser.parseResource(Bundle.class, streamedJson);
+
+      assertEquals(built.getEntry().size(), streamed.getEntry().size());
+      // the same JSON HAPI writes for the whole Bundle, apart from the random IDs
+      assertEquals(withoutUuids(parser.encodeResourceToString(built)),
+          withoutUuids(streamedJson));
+    }
+  }
+
+  @Test
+  public void testDeterministicFHIRR4Export() throws Exception {
+    TestHelper.exportOff();
+    Config.set("generate.deterministic", "true");
+    Config.set("generate.end_date", "2019-01-01");
+    try {
+      // the same person, generated and exported twice, gets the same ids
+      String first = deterministicJson();
+      assertEquals(first, deterministicJson());
+    } finally {
+      Config.set("generate.deterministic", "false");
+      Config.set("generate.end_date", "");
+    }
+  }
+
+  @Test
+  public void testDeterministicSplitRecordIdsAreUnique() throws Exception {
+    TestHelper.exportOff();
+    Config.set("generate.deterministic", "true");
+    Config.set("generate.end_date", "2019-01-01");
+    Config.set("exporter.split_records", "true");
+    try {
+      Generator generator = new Generator(1, 7L);
+      Person person = null;
+      for (long seed = 7L; person == null || person.records.size() < 2; seed++) {
+        person = generator.generatePerson(0, seed);
+      }
+      // each record is exported on its own, the way Exporter.export does it
+      Set<String> ids = new HashSet<String>();
+      int count = 0;
+      int i = 0;
+      for (String key : person.records.keySet()) {
+        person.record = person.records.get(key);
+        person.recordIndex = i++;
+        for (Bundle.BundleEntryComponent entry
+            : FhirR4.convertToFHIR(person, generator.stop).getEntry()) {
+          String type = entry.getResource().getResourceType().toString();
+          if (type.equals("Encounter") || type.equals("Claim")) {
+            ids.add(entry.getResource().getIdElement().getIdPart());
+            count++;
+          }
+        }
+      }
+      assertTrue(count > 0);
+      assertEquals(count, ids.size());
+    } finally {
+      Config.set("generate.deterministic", "false");
+      Config.set("generate.end_date", "");
+      Config.set("exporter.split_records", "false");
+    }
+  }
+
+  private static String deterministicJson() {
+    Generator generator = new Generator(1, 7L);
+    Person person = generator.generatePerson(0, 7L);
+    return FhirR4.convertToFHIRJson(person, generator.stop);
+  }
 }
@@ -0,0 +1,99 @@
+package org.mitre.synthea.export;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.fs.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ParquetManifestTest {
+  /**
+   * Temporary folder for any exported files, guaranteed to be deleted at the end of the test.
+   */
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private static File stage(ParquetManifest manifest, String name, String content)
+      throws Exception {
+    File file = new File(manifest.getStagingFolder(), name);
+    file.getParentFile().mkdirs();
+    Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    manifest.stage(name.substring(0, name.indexOf('/')), new Path(file.getPath()), 1);
+    return file;
+  }
+
+  private static BitSet range(int from, int to) {
+    BitSet indexes = new BitSet();
+    indexes.set(from, to);
+    return indexes;
+  }
+
+  @Test
+  public void testCommit() throws Exception {
+    File output = tempFolder.newFolder();
+    ParquetManifest manifest = new ParquetManifest(output);
+    stage(manifest, "patient/patient-a.parquet", "a");
+    stage(manifest, "encounter/part-00000.parquet", "b");
+    BitSet indexes = range(0, 10);
+    indexes.clear(4);
+    Map<File, String> committed = manifest.commit(42L, indexes);
+
+    assertEquals(2, committed.size());
+    assertEquals("a", new String(Files.readAllBytes(
+        new File(output, "patient/patient-a.parquet").toPath()), StandardCharsets.UTF_8));
+    assertTrue(new File(output, "encounter/part-00000.parquet").exists());
+    List<String> lines = Files.readAllLines(new File(output, "_manifest.jsonl").toPath());
+    assertEquals(1, lines.size());
+    assertTrue(lines.get(0), lines.get(0).contains("\"indexes\":[[0,3],[5,9]]"));
+    // CRC32 of "a"
+    assertTrue(lines.get(0), lines.get(0).contains("\"crc32\":\"e8b7be43\""));
+
+    // a file of the same name never replaces a committed one
+    stage(manifest, "encounter/part-00000.parquet", "c");
+    committed = manifest.commit(42L, range(10, 20));
+    assertTrue(committed.containsKey(new File(output, "encounter/part-00001.parquet")));
+    assertEquals("b", new String(Files.readAllBytes(
+        new File(output, "encounter/part-00000.parquet").toPath()), StandardCharsets.UTF_8));
+
+    BitSet recovered = new ParquetManifest(output).recover(42L);
+    assertEquals(range(0, 20).cardinality() - 1, recovered.cardinality());
+    assertFalse(recovered.get(4));
+    assertEquals(new BitSet(), new ParquetManifest(output).recover(7L));
+  }
+
+  @Test
+  public void testRecover() throws Exception {
+    File output = tempFolder.newFolder();
+    ParquetManifest manifest = new ParquetManifest(output);
+    stage(manifest, "patient/patient-a.parquet", "a");
+    manifest.commit(42L, range(0, 10));
+    // a commit that died after its manifest line, before moving its files
+    File moved = stage(manifest, "patient/patient-b.parquet", "b");
+    File manifestFile = new File(output, "_manifest.jsonl");
+    List<String> before = Files.readAllLines(manifestFile.toPath());
+    manifest.commit(42L, range(10, 20));
+    Files.move(new File(output, "patient/patient-b.parquet").toPath(), moved.toPath());
+    // files written after the last commit, and a manifest line cut short
+    stage(manifest, "patient/patient-c.parquet", "c");
+    Files.write(manifestFile.toPath(), "{\"seed\":42,\"indexes\":[[20".getBytes(),
+        StandardOpenOption.APPEND);
+
+    BitSet recovered = new ParquetManifest(output).recover(42L);
+    assertEquals(range(0, 20), recovered);
+    assertTrue(new File(output, "patient/patient-b.parquet").exists());
+    assertFalse(new File(output, "patient/patient-c.parquet").exists());
+    assertFalse(manifest.getStagingFolder().exists());
+    assertEquals(before.size() + 1, Files.readAllLines(manifestFile.toPath()).size());
+  }
+}
@@ -0,0 +1,201 @@
+package org.mitre.synthea.export;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.avro.generic.GenericData;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.avro.AvroParquetReader;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mitre.synthea.TestHelper;
+import org.mitre.synthea.engine.Generator;
+import org.mitre.synthea.export.ParquetExporter.ExportEvents;
+import org.mitre.synthea.helpers.Config;
+import org.mitre.synthea.helpers.ParquetWriter;
+import org.mitre.synthea.world.agents.Person;
+import org.mitre.synthea.world.concepts.HealthRecord;
+
+public class ParquetRecordBuilderTest {
+  /**
+   * Temporary folder for any exported files, guaranteed to be deleted at the end of the test.
+   */
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  /**
+   * The builder reuses its lists for the next person, so keep a copy.
+   */
+  private static Map<ExportEvents, List<GenericData.Record>> copy(
+      Map<ExportEvents, List<GenericData.Record>> records) {
+    Map<ExportEvents, List<GenericData.Record>> copy = new EnumMap<>(ExportEvents.class);
+    for (Map.Entry<ExportEvents, List<GenericData.Record>> entry : records.entrySet()) {
+      copy.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+    }
+    return copy;
+  }
+
+  @Test
+  public void testTypedRecordsMatchStringRecords() throws Exception {
+    Config.set("exporter.baseDirectory", tempFolder.newFolder().toString());
+    TestHelper.exportOff();
+    Config.set("exporter.parquet.export", "false");
+    Person person = new Generator(1, 0L).generatePerson(0, 42L);
+
+    Map<ExportEvents, List<GenericData.Record>> strings =
+        copy(new ParquetRecordBuilder(ParquetExporter.loadSchemas(false), false)
+            .buildRecords(person, 0L));
+    Map<ExportEvents, List<GenericData.Record>> typed =
+        copy(new ParquetRecordBuilder(ParquetExporter.loadSchemas(true), true)
+            .buildRecords(person, 0L));
+
+    File folder = tempFolder.newFolder();
+    for (ExportEvents eventType : ExportEvents.values()) {
+      // the typed records have to be valid for the typed schema to be written at all
+      Path file = new Path(new File(folder, eventType + ".parquet").getPath());
+      try (org.apache.parquet.hadoop.ParquetWriter<GenericData.Record> writer = ParquetWriter
+          .open(file, ParquetExporter.loadSchemas(true).get(eventType), ParquetWriter.Options.DEFAULT)) {
+        for (GenericData.Record record : typed.get(eventType)) {
+          writer.write(record);
+        }
+      }
+      List<GenericData.Record> read = new ArrayList<>();
+      try (ParquetReader<GenericData.Record> reader =
+          AvroParquetReader.<GenericData.Record>builder(file).build()) {
+        GenericData.Record record;
+        while ((record = reader.read()) != null) {
+          read.add(record);
+        }
+      }
+      assertEquals(strings.get(eventType).size(), read.size());
+    }
+
+    assertTrue(!typed.get(ExportEvents.encounter).isEmpty());
+    for (int i = 0; i < typed.get(ExportEvents.encounter).size(); i++) {
+      GenericData.Record string = strings.get(ExportEvents.encounter).get(i);
+      GenericData.Record record = typed.get(ExportEvents.encounter).get(i);
+      // the ISO 8601 strings only have whole seconds
+      assertEquals(OffsetDateTime.parse(string.get("start").toString()).toEpochSecond(),
+          (long) record.get("start") / 1000);
+      if (string.get("end").toString().isEmpty()) {
+        assertNull(record.get("end"));
+      }
+      // partitions are the same whichever schema is used
+      assertEquals(ParquetExporter.year(ExportEvents.encounter, string.get("start")),
+          ParquetExporter.year(ExportEvents.encounter, record.get("start")));
+    }
+    GenericData.Record patient = typed.get(ExportEvents.patient).get(0);
+    assertEquals(LocalDate.parse(strings.get(ExportEvents.patient).get(0)
+        .get("date_of_birth").toString()).toEpochDay(), (int) patient.get("date_of_birth"));
+  }
+
+  @Test
+  public void testFullRecord() throws Exception {
+    Config.set("exporter.baseDirectory", tempFolder.newFolder().toString());
+    TestHelper.exportOff();
+    Config.set("exporter.parquet.export", "false");
+    Person person = new Generator(1, 0L).generatePerson(0, 42L);
+    Map<ExportEvents, List<GenericData.Record>> records =
+        new ParquetRecordBuilder(ParquetExporter.loadSchemas(true), true).buildRecords(person, 0L);
+
+    int encounters = records.get(ExportEvents.encounter).size();
+    int medications = records.get(ExportEvents.medicationrequest).size();
+    int immunizations = 0;
+    int allergies = 0;
+    for (HealthRecord.Encounter encounter : person.record.encounters) {
+      immunizations += encounter.immunizations.size();
+      allergies += encounter.allergies.size();
+    }
+    assertTrue(immunizations > 0);
+    assertEquals(immunizations, records.get(ExportEvents.immunization).size());
+    assertEquals(allergies, records.get(ExportEvents.allergyintolerance).size());
+    // one claim for every encounter and one for every medication
+    List<GenericData.Record> claims = records.get(ExportEvents.claim);
+    assertEquals(encounters + medications, claims.size());
+    Set<String> ids = new HashSet<>();
+    for (GenericData.Record claim : claims) {
+      assertTrue((double) claim.get("total_cost") >= (double) claim.get("base_cost"));
+      ids.add(claim.get("identifier").toString());
+    }
+    for (GenericData.Record record : records.get(ExportEvents.encounter)) {
+      ids.add(record.get("identifier").toString());
+    }
+    for (GenericData.Record record : records.get(ExportEvents.medicationrequest)) {
+      ids.add(record.get("identifier").toString());
+    }
+    assertEquals(2 * (encounters + medications), ids.size());
+  }
+
+  @Test
+  public void testIdsFromPersonSeed() throws Exception {
+    Config.set("exporter.baseDirectory", tempFolder.newFolder().toString());
+    TestHelper.exportOff();
+    Config.set("exporter.parquet.export", "false");
+    Person person = new Generator(1, 0L).generatePerson(0, 42L);
+    ParquetRecordBuilder builder = new ParquetRecordBuilder(ParquetExporter.loadSchemas(false),
+        false);
+
+    List<String> first = new ArrayList<>();
+    for (GenericData.Record record : builder.buildRecords(person, 0L).get(ExportEvents.encounter)) {
+      first.add(record.get("identifier").toString());
+    }
+    List<String> second = new ArrayList<>();
+    for (GenericData.Record record : builder.buildRecords(person, 0L).get(ExportEvents.encounter)) {
+      second.add(record.get("identifier").toString());
+    }
+    assertEquals(first, second);
+    assertEquals(first.size(), new HashSet<>(first).size());
+  }
+
+  @Test
+  public void testSplitRecordIdsAreUnique() throws Exception {
+    Config.set("exporter.baseDirectory", tempFolder.newFolder().toString());
+    TestHelper.exportOff();
+    Config.set("exporter.parquet.export", "false");
+    Config.set("exporter.split_records", "true");
+    try {
+      Generator generator = new Generator(1, 0L);
+      Person person = null;
+      for (long seed = 42L; person == null || person.records.size() < 2; seed++) {
+        person = generator.generatePerson(0, seed);
+      }
+      ParquetRecordBuilder builder = new ParquetRecordBuilder(ParquetExporter.loadSchemas(false),
+          false);
+
+      // each record is exported on its own, the way Exporter.export does it
+      Set<String> ids = new HashSet<>();
+      int count = 0;
+      int i = 0;
+      for (String key : person.records.keySet()) {
+        person.record = person.records.get(key);
+        person.recordIndex = i++;
+        Map<ExportEvents, List<GenericData.Record>> records = builder.buildRecords(person, 0L);
+        for (ExportEvents eventType : new ExportEvents[] {ExportEvents.encounter,
+            ExportEvents.medicationrequest, ExportEvents.claim, ExportEvents.careplan,
+            ExportEvents.diagnosticreport}) {
+          for (GenericData.Record record : records.get(eventType)) {
+            ids.add(record.get("identifier").toString());
+            count++;
+          }
+        }
+      }
+      assertTrue(count > 0);
+      assertEquals(count, ids.size());
+    } finally {
+      Config.set("exporter.split_records", "false");
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package org.mitre.synthea.helpers;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericData;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.avro.AvroParquetReader;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AsyncParquetWriterTest {
+  /**
+   * Temporary folder for any exported files, guaranteed to be deleted at the end of the test.
+   */
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private static final Schema SCHEMA = SchemaBuilder.record("state").fields()
+      .requiredString("subject").requiredString("value").endRecord();
+
+  private static List<GenericData.Record> records(int patient) {
+    List<GenericData.Record> records = new ArrayList<>();
+    for (int j = 0; j < 5; j++) {
+      GenericData.Record record = new GenericData.Record(SCHEMA);
+      record.put("subject", "patient" + patient);
+      record.put("value", patient + "." + j);
+      records.add(record);
+    }
+    return records;
+  }
+
+  private static List<String> read(File folder, List<String> files) throws Exception {
+    List<String> values = new ArrayList<>();
+    for (String file : files) {
+      try (ParquetReader<GenericData.Record> reader = AvroParquetReader
+          .<GenericData.Record>builder(new Path(new File(folder, file).getPath())).build()) {
+        GenericData.Record record;
+        while ((record = reader.read()) != null) {
+          values.add(record.get("value").toString());
+        }
+      }
+    }
+    return values;
+  }
+
+  @Test
+  public void testWritesInOrder() throws Exception {
+    File folder = tempFolder.newFolder();
+    List<String> files = Collections.synchronizedList(new ArrayList<>());
+    AsyncParquetWriter writer = new AsyncParquetWriter(new RollingParquetWriter(folder, "state",
+        SCHEMA, RollingParquetWriterTest.OPTIONS, 4096, (file, rows) -> files.add(file.getName())), 7, "test-writer");
+
+    List<String> expected = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      List<GenericData.Record> records = records(i);
+      for (GenericData.Record record : records) {
+        expected.add(record.get("value").toString());
+      }
+      writer.write("patient" + i, records);
+    }
+    writer.close();
+
+    assertEquals("state-patient0.parquet", files.get(0));
+    assertEquals(expected, read(folder, files));
+
+    // the writer can be used again after closing, and starts a new file
+    writer.write("patient100", records(100));
+    writer.close();
+    assertEquals("state-patient100.parquet", files.get(files.size() - 1));
+  }
+
+  @Test
+  public void testParallelWriters() throws Exception {
+    File folder = tempFolder.newFolder();
+    List<String> files = Collections.synchronizedList(new ArrayList<>());
+    List<AsyncParquetWriter> writers = new ArrayList<>();
+    for (String type : Arrays.asList("a", "b")) {
+      writers.add(new AsyncParquetWriter(new RollingParquetWriter(folder, type, SCHEMA,
+          RollingParquetWriterTest.OPTIONS, 4096, (file, rows) -> files.add(file.getName())), 10, "test-" + type));
+    }
+
+    ExecutorService threadPool = Executors.newFixedThreadPool(4);
+    List<Future<?>> tasks = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      final int patient = i;
+      tasks.add(threadPool.submit(() -> {
+        for (AsyncParquetWriter writer : writers) {
+          writer.write("patient" + patient, records(patient));
+        }
+        return null;
+      }));
+    }
+    for (Future<?> task : tasks) {
+      task.get();
+    }
+    threadPool.shutdown();
+    AsyncParquetWriter.closeAll(writers);
+
+    assertEquals(2 * 200 * 5, read(folder, files).size());
+  }
+}
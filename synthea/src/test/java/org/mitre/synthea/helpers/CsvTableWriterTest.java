@@ -0,0 +1,134 @@
+package org.mitre.synthea.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CsvTableWriterTest {
+  /**
+   * Temporary folder for any exported files, guaranteed to be deleted at the end of the test.
+   */
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private static final String NEWLINE = System.lineSeparator();
+  private static final int THREADS = 4;
+  private static final int ROWS = 2000;
+
+  /**
+   * Write ROWS rows from each of THREADS threads.
+   */
+  private static void writeRows(CsvTableWriter writer) throws Exception {
+    List<Thread> threads = new ArrayList<>();
+    List<Throwable> errors = new ArrayList<>();
+    for (int t = 0; t < THREADS; t++) {
+      final int thread = t;
+      threads.add(new Thread(() -> {
+        try {
+          for (int i = 0; i < ROWS; i++) {
+            writer.write(thread + "," + i + ",some text to fill up the buffer" + NEWLINE);
+          }
+        } catch (Throwable e) {
+          synchronized (errors) {
+            errors.add(e);
+          }
+        }
+      }));
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertTrue(errors.toString(), errors.isEmpty());
+  }
+
+  /**
+   * Check a table has its header and every row, whole.
+   */
+  private static void assertAllRows(List<String> lines) {
+    assertEquals("thread,row,text", lines.get(0));
+    Set<String> rows = new HashSet<>();
+    for (String line : lines.subList(1, lines.size())) {
+      assertTrue(line, line.endsWith(",some text to fill up the buffer"));
+      rows.add(line);
+    }
+    assertEquals(THREADS * ROWS, lines.size() - 1);
+    assertEquals(THREADS * ROWS, rows.size());
+  }
+
+  @Test
+  public void testPerThreadBuffers() throws Exception {
+    File file = new File(tempFolder.getRoot(), "table.csv");
+    CsvTableWriter writer = new CsvTableWriter(file, "thread,row,text", 1000, true, false, true);
+    writeRows(writer);
+    writer.flush();
+    assertAllRows(Files.readAllLines(file.toPath()));
+    writer.close();
+  }
+
+  @Test
+  public void testMergedShards() throws Exception {
+    File file = new File(tempFolder.getRoot(), "table.csv");
+    CsvTableWriter writer = new CsvTableWriter(file, "thread,row,text", 1000, true, true, true);
+    writeRows(writer);
+    writer.flush();
+    assertAllRows(Files.readAllLines(file.toPath()));
+    assertEquals(1, tempFolder.getRoot().list().length);
+
+    // rows written after a merge go to new shards, and are merged on the next flush
+    writer.write("4,0,some text to fill up the buffer" + NEWLINE);
+    writer.close();
+    assertEquals(THREADS * ROWS + 2, Files.readAllLines(file.toPath()).size());
+    assertEquals(1, tempFolder.getRoot().list().length);
+  }
+
+  @Test
+  public void testUnmergedShards() throws Exception {
+    File file = new File(tempFolder.getRoot(), "table.csv");
+    CsvTableWriter writer = new CsvTableWriter(file, "thread,row,text", 1000, true, true, false);
+    writeRows(writer);
+    writer.close();
+    assertFalse(file.exists());
+
+    List<String> lines = new ArrayList<>();
+    File[] shards = tempFolder.getRoot().listFiles();
+    assertEquals(THREADS, shards.length);
+    for (File shard : shards) {
+      assertTrue(shard.getName(), shard.getName().matches("table\\.shard\\d+\\.csv"));
+      List<String> shardLines = Files.readAllLines(shard.toPath());
+      // every shard is a table of its own
+      assertEquals("thread,row,text", shardLines.get(0));
+      lines.addAll(shardLines.subList(1, shardLines.size()));
+    }
+    lines.add(0, "thread,row,text");
+    assertAllRows(lines);
+  }
+
+  @Test
+  public void testSharedBufferKeepsOrder() throws Exception {
+    File file = new File(tempFolder.getRoot(), "table.csv");
+    CsvTableWriter writer = new CsvTableWriter(file, "row", 100, false, true, true);
+    for (int i = 0; i < 1000; i++) {
+      writer.write(i + NEWLINE);
+    }
+    writer.close();
+    List<String> lines = Files.readAllLines(file.toPath());
+    assertEquals(1001, lines.size());
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(String.valueOf(i), lines.get(i + 1));
+    }
+  }
+}
@@ -2,6 +2,12 @@ package org.mitre.synthea.helpers;
 
 import java.io.IOException;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -37,4 +43,110 @@ public class FactTableTest {
     Assert.assertTrue(output.contains(he + ",He"));    
   }
 
+  @Test
+  public void testConcurrentFacts() throws Exception {
+    FactTable table = new FactTable();
+    table.setHeader("ID,CODE");
+    table.setNextId(100);
+    int threads = 8;
+    int keys = 500;
+
+    // every thread adds the same keys, in a different order
+    List<Thread> workers = new ArrayList<>();
+    ConcurrentHashMap<String, Integer> seen = new ConcurrentHashMap<>();
+    List<String> errors = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      final int offset = t * 37;
+      workers.add(new Thread(() -> {
+        for (int i = 0; i < keys; i++) {
+          String key = "K" + ((i + offset) % keys);
+          int id = table.addFact(key, key);
+          Integer previous = seen.putIfAbsent(key, id);
+          if (previous != null && previous != id) {
+            synchronized (errors) {
+              errors.add(key + " has IDs " + previous + " and " + id);
+            }
+          }
+        }
+      }));
+    }
+    for (Thread worker : workers) {
+      worker.start();
+    }
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    Assert.assertTrue(errors.toString(), errors.isEmpty());
+
+    // one ID per key, with no gaps, and each ID's fact is its own key's
+    Set<Integer> ids = new HashSet<>(seen.values());
+    Assert.assertEquals(keys, ids.size());
+    for (int id = 100; id < 100 + keys; id++) {
+      Assert.assertTrue(ids.contains(id));
+      String fact = table.getFactById(id);
+      Assert.assertEquals(id, table.getFactId(fact));
+    }
+
+    StringWriter writer = new StringWriter();
+    table.write(writer);
+    String[] lines = writer.toString().split(System.lineSeparator());
+    Assert.assertEquals(keys + 1, lines.length);
+    for (int i = 1; i < lines.length; i++) {
+      Assert.assertTrue(lines[i].startsWith((99 + i) + ","));
+    }
+  }
+
+  @Test
+  public void testIdsFollowInsertionOrder() {
+    FactTable table = new FactTable();
+    table.setNextId(5);
+    Assert.assertEquals(5, table.addFact("b", "B"));
+    Assert.assertEquals(6, table.addFact("a", "A"));
+    Assert.assertEquals(5, table.addFact("b", "B again"));
+    Assert.assertEquals(7, table.addFact("c", null));
+    Assert.assertEquals("B", table.getFactByKey("b"));
+    Assert.assertNull(table.getFactByKey("d"));
+  }
+
+  @Test
+  public void testStreamedFacts() throws IOException {
+    FactTable table = new FactTable();
+    table.setHeader("ID,NAME");
+    int h = table.addFact("H", "Hydrogen");
+    StringWriter writer = new StringWriter();
+    table.stream(writer);
+    Assert.assertTrue(table.isStreaming());
+
+    // new facts are written as they are added, existing ones are not repeated
+    int he = table.addFact("He", "Helium");
+    Assert.assertEquals(h, table.addFact("H", "Hydrogen"));
+    Assert.assertEquals(he, table.addFact("He", "Helium"));
+    table.flush();
+    String newline = System.lineSeparator();
+    Assert.assertEquals("ID,NAME" + newline + h + ",Hydrogen" + newline + he + ",Helium"
+        + newline, writer.toString());
+
+    // only the keys are kept
+    Assert.assertEquals(he, table.getFactId("He"));
+    Assert.assertNull(table.getFactById(he));
+  }
+
+  @Test
+  public void testCloseStreamedTable() throws IOException {
+    FactTable table = new FactTable();
+    table.setHeader("ID,NAME");
+    AtomicBoolean closed = new AtomicBoolean();
+    StringWriter writer = new StringWriter() {
+      @Override
+      public void close() throws IOException {
+        closed.set(true);
+        super.close();
+      }
+    };
+    table.stream(writer);
+    table.addFact("H", "Hydrogen");
+    table.close();
+    Assert.assertTrue(closed.get());
+    Assert.assertTrue(writer.toString().endsWith(",Hydrogen" + System.lineSeparator()));
+  }
 }
@@ -0,0 +1,31 @@
+package org.mitre.synthea.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+
+public class IdSequenceTest {
+
+  @Test
+  public void testDeterministicIds() {
+    Config.set("generate.deterministic", "true");
+    try {
+      IdSequence ids = new IdSequence(42L, 10L);
+      assertEquals(Utilities.seededUUID(42L, 10L).toString(), ids.next());
+      assertEquals(Utilities.seededUUID(42L, 11L).toString(), ids.next());
+
+      IdSequence again = new IdSequence(42L, 10L);
+      assertEquals(Utilities.seededUUID(42L, 10L).toString(), again.next());
+    } finally {
+      Config.set("generate.deterministic", "false");
+    }
+  }
+
+  @Test
+  public void testRandomIds() {
+    IdSequence ids = new IdSequence(42L, 10L);
+    IdSequence again = new IdSequence(42L, 10L);
+    assertNotEquals(ids.next(), again.next());
+  }
+}
@@ -0,0 +1,146 @@
+package org.mitre.synthea.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class NdjsonWriterTest {
+  /**
+   * Temporary folder for any exported files, guaranteed to be deleted at the end of the test.
+   */
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private static final int THREADS = 4;
+  private static final int LINES = 2000;
+
+  private static String line(int thread, int i) {
+    return "{\"resourceType\":\"Patient\",\"id\":\"" + thread + "-" + i + "\"}";
+  }
+
+  /**
+   * Write LINES lines from each of THREADS threads.
+   */
+  private static void writeLines(NdjsonWriter writer) throws Exception {
+    List<Thread> threads = new ArrayList<>();
+    List<Throwable> errors = new ArrayList<>();
+    for (int t = 0; t < THREADS; t++) {
+      final int thread = t;
+      threads.add(new Thread(() -> {
+        try {
+          for (int i = 0; i < LINES; i++) {
+            writer.write(line(thread, i));
+          }
+        } catch (Throwable e) {
+          synchronized (errors) {
+            errors.add(e);
+          }
+        }
+      }));
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertTrue(errors.toString(), errors.isEmpty());
+  }
+
+  /**
+   * Read every line of every file in the folder, checking each is whole.
+   */
+  private List<String> readAll() throws Exception {
+    List<String> lines = new ArrayList<>();
+    for (File file : tempFolder.getRoot().listFiles()) {
+      assertTrue(file.getName(), file.getName().matches("Patient(\\.\\d+)?\\.ndjson"));
+      for (String line : Files.readAllLines(file.toPath())) {
+        assertTrue(line, line.startsWith("{\"resourceType\"") && line.endsWith("\"}"));
+        lines.add(line);
+      }
+    }
+    return lines;
+  }
+
+  private static void assertAllLines(List<String> lines) {
+    Set<String> unique = new HashSet<>(lines);
+    assertEquals(THREADS * LINES, lines.size());
+    assertEquals(THREADS * LINES, unique.size());
+  }
+
+  @Test
+  public void testPerThreadBuffers() throws Exception {
+    NdjsonWriter writer = new NdjsonWriter(tempFolder.getRoot(), "Patient", 1000, true, false, 0);
+    writeLines(writer);
+    writer.close();
+    assertEquals(1, tempFolder.getRoot().list().length);
+    assertAllLines(readAll());
+  }
+
+  @Test
+  public void testShards() throws Exception {
+    NdjsonWriter writer = new NdjsonWriter(tempFolder.getRoot(), "Patient", 1000, true, true, 0);
+    writeLines(writer);
+    writer.close();
+    assertEquals(THREADS, tempFolder.getRoot().list().length);
+    assertAllLines(readAll());
+  }
+
+  @Test
+  public void testRotation() throws Exception {
+    long maxFileSize = 20000;
+    NdjsonWriter writer =
+        new NdjsonWriter(tempFolder.getRoot(), "Patient", 1000, true, true, maxFileSize);
+    writeLines(writer);
+    writer.close();
+    File[] files = tempFolder.getRoot().listFiles();
+    assertTrue(files.length > THREADS);
+    for (File file : files) {
+      assertTrue(file.getName(), file.length() <= maxFileSize);
+    }
+    assertAllLines(readAll());
+  }
+
+  @Test
+  public void testRotationSkipsFullFiles() throws Exception {
+    long maxFileSize = 20000;
+    for (int run = 0; run < 2; run++) {
+      // a new writer into the same folder, like after BulkDataExporter.close()
+      NdjsonWriter writer =
+          new NdjsonWriter(tempFolder.getRoot(), "Patient", 1000, false, false, maxFileSize);
+      for (int i = 0; i < LINES; i++) {
+        writer.write(line(run, i));
+      }
+      writer.close();
+    }
+    for (File file : tempFolder.getRoot().listFiles()) {
+      assertTrue(file.getName(), file.length() <= maxFileSize);
+    }
+    assertEquals(2 * LINES, readAll().size());
+  }
+
+  @Test
+  public void testSharedBufferKeepsOrder() throws Exception {
+    NdjsonWriter writer = new NdjsonWriter(tempFolder.getRoot(), "Patient", 100, false, true, 0);
+    for (int i = 0; i < 1000; i++) {
+      writer.write(line(0, i));
+    }
+    writer.close();
+    List<String> lines = Files.readAllLines(new File(tempFolder.getRoot(), "Patient.ndjson")
+        .toPath());
+    assertEquals(1000, lines.size());
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(line(0, i), lines.get(i));
+    }
+  }
+}
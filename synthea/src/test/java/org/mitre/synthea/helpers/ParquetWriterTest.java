@@ -0,0 +1,67 @@
+package org.mitre.synthea.helpers;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericData;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.avro.AvroParquetReader;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ParquetWriterTest {
+  /**
+   * Temporary folder for any exported files, guaranteed to be deleted at the end of the test.
+   */
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private static final Schema SCHEMA = SchemaBuilder.record("state").fields()
+      .requiredString("subject").requiredString("value").endRecord();
+
+  @Test
+  public void testCodecsWithoutChecksumFiles() throws Exception {
+    File folder = tempFolder.newFolder();
+    for (CompressionCodecName codec : new CompressionCodecName[] {
+        CompressionCodecName.SNAPPY, CompressionCodecName.GZIP,
+        CompressionCodecName.UNCOMPRESSED}) {
+      ParquetWriter.Options options = new ParquetWriter.Options(codec, 4096, 1024, false);
+      Path file = new Path(new File(folder, codec + ".parquet").getPath());
+      // written twice, the second write replaces the first file
+      for (int pass = 0; pass < 2; pass++) {
+        try (org.apache.parquet.hadoop.ParquetWriter<GenericData.Record> writer =
+            ParquetWriter.open(file, SCHEMA, options)) {
+          for (int i = 0; i < 100; i++) {
+            GenericData.Record record = new GenericData.Record(SCHEMA);
+            record.put("subject", "patient" + i);
+            record.put("value", pass + "." + i);
+            writer.write(record);
+          }
+        }
+      }
+
+      int count = 0;
+      try (ParquetReader<GenericData.Record> reader =
+          AvroParquetReader.<GenericData.Record>builder(file).build()) {
+        GenericData.Record record;
+        while ((record = reader.read()) != null) {
+          assertEquals("1." + count, record.get("value").toString());
+          count++;
+        }
+      }
+      assertEquals(100, count);
+    }
+    String[] files = folder.list();
+    Arrays.sort(files);
+    assertArrayEquals(new String[] {"GZIP.parquet", "SNAPPY.parquet", "UNCOMPRESSED.parquet"},
+        files);
+  }
+}
@@ -0,0 +1,86 @@
+package org.mitre.synthea.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericData;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.avro.AvroParquetReader;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PartitionedParquetWriterTest {
+  /**
+   * Temporary folder for any exported files, guaranteed to be deleted at the end of the test.
+   */
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private static final Schema SCHEMA = SchemaBuilder.record("encounter").fields()
+      .requiredString("subject").requiredLong("start").endRecord();
+
+  private static final Comparator<GenericData.Record> ORDER = Comparator
+      .comparing((GenericData.Record r) -> r.get("subject").toString())
+      .thenComparing(r -> (Long) r.get("start"));
+
+  @Test
+  public void testSortedPartitions() throws Exception {
+    File folder = tempFolder.newFolder();
+    Map<String, Long> files = Collections.synchronizedMap(new TreeMap<>());
+    // the async writer in front has to keep the partition of every write
+    AsyncParquetWriter writer = new AsyncParquetWriter(new PartitionedParquetWriter(folder,
+        SCHEMA, RollingParquetWriterTest.OPTIONS, 300, ORDER,
+        (file, rows) -> files.put(folder.toPath().relativize(
+            new File(file.toString()).toPath()).toString().replace('\\', '/'), rows)),
+        50, "test-partitions");
+
+    Random random = new Random(0);
+    for (int i = 0; i < 100; i++) {
+      for (String year : new String[] {"year=2018", "year=2019"}) {
+        List<GenericData.Record> records = new ArrayList<>();
+        for (int j = 0; j < 5; j++) {
+          GenericData.Record record = new GenericData.Record(SCHEMA);
+          record.put("subject", "patient" + random.nextInt(10));
+          record.put("start", random.nextLong());
+          records.add(record);
+        }
+        writer.write("state=MA/" + year, records);
+      }
+    }
+    writer.close();
+
+    long total = 0;
+    for (Map.Entry<String, Long> file : files.entrySet()) {
+      assertTrue(file.getKey(), file.getKey().matches("state=MA/year=201[89]/part-\\d{5}.parquet"));
+      List<GenericData.Record> read = new ArrayList<>();
+      try (ParquetReader<GenericData.Record> reader = AvroParquetReader
+          .<GenericData.Record>builder(new Path(new File(folder, file.getKey()).getPath()))
+          .build()) {
+        GenericData.Record record;
+        while ((record = reader.read()) != null) {
+          read.add(record);
+        }
+      }
+      assertEquals(file.getValue().longValue(), read.size());
+      for (int i = 1; i < read.size(); i++) {
+        assertTrue(ORDER.compare(read.get(i - 1), read.get(i)) <= 0);
+      }
+      total += read.size();
+    }
+    assertTrue(files.size() > 2);
+    assertEquals(100 * 2 * 5, total);
+  }
+}
@@ -0,0 +1,159 @@
+package org.mitre.synthea.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ProgressReporterTest {
+  /**
+   * Temporary folder for any exported files, guaranteed to be deleted at the end of the test.
+   */
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private HttpServer server;
+
+  @After
+  public void stopServer() {
+    if (server != null) {
+      server.stop(0);
+    }
+  }
+
+  /**
+   * Start a stub of the logging API, which records each update and responds with the status.
+   */
+  private String startServer(List<String> updates, int status, long delayMillis)
+      throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/updates", exchange -> {
+      try (InputStream body = exchange.getRequestBody()) {
+        updates.add(IOUtils.toString(body, StandardCharsets.UTF_8));
+      }
+      try {
+        Thread.sleep(delayMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      exchange.sendResponseHeaders(status, -1);
+      exchange.close();
+    });
+    server.start();
+    return "http://127.0.0.1:" + server.getAddress().getPort() + "/updates";
+  }
+
+  private static int count(String update, String eventType) {
+    JsonObject counts = new JsonParser().parse(update).getAsJsonObject()
+        .getAsJsonObject("counts");
+    return counts.has(eventType) ? counts.get(eventType).getAsInt() : 0;
+  }
+
+  @Test
+  public void testCoalescedUpdates() throws Exception {
+    CountDownLatch sending = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    List<String> updates = new CopyOnWriteArrayList<>();
+    ProgressReporter reporter = new ProgressReporter(update -> {
+      sending.countDown();
+      updates.add(update);
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }, 60000);
+
+    reporter.report(Collections.singletonMap("encounter", 1));
+    sending.await();
+    // the sink is stuck on the first update, which must not hold up reporting
+    for (int i = 0; i < 1000; i++) {
+      reporter.report(Collections.singletonMap("encounter", 2));
+      reporter.report(Collections.singletonMap("patient", 1));
+    }
+    release.countDown();
+    // a flush doesn't wait out the interval
+    assertTrue(reporter.flush(10000));
+    reporter.close(10000);
+
+    assertEquals(2, updates.size());
+    assertEquals(1, count(updates.get(0), "encounter"));
+    assertEquals(2000, count(updates.get(1), "encounter"));
+    assertEquals(1000, count(updates.get(1), "patient"));
+  }
+
+  @Test
+  public void testHttpSink() throws Exception {
+    List<String> updates = new CopyOnWriteArrayList<>();
+    String url = startServer(updates, 200, 0);
+    ProgressReporter reporter = new ProgressReporter(new HttpProgressSink(url, 5000), 0);
+    for (int i = 0; i < 10; i++) {
+      reporter.report(Collections.singletonMap("patient", 1));
+      assertTrue(reporter.flush(10000));
+    }
+    reporter.close(10000);
+
+    int total = 0;
+    for (String update : updates) {
+      total += count(update, "patient");
+    }
+    assertEquals(10, total);
+  }
+
+  @Test
+  public void testHttpSinkErrors() throws Exception {
+    String url = startServer(new CopyOnWriteArrayList<>(), 500, 0);
+    try (HttpProgressSink sink = new HttpProgressSink(url, 5000)) {
+      sink.send("{}");
+      fail("Expected the error status to be reported");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("500"));
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testHttpSinkTimeout() throws Exception {
+    String url = startServer(new CopyOnWriteArrayList<>(), 200, 5000);
+    try (HttpProgressSink sink = new HttpProgressSink(url, 200)) {
+      sink.send("{}");
+      fail("Expected the request to time out");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testJsonLinesSink() throws Exception {
+    File file = new File(tempFolder.getRoot(), "logs/progress.jsonl");
+    ProgressReporter reporter = new ProgressReporter(new JsonLinesProgressSink(file), 0);
+    reporter.report(Collections.singletonMap("patient", 3));
+    assertTrue(reporter.flush(10000));
+    reporter.report(Collections.singletonMap("patient", 4));
+    reporter.close(10000);
+
+    List<String> lines = Files.readAllLines(file.toPath());
+    assertEquals(2, lines.size());
+    assertEquals(3, count(lines.get(0), "patient"));
+    assertEquals(4, count(lines.get(1), "patient"));
+  }
+}
@@ -0,0 +1,79 @@
+package org.mitre.synthea.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericData;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.avro.AvroParquetReader;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RollingParquetWriterTest {
+  /**
+   * Temporary folder for any exported files, guaranteed to be deleted at the end of the test.
+   */
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  /**
+   * Tiny row groups and pages, so every few patients start a new file.
+   */
+  static final ParquetWriter.Options OPTIONS = new ParquetWriter.Options(
+      CompressionCodecName.SNAPPY, 1024, 1024, true);
+
+  private static final Schema SCHEMA = SchemaBuilder.record("state").fields()
+      .requiredString("subject").requiredString("value").endRecord();
+
+  @Test
+  public void testRollsOverToNewFiles() throws Exception {
+    File folder = tempFolder.newFolder();
+    List<String> closed = Collections.synchronizedList(new ArrayList<>());
+    List<Long> rows = Collections.synchronizedList(new ArrayList<>());
+    RollingParquetWriter writer = new RollingParquetWriter(folder, "state", SCHEMA, OPTIONS, 2048,
+        (file, count) -> {
+          closed.add(file.getName());
+          rows.add(count);
+        });
+
+    int patients = 50;
+    for (int i = 0; i < patients; i++) {
+      List<GenericData.Record> records = new ArrayList<>();
+      for (int j = 0; j < 10; j++) {
+        GenericData.Record record = new GenericData.Record(SCHEMA);
+        record.put("subject", "patient" + i);
+        record.put("value", "value " + i + "." + j);
+        records.add(record);
+      }
+      writer.write("patient" + i, records);
+    }
+    writer.close();
+
+    assertTrue(closed.size() > 1);
+    assertEquals("state-patient0.parquet", closed.get(0));
+    long total = 0;
+    for (int f = 0; f < closed.size(); f++) {
+      long read = 0;
+      try (ParquetReader<GenericData.Record> reader = AvroParquetReader
+          .<GenericData.Record>builder(new Path(new File(folder, closed.get(f)).getPath()))
+          .build()) {
+        while (reader.read() != null) {
+          read++;
+        }
+      }
+      assertEquals(rows.get(f).longValue(), read);
+      total += read;
+    }
+    assertEquals(patients * 10, total);
+  }
+}
@@ -2,10 +2,12 @@ package org.mitre.synthea.helpers;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 
 import com.google.gson.JsonPrimitive;
 import java.util.Date;
+import java.util.UUID;
 import org.junit.Test;
 
 public class UtilitiesTest {
@@ -23,6 +25,25 @@ public class UtilitiesTest {
     assertTrue(date > year);
   }
 
+  @Test
+  public void testSeededUUID() {
+    UUID uuid = Utilities.seededUUID(42L, 1L);
+    assertEquals(uuid, Utilities.seededUUID(42L, 1L));
+    assertEquals(4, uuid.version());
+    assertEquals(2, uuid.variant());
+    assertNotEquals(uuid, Utilities.seededUUID(42L, 2L));
+    assertNotEquals(uuid, Utilities.seededUUID(43L, 1L));
+  }
+
+  @Test
+  public void testSeededDicomUid() {
+    String uid = Utilities.seededDicomUid(42L, 1000L, 2, 3);
+    assertEquals(uid, Utilities.seededDicomUid(42L, 1000L, 2, 3));
+    assertTrue(uid.matches("1\\.2\\.840\\.99999999\\.2\\.3\\.[0-9]{8}\\.1000"));
+    assertNotEquals(uid, Utilities.seededDicomUid(43L, 1000L, 2, 3));
+    assertNotEquals(uid, Utilities.seededDicomUid(42L, 2000L, 2, 3));
+  }
+
   @Test
   public void testGetYear() {
     assertEquals(1970, Utilities.getYear(0L));
@@ -4,6 +4,10 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.mitre.synthea.engine.Event;
@@ -81,4 +85,37 @@ public class VitalsValueGeneratorTest {
       System.out.println("Value @ " + time + ": " + testValue);
     }
   }
+
+  @Test
+  public void testGeneratorsAreReproducible() throws Exception {
+    double[] expected = bloodPressures(0L);
+    ExecutorService threads = Executors.newFixedThreadPool(4);
+    try {
+      // the same seed gives the same values, even with other people generated at the same time
+      Future<double[]> other = threads.submit(() -> bloodPressures(1L));
+      Future<double[]> same = threads.submit(() -> bloodPressures(0L));
+      double[] actual = same.get();
+      for (int i = 0; i < expected.length; i++) {
+        assertEquals(expected[i], actual[i], 0.0);
+      }
+      assertTrue(other.get()[0] != expected[0]);
+    } finally {
+      threads.shutdown();
+    }
+  }
+
+  private double[] bloodPressures(long seed) {
+    Person patient = new Person(seed);
+    patient.attributes.put(Person.BIRTHDATE, time - Utilities.convertTime("years", 65));
+    BloodPressureValueGenerator systolic = new BloodPressureValueGenerator(
+        patient, BloodPressureValueGenerator.SysDias.SYSTOLIC);
+    TrendingValueGenerator trend =
+        new TrendingValueGenerator(patient, 5.0, 0.0, 1000.0, 0L, 1000L, null, null);
+    double[] values = new double[200];
+    for (int i = 0; i < 100; i++) {
+      values[2 * i] = systolic.getValue(i * ONE_DAY);
+      values[2 * i + 1] = trend.getValue(i * 10L);
+    }
+    return values;
+  }
 }
@@ -4,6 +4,8 @@ import static org.junit.Assert.assertEquals;
 import static org.mitre.synthea.TestHelper.timestamp;
 
 import java.io.IOException;
+import java.time.Period;
+import java.util.Random;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -51,6 +53,27 @@ public class PersonTest {
     testAgeMonths(birthdate, now, 11);
   }
 
+  @Test
+  public void testAgeMatchesPeriod() {
+    // month ends and leap days, where Period.between has to adjust the months
+    long[] birthdates = {
+        timestamp(2000, 2, 29, 12, 0, 0), timestamp(1999, 1, 31, 23, 59, 59),
+        timestamp(1970, 1, 1, 0, 0, 0), timestamp(1900, 3, 1, 0, 0, 0),
+        timestamp(2012, 12, 31, 0, 0, 0)
+    };
+    Random random = new Random(8L);
+    for (long birthdate : birthdates) {
+      person.attributes.put(Person.BIRTHDATE, birthdate);
+      for (int i = 0; i < 2000; i++) {
+        long now = birthdate + (long) (random.nextDouble() * 120 * 365.25 * 86400000L)
+            - 86400000L * 365;
+        Period period = person.age(now);
+        assertEquals(Math.max(0, period.getYears()), person.ageInYears(now));
+        assertEquals(Math.max(0, period.toTotalMonths()), person.ageInMonths(now));
+      }
+    }
+  }
+
   private void testAgeYears(long birthdate, long now, long expectedAge) {
     person.attributes.put(Person.BIRTHDATE, birthdate);
     assertEquals(expectedAge, person.ageInYears(now));